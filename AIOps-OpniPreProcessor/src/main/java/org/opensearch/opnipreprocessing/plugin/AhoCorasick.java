@@ -0,0 +1,159 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Aho-Corasick automaton (Aho and Corasick, CACM 1975) that finds every occurrence of a set of
+ * strings in one pass over the text, whatever the number of strings.
+ *
+ * The failure links are folded into a full transition table over the characters that occur in the
+ * strings, so {@link #next} is one table read and the caller drives the scan without allocating:
+ * <pre>
+ * for (int i = 0, state = 0; i &lt; text.length(); i++) {
+ *     state = automaton.next(state, text.charAt(i));
+ *     for (int pattern : automaton.outputs(state)) {
+ *         // pattern ends at i
+ *     }
+ * }
+ * </pre>
+ */
+final class AhoCorasick {
+
+    private static final int[] NONE = new int[0];
+
+    private final int[] lengths;
+    // character class of every ASCII char, 0 for chars in no pattern
+    private final int[] asciiClasses = new int[128];
+    // other chars in the patterns, sorted, and their classes
+    private final char[] otherChars;
+    private final int[] otherClasses;
+    private final int classes;
+    // [state * classes + class]
+    private final int[] transitions;
+    // patterns that end in each state, including through failure links
+    private final int[][] outputs;
+
+    AhoCorasick(List<String> patterns) {
+        lengths = new int[patterns.size()];
+        TreeSet<Character> chars = new TreeSet<>();
+        for (int p = 0; p < lengths.length; p++) {
+            String pattern = patterns.get(p);
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("empty pattern");
+            }
+            lengths[p] = pattern.length();
+            for (int i = 0; i < pattern.length(); i++) {
+                chars.add(pattern.charAt(i));
+            }
+        }
+        int nextClass = 1;
+        List<Character> others = new ArrayList<>();
+        for (char c : chars) {
+            if (c < 128) {
+                asciiClasses[c] = nextClass++;
+            } else {
+                others.add(c);
+            }
+        }
+        otherChars = new char[others.size()];
+        otherClasses = new int[others.size()];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherChars[i] = others.get(i);
+            otherClasses[i] = nextClass++;
+        }
+        classes = nextClass;
+
+        // trie
+        List<int[]> goTo = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        goTo.add(new int[classes]);
+        ends.add(new ArrayList<>());
+        for (int p = 0; p < lengths.length; p++) {
+            String pattern = patterns.get(p);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int c = classOf(pattern.charAt(i));
+                if (goTo.get(state)[c] == 0) {
+                    goTo.get(state)[c] = goTo.size();
+                    goTo.add(new int[classes]);
+                    ends.add(new ArrayList<>());
+                }
+                state = goTo.get(state)[c];
+            }
+            ends.get(state).add(p);
+        }
+
+        // breadth first: failure links, folded into the transitions, and the outputs they bring in
+        int states = goTo.size();
+        transitions = new int[states * classes];
+        outputs = new int[states][];
+        int[] fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        outputs[0] = NONE;
+        for (int c = 1; c < classes; c++) {
+            int child = goTo.get(0)[c];
+            transitions[c] = child;
+            if (child != 0) {
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int[] own = ends.get(state).stream().mapToInt(Integer::intValue).toArray();
+            int[] inherited = outputs[fail[state]];
+            int[] all = Arrays.copyOf(own, own.length + inherited.length);
+            System.arraycopy(inherited, 0, all, own.length, inherited.length);
+            outputs[state] = all.length == 0 ? NONE : all;
+            for (int c = 1; c < classes; c++) {
+                int child = goTo.get(state)[c];
+                if (child != 0) {
+                    fail[child] = transitions[fail[state] * classes + c];
+                    transitions[state * classes + c] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * classes + c] = transitions[fail[state] * classes + c];
+                }
+            }
+        }
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        int i = Arrays.binarySearch(otherChars, c);
+        return i < 0 ? 0 : otherClasses[i];
+    }
+
+    /**
+     * The state after reading {@code c} in {@code state}; scans start in state 0.
+     */
+    int next(int state, char c) {
+        int cls = classOf(c);
+        // a char in no pattern matches nothing and leads back to the start
+        return cls == 0 ? 0 : transitions[state * classes + cls];
+    }
+
+    /**
+     * The patterns that end at the char that led to {@code state}.
+     */
+    int[] outputs(int state) {
+        return outputs[state];
+    }
+
+    int length(int pattern) {
+        return lengths[pattern];
+    }
+}
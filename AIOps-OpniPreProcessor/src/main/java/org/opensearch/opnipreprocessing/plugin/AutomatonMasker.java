@@ -0,0 +1,72 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.List;
+
+/**
+ * Masker that applies each rule phase in a single linear pass over the line.
+ *
+ * The rules of a phase are matched together (see {@link MaskingAutomaton}) instead of one after
+ * another, so a span is masked by the longest rule matching at the leftmost position and no rule
+ * sees the output of another. This makes the cost independent of the number of rules and of how
+ * the patterns are written, at the price of differing from the regex engine wherever its rules
+ * used to rewrite each other's output.
+ */
+final class AutomatonMasker implements LogMasker.Masker {
+
+    private final MaskingAutomaton rules, rulesBeforeSplit;
+    private final List<LogMasker.MaskingRule> maskingRules, maskingRulesBeforeSplit;
+
+    AutomatonMasker(List<LogMasker.MaskingRule> maskingRules, List<LogMasker.MaskingRule> maskingRulesBeforeSplit) {
+        this.rules = new MaskingAutomaton(maskingRules);
+        this.rulesBeforeSplit = new MaskingAutomaton(maskingRulesBeforeSplit);
+        this.maskingRules = maskingRules;
+        this.maskingRulesBeforeSplit = maskingRulesBeforeSplit;
+    }
+
+    @Override
+    public String mask(String content, long deadline) {
+        LexerMasker.Buffers buffers = LexerMasker.BUFFERS.get();
+        try {
+            LexerMasker.CharBuf buf = buffers.a;
+            buf.set(content);
+            // skip a phase when the line has no characters for any of its rules
+            long present = LinePrescan.scan(buf.chars, 0, buf.length);
+            if ((present & LinePrescan.ANSI) != 0) {
+                buf = LexerMasker.stripAnsi(buf, buffers.other(buf));
+            }
+            if (mayMatch(maskingRulesBeforeSplit, present)) {
+                MaskingBudget.check(deadline);
+                buf = rulesBeforeSplit.replace(buf, buffers.other(buf));
+                for (LogMasker.MaskingRule rule : maskingRulesBeforeSplit) {
+                    present |= rule.maskClasses;
+                }
+            }
+            buf = LexerMasker.splitAroundSeparators(buf, buffers.other(buf));
+            buf = LexerMasker.joinLines(buf, buffers.other(buf));
+            if (mayMatch(maskingRules, present | LinePrescan.SPACE)) {
+                MaskingBudget.check(deadline);
+                buf = rules.replace(buf, buffers.other(buf));
+            }
+            return LexerMasker.joinTokens(buf, buffers.other(buf));
+        } finally {
+            buffers.a.trim();
+            buffers.b.trim();
+        }
+    }
+
+    private static boolean mayMatch(List<LogMasker.MaskingRule> maskingRules, long present) {
+        for (LogMasker.MaskingRule rule : maskingRules) {
+            if (rule.mayMatch(present)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.ingest.IngestDocument;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Top-level fields of a document, read straight from its source map rather than through
+ * {@link IngestDocument}'s field paths, which are parsed again on every call. Writes and removals
+ * are kept aside, seen by later reads, and applied together by {@link #apply}.
+ */
+final class DocumentFields {
+
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> source;
+    // pending writes, few enough per document for a linear scan
+    private String[] keys = new String[16];
+    private Object[] values = new Object[16];
+    private int pending;
+    private Map<?, ?> kubernetes;
+    private boolean kubernetesRead;
+
+    DocumentFields(IngestDocument ingestDocument) {
+        this.source = ingestDocument.getSourceAndMetadata();
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < pending; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The value of {@code key}, or null if the document does not have it.
+     */
+    Object get(String key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return values[i] == REMOVED ? null : values[i];
+        }
+        return source.get(key);
+    }
+
+    boolean has(String key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return values[i] != REMOVED;
+        }
+        return source.containsKey(key);
+    }
+
+    /**
+     * The value of {@code key} if it is a string, null otherwise.
+     */
+    String string(String key) {
+        Object value = get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * The string value of {@code key}, which the document must have.
+     */
+    String required(String key) {
+        if (!has(key)) {
+            throw new IllegalArgumentException("field [" + key + "] not present as part of path [" + key + "]");
+        }
+        Object value = get(key);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException("field [" + key + "] of type [" + value.getClass().getName()
+                + "] cannot be cast to [java.lang.String]");
+        }
+        return (String) value;
+    }
+
+    /**
+     * Whether {@code key} is the string {@code value}.
+     */
+    boolean is(String key, String value) {
+        return value.equals(get(key));
+    }
+
+    /**
+     * The value of {@code key} if it is an object, null otherwise.
+     */
+    Map<?, ?> object(String key) {
+        Object value = get(key);
+        return value instanceof Map ? (Map<?, ?>) value : null;
+    }
+
+    /**
+     * The {@code kubernetes} object, or null if there is none.
+     */
+    Map<?, ?> kubernetes() {
+        if (!kubernetesRead) {
+            Object value = source.get("kubernetes");
+            kubernetes = value instanceof Map ? (Map<?, ?>) value : null;
+            kubernetesRead = true;
+        }
+        return kubernetes;
+    }
+
+    void set(String key, Object value) {
+        int i = indexOf(key);
+        if (i < 0) {
+            if (pending == keys.length) {
+                keys = Arrays.copyOf(keys, pending * 2);
+                values = Arrays.copyOf(values, pending * 2);
+            }
+            i = pending++;
+            keys[i] = key;
+        }
+        values[i] = value;
+    }
+
+    void setIfAbsent(String key, Object value) {
+        if (!has(key)) {
+            set(key, value);
+        }
+    }
+
+    void remove(String key) {
+        set(key, REMOVED);
+    }
+
+    /**
+     * Writes the pending changes to the document.
+     */
+    void apply() {
+        for (int i = 0; i < pending; i++) {
+            if (values[i] == REMOVED) {
+                source.remove(keys[i]);
+            } else {
+                source.put(keys[i], values[i]);
+            }
+            keys[i] = null;
+            values[i] = null;
+        }
+        pending = 0;
+    }
+}
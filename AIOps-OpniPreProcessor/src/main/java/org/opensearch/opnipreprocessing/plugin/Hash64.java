@@ -0,0 +1,102 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+/**
+ * Fast non-cryptographic 64-bit hash over the chars of a string (xxHash64 style rounds), so
+ * log lines can be hashed without encoding them to bytes first.
+ */
+final class Hash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private Hash64() {
+    }
+
+    static long hash(CharSequence s) {
+        return hash(s, 0, s.length(), 0L);
+    }
+
+    static long hash(CharSequence s, long seed) {
+        return hash(s, 0, s.length(), seed);
+    }
+
+    static long hash(CharSequence s, int from, int to, long seed) {
+        long h = seed + P5 + (long) (to - from) * 2;
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            long word = s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+            h ^= Long.rotateLeft(word * P2, 31) * P1;
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        for (; i < to; i++) {
+            h ^= s.charAt(i) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        return mix(h);
+    }
+
+    static long hash(char[] s, int from, int to, long seed) {
+        long h = seed + P5 + (long) (to - from) * 2;
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            long word = s[i] | (long) s[i + 1] << 16 | (long) s[i + 2] << 32 | (long) s[i + 3] << 48;
+            h ^= Long.rotateLeft(word * P2, 31) * P1;
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        for (; i < to; i++) {
+            h ^= s[i] * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        return mix(h);
+    }
+
+    /**
+     * SimHash of the tokens of {@code s} separated by {@code separator}: lines that share most of
+     * their tokens get hashes that differ in few bits.
+     */
+    static long simHash(CharSequence s, char separator) {
+        int[] votes = new int[64];
+        int start = 0;
+        for (int i = 0, n = s.length(); i <= n; i++) {
+            if (i < n && s.charAt(i) != separator) {
+                continue;
+            }
+            if (i > start) {
+                long h = hash(s, start, i, 0L);
+                for (int bit = 0; bit < 64; bit++) {
+                    votes[bit] += (int) (h >>> bit & 1L) * 2 - 1;
+                }
+            }
+            start = i + 1;
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+
+    /**
+     * Final avalanche step; also useful to derive independent values from one hash.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
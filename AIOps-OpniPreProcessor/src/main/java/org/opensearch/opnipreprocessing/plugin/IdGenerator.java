@@ -0,0 +1,95 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.UUIDs;
+
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How the processor names the {@code _id} of a document, which the NATS payload carries too.
+ */
+enum IdGenerator {
+
+    /**
+     * 20 base64url chars of 15 bytes: the time in millis (6 bytes), then bits of the node (3 bytes),
+     * the slot of the thread (2 bytes) and its sequence (4 bytes). Ids of the same time and node
+     * share a prefix, which keeps Lucene's id lookups cheap as with OpenSearch's own ids, and take
+     * nothing from a shared random generator or counter.
+     */
+    TIME {
+        @Override
+        String next() {
+            return ThreadIds.LOCAL.get().next();
+        }
+    },
+    /**
+     * OpenSearch's time-based ids, as for documents indexed without an id.
+     */
+    OPENSEARCH {
+        @Override
+        String next() {
+            return UUIDs.base64UUID();
+        }
+    },
+    /**
+     * Random UUIDs, as the processor used to make.
+     */
+    RANDOM {
+        @Override
+        String next() {
+            return UUID.randomUUID().toString();
+        }
+    };
+
+    abstract String next();
+
+    static IdGenerator fromString(String strategy) {
+        try {
+            return valueOf(strategy.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown id strategy [" + strategy + "], expected one of [time, opensearch, random]");
+        }
+    }
+
+    private static final class ThreadIds {
+        private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+        // drawn once per node start, so ids of nodes and restarts differ at the same time
+        private static final int NODE = new SecureRandom().nextInt() & 0xFFFFFF;
+        private static final AtomicInteger SLOTS = new AtomicInteger();
+        private static final ThreadLocal<ThreadIds> LOCAL = ThreadLocal.withInitial(ThreadIds::new);
+
+        // the sequence never restarts, so the ids of a thread are unique whatever its clock does
+        private final int slot = SLOTS.getAndIncrement() & 0xFFFF;
+        private int sequence = ThreadLocalRandom.current().nextInt();
+
+        String next() {
+            long time = System.currentTimeMillis();
+            int seq = sequence++;
+            char[] chars = new char[20];
+            // five groups of three bytes, four chars each
+            encode(chars, 0, (int) (time >>> 24) & 0xFFFFFF);
+            encode(chars, 4, (int) time & 0xFFFFFF);
+            encode(chars, 8, NODE);
+            encode(chars, 12, (slot << 8) | (seq >>> 24));
+            encode(chars, 16, seq & 0xFFFFFF);
+            return new String(chars);
+        }
+
+        private static void encode(char[] chars, int offset, int bits) {
+            chars[offset] = ALPHABET[(bits >>> 18) & 0x3F];
+            chars[offset + 1] = ALPHABET[(bits >>> 12) & 0x3F];
+            chars[offset + 2] = ALPHABET[(bits >>> 6) & 0x3F];
+            chars[offset + 3] = ALPHABET[bits & 0x3F];
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Names the index of a document from its {@code log_type} with a template such as
+ * {@code logs-opni-{log_type}}, which can name a data stream or the write alias of a rollover
+ * index as well as a plain index. {@code {index}} stands for the index the document was sent to.
+ *
+ * The template is split into its literal parts and placeholders once, so a document's index name
+ * is one concatenation.
+ */
+final class IndexRouter {
+
+    static final String LOG_TYPE = "{log_type}";
+    static final String INDEX = "{index}";
+
+    private final String template;
+    // literal parts, or LOG_TYPE and INDEX themselves for the placeholders
+    private final String[] parts;
+
+    private IndexRouter(String template, String[] parts) {
+        this.template = template;
+        this.parts = parts;
+    }
+
+    static IndexRouter compile(String template) {
+        List<String> parts = new ArrayList<>();
+        boolean hasLogType = false;
+        int from = 0;
+        while (from < template.length()) {
+            int open = template.indexOf('{', from);
+            int close = template.indexOf('}', from);
+            if (open < 0 && close < 0) {
+                parts.add(literal(template, template.substring(from)));
+                break;
+            }
+            if (open < 0 || close < open) {
+                throw new IllegalArgumentException("unbalanced braces in index template [" + template + "]");
+            }
+            if (open > from) {
+                parts.add(literal(template, template.substring(from, open)));
+            }
+            close = template.indexOf('}', open);
+            String placeholder = close < 0 ? template.substring(open) : template.substring(open, close + 1);
+            if (placeholder.equals(LOG_TYPE)) {
+                parts.add(LOG_TYPE);
+                hasLogType = true;
+            } else if (placeholder.equals(INDEX)) {
+                parts.add(INDEX);
+            } else {
+                throw new IllegalArgumentException("unknown placeholder [" + placeholder + "] in index template [" + template
+                    + "], expected " + LOG_TYPE + " or " + INDEX);
+            }
+            from = close + 1;
+        }
+        if (!hasLogType) {
+            throw new IllegalArgumentException("index template [" + template + "] must contain " + LOG_TYPE);
+        }
+        return new IndexRouter(template, parts.toArray(new String[0]));
+    }
+
+    private static String literal(String template, String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (!validChar(literal.charAt(i)) || Character.isUpperCase(literal.charAt(i))) {
+                throw new IllegalArgumentException("index template [" + template + "] has an invalid character ["
+                    + literal.charAt(i) + "] for an index name");
+            }
+        }
+        return literal;
+    }
+
+    private static boolean validChar(char c) {
+        switch (c) {
+            case '\\': case '/': case '*': case '?': case '"': case '<': case '>': case '|': case ' ': case ',': case '#':
+            case ':':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * The index of a document of {@code logType} sent to {@code index}. The log type is lowercased
+     * and characters that are not allowed in index names become {@code _}.
+     */
+    String index(String logType, String index) {
+        StringBuilder name = new StringBuilder(template.length() + logType.length() + 16);
+        for (String part : parts) {
+            if (part == LOG_TYPE) {
+                appendSanitized(name, logType);
+            } else if (part == INDEX) {
+                name.append(index == null ? "" : index);
+            } else {
+                name.append(part);
+            }
+        }
+        return name.toString();
+    }
+
+    private static void appendSanitized(StringBuilder name, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            name.append(validChar(c) ? Character.toLowerCase(c) : '_');
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -0,0 +1,845 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hand-written replacement for {@code LogMasker.RegexMasker} for any selection of the built-in
+ * rules of {@code LogMasker.MaskingRuleClass}.
+ *
+ * Every stage of the regex chain is a scanner over two per-thread char buffers, so a line costs
+ * no regex matching and a single String allocation. The regex chain applies its rules one after
+ * another and later rules see the output of earlier ones (e.g. PATH swallows the blank that NUM's
+ * lookbehind depends on), so each rule keeps its own scan to stay byte-identical with it.
+ * Configured rules that are not built in are run through their pattern instead.
+ */
+final class LexerMasker implements LogMasker.Masker {
+
+    // buffers above this size are dropped after use so a single huge line is not pinned per thread
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final String[] MONTH_SUFFIXES = {"uary", "ruary", "ch", "il", "", "e", "y", "ust", "tember", "ober", "ember", "ember"};
+
+    // scanners by the regex they replace, paired in the order MaskingRuleClass declares its rules
+    private static final Map<String, Rule> SCANNERS = new HashMap<>();
+    static {
+        LogMasker.MaskingRuleClass builtIn = new LogMasker.MaskingRuleClass();
+        register(builtIn.rules, LexerMasker::goFilePath, LexerMasker::emailAddress, LexerMasker::ipCidr, LexerMasker::ip,
+            LexerMasker::duration, LexerMasker::path, LexerMasker::tokenWithDigit, LexerMasker::num,
+            LexerMasker::emptySet, LexerMasker::emptyList);
+        register(builtIn.rulesBeforeSplit, LexerMasker::url, LexerMasker::utcDate, LexerMasker::klogDate, LexerMasker::customDate);
+    }
+
+    /**
+     * A rule scanner. Returns the exclusive end of the match starting at {@code i}, or, when there
+     * is none, {@code ~next} where {@code next > i} is the first position that may still start one.
+     */
+    private interface Rule {
+        int match(char[] s, int n, int i);
+    }
+
+    private final Rule[] rules, rulesBeforeSplit;
+    private final char[][] masks, masksBeforeSplit;
+    private final RuleStats[] stats, statsBeforeSplit;
+
+    LexerMasker(List<LogMasker.MaskingRule> maskingRules, List<LogMasker.MaskingRule> maskingRulesBeforeSplit) {
+        this.rules = scanners(maskingRules);
+        this.masks = masks(maskingRules);
+        this.rulesBeforeSplit = scanners(maskingRulesBeforeSplit);
+        this.masksBeforeSplit = masks(maskingRulesBeforeSplit);
+        this.stats = RuleStats.of(maskingRules, OpniPreprocessingConfig.PHASE_AFTER_SPLIT);
+        this.statsBeforeSplit = RuleStats.of(maskingRulesBeforeSplit, OpniPreprocessingConfig.PHASE_BEFORE_SPLIT);
+    }
+
+    /**
+     * Returns whether every rule has a hand-written scanner, i.e. is one of the built-in rules.
+     */
+    static boolean supports(List<LogMasker.MaskingRule> maskingRules) {
+        for (LogMasker.MaskingRule rule : maskingRules) {
+            if (!SCANNERS.containsKey(rule.regexPatternString)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String mask(String content, long deadline) {
+        Buffers buffers = BUFFERS.get();
+        buffers.deadline = deadline;
+        try {
+            CharBuf buf = buffers.a;
+            buf.set(content);
+            // skip the rules the line has no characters for; masks only add their own
+            long present = LinePrescan.scan(buf.chars, 0, buf.length);
+            if ((present & LinePrescan.ANSI) != 0) {
+                buf = stripAnsi(buf, buffers.other(buf));
+            }
+            boolean sampled = RuleStats.sample();
+            for (int r = 0; r < rulesBeforeSplit.length; r++) {
+                CharBuf masked = apply(statsBeforeSplit[r], buf, buffers.other(buf), rulesBeforeSplit[r], masksBeforeSplit[r],
+                    present, sampled, deadline);
+                if (masked != buf) {
+                    present |= statsBeforeSplit[r].rule.maskClasses;
+                    buf = masked;
+                }
+            }
+            buf = splitAroundSeparators(buf, buffers.other(buf));
+            buf = joinLines(buf, buffers.other(buf));
+            present |= LinePrescan.SPACE;
+            for (int r = 0; r < rules.length; r++) {
+                CharBuf masked = apply(stats[r], buf, buffers.other(buf), rules[r], masks[r], present, sampled, deadline);
+                if (masked != buf) {
+                    present |= stats[r].rule.maskClasses;
+                    buf = masked;
+                }
+            }
+            return joinTokens(buf, buffers.other(buf));
+        } finally {
+            buffers.a.trim();
+            buffers.b.trim();
+        }
+    }
+
+    private static CharBuf apply(RuleStats stats, CharBuf src, CharBuf dst, Rule rule, char[] mask, long present, boolean sampled,
+                                 long deadline) {
+        if (!stats.shouldRun(present, src.chars, src.length, sampled)) {
+            return src;
+        }
+        MaskingBudget.check(deadline);
+        long start = sampled ? System.nanoTime() : 0;
+        CharBuf masked = replace(src, dst, rule, mask);
+        stats.ran(masked != src, sampled ? System.nanoTime() - start : -1);
+        return masked;
+    }
+
+    @Override
+    public List<RuleStats> ruleStats() {
+        List<RuleStats> all = new ArrayList<>(Arrays.asList(statsBeforeSplit));
+        all.addAll(Arrays.asList(stats));
+        return all;
+    }
+
+    /**
+     * Replaces every non-overlapping match of {@code rule} in {@code src} with {@code mask}, the
+     * same way {@code Matcher.replaceAll} walks the input, and returns the buffer holding the result.
+     */
+    private static CharBuf replace(CharBuf src, CharBuf dst, Rule rule, char[] mask) {
+        char[] s = src.chars;
+        int n = src.length;
+        boolean matched = false;
+        int copied = 0;
+        int i = 0;
+        while (i < n) {
+            int r = rule.match(s, n, i);
+            if (r >= 0) {
+                if (!matched) {
+                    dst.length = 0;
+                    matched = true;
+                }
+                dst.append(s, copied, i - copied);
+                dst.append(mask, 0, mask.length);
+                i = r;
+                copied = r;
+            } else {
+                i = ~r;
+            }
+        }
+        if (!matched) {
+            // nothing to replace, keep reading from the same buffer
+            return src;
+        }
+        dst.append(s, copied, n - copied);
+        return dst;
+    }
+
+    // (\x9B|\x1B\[)[0-?]*[ -\/]*[@-~] replaced by ""
+    static CharBuf stripAnsi(CharBuf src, CharBuf dst) {
+        char[] s = src.chars;
+        int n = src.length;
+        dst.length = 0;
+        int i = 0;
+        while (i < n) {
+            char c = s[i];
+            int j = -1;
+            if (c == '\u009B') {
+                j = i + 1;
+            } else if (c == '\u001B' && i + 1 < n && s[i + 1] == '[') {
+                j = i + 2;
+            }
+            if (j >= 0) {
+                while (j < n && s[j] >= '0' && s[j] <= '?') {
+                    j++;
+                }
+                while (j < n && s[j] >= ' ' && s[j] <= '/') {
+                    j++;
+                }
+                if (j < n && s[j] >= '@' && s[j] <= '~') {
+                    i = j + 1;
+                    continue;
+                }
+            }
+            dst.append(c);
+            i++;
+        }
+        return dst;
+    }
+
+    // String.join(" ", content.split("((?==|\\||:)|(?<==|\\||:))"))
+    static CharBuf splitAroundSeparators(CharBuf src, CharBuf dst) {
+        char[] s = src.chars;
+        int n = src.length;
+        dst.length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s[i];
+            if (i > 0 && (isSeparator(c) || isSeparator(s[i - 1]))) {
+                dst.append(' ');
+            }
+            dst.append(c);
+        }
+        return dst;
+    }
+
+    // String.join(" ", content.split("[\n\r\t\r]")), which also drops trailing line breaks and tabs
+    static CharBuf joinLines(CharBuf src, CharBuf dst) {
+        char[] s = src.chars;
+        int n = src.length;
+        while (n > 0 && isLineBreak(s[n - 1])) {
+            n--;
+        }
+        dst.length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s[i];
+            dst.append(isLineBreak(c) ? ' ' : c);
+        }
+        return dst;
+    }
+
+    /**
+     * Splits on the delimiter class, drops the pieces the regex masker filters out (empty ones and a
+     * lone backslash, which is the only delimiter-free substring of its {@code removeDelimiters}),
+     * joins the rest with single blanks and lowercases.
+     */
+    static String joinTokens(CharBuf src, CharBuf dst) {
+        char[] s = src.chars;
+        int n = src.length;
+        dst.length = 0;
+        boolean nonAscii = false;
+        int start = 0;
+        for (int i = 0; i <= n; i++) {
+            if (i < n && !isDelimiter(s[i])) {
+                continue;
+            }
+            int len = i - start;
+            if (len > 0 && !(len == 1 && s[start] == '\\')) {
+                if (dst.length > 0) {
+                    dst.append(' ');
+                }
+                for (int k = start; k < i; k++) {
+                    char c = s[k];
+                    if (c >= 'A' && c <= 'Z') {
+                        c = (char) (c + ('a' - 'A'));
+                    } else if (c > 0x7F) {
+                        nonAscii = true;
+                    }
+                    dst.append(c);
+                }
+            }
+            start = i + 1;
+        }
+        String masked = new String(dst.chars, 0, dst.length);
+        // special casing (e.g. U+0130, final sigma) only exists outside ASCII
+        return nonAscii ? masked.toLowerCase(Locale.ENGLISH) : masked;
+    }
+
+    // (http|ftp|https)://([\w_-]+(?:(?:\.*[\w_-]+)+))([\w.,@?^=%&:/~+#-]*[\w@?^=%&/~+#-])?
+    private static int url(char[] s, int n, int i) {
+        int j;
+        if (startsWith(s, n, i, "http://")) {
+            j = i + 7;
+        } else if (startsWith(s, n, i, "ftp://")) {
+            j = i + 6;
+        } else if (startsWith(s, n, i, "https://")) {
+            j = i + 8;
+        } else {
+            return ~(i + 1);
+        }
+        if (j >= n || !isHostChar(s[j])) {
+            return ~(i + 1);
+        }
+        int hostChars = 0;
+        int hostEnd = j;
+        for (int k = j; k < n && (isHostChar(s[k]) || s[k] == '.'); k++) {
+            if (s[k] != '.') {
+                hostChars++;
+                hostEnd = k + 1;
+            }
+        }
+        if (hostChars < 2) {
+            return ~(i + 1);
+        }
+        int end = hostEnd;
+        for (int k = hostEnd; k < n && isUrlChar(s[k]); k++) {
+            if (isUrlEndChar(s[k])) {
+                end = k + 1;
+            }
+        }
+        return end;
+    }
+
+    // \d{4}-(?:0[1-9]|1[0-2])-(?:0[1-9]|[1-2]\d|3[0-1])[T|\s](?:[0-1]\d|2[0-3]):[0-5]\d:[0-5]\d(?:\.\d+|)[(?:Z|...)]
+    private static int utcDate(char[] s, int n, int i) {
+        if (i + 19 > n
+            || !isDigit(s[i]) || !isDigit(s[i + 1]) || !isDigit(s[i + 2]) || !isDigit(s[i + 3]) || s[i + 4] != '-'
+            || !isMonth(s[i + 5], s[i + 6]) || s[i + 7] != '-'
+            || !isDay(s[i + 8], s[i + 9])
+            || !(s[i + 10] == 'T' || s[i + 10] == '|' || isSpace(s[i + 10]))
+            || !isHour(s[i + 11], s[i + 12]) || s[i + 13] != ':'
+            || !isSexagesimal(s[i + 14], s[i + 15]) || s[i + 16] != ':'
+            || !isSexagesimal(s[i + 17], s[i + 18])) {
+            return ~(i + 1);
+        }
+        int p = i + 19;
+        if (p + 1 < n && s[p] == '.' && isDigit(s[p + 1])) {
+            int r = digits(s, n, p + 1);
+            if (r < n && isUtcZoneChar(s[r])) {
+                return r + 1;
+            }
+            if (r - (p + 1) >= 2) {
+                // backtracking hands the last fraction digit to the zone class
+                return r;
+            }
+            return ~(i + 1);
+        }
+        if (p < n && isUtcZoneChar(s[p])) {
+            return p + 1;
+        }
+        return ~(i + 1);
+    }
+
+    // [IWEF]\d{4}\s\d{2}:\d{2}:\d{2}[\.\d+]*
+    private static int klogDate(char[] s, int n, int i) {
+        char c = s[i];
+        if (!(c == 'I' || c == 'W' || c == 'E' || c == 'F') || i + 14 > n
+            || !isDigit(s[i + 1]) || !isDigit(s[i + 2]) || !isDigit(s[i + 3]) || !isDigit(s[i + 4])
+            || !isSpace(s[i + 5])
+            || !isDigit(s[i + 6]) || !isDigit(s[i + 7]) || s[i + 8] != ':'
+            || !isDigit(s[i + 9]) || !isDigit(s[i + 10]) || s[i + 11] != ':'
+            || !isDigit(s[i + 12]) || !isDigit(s[i + 13])) {
+            return ~(i + 1);
+        }
+        int j = i + 14;
+        while (j < n && (isDigit(s[j]) || s[j] == '.' || s[j] == '+')) {
+            j++;
+        }
+        return j;
+    }
+
+    // (Jan(?:uary)?|...|Dec(?:ember)?)\s+(\d{1,2}) (2[0-3]|[01]?[0-9]):([0-5]?[0-9]):([0-5]?[0-9])
+    private static int customDate(char[] s, int n, int i) {
+        int j = -1;
+        for (int m = 0; m < MONTHS.length; m++) {
+            if (startsWith(s, n, i, MONTHS[m])) {
+                j = i + 3;
+                String suffix = MONTH_SUFFIXES[m];
+                if (suffix.length() > 0 && startsWith(s, n, j, suffix)) {
+                    j += suffix.length();
+                }
+                break;
+            }
+        }
+        if (j < 0 || j >= n || !isSpace(s[j])) {
+            return ~(i + 1);
+        }
+        while (j < n && isSpace(s[j])) {
+            j++;
+        }
+        // day
+        if (j + 1 < n && isDigit(s[j]) && s[j + 1] == ' ') {
+            j += 2;
+        } else if (j + 2 < n && isDigit(s[j]) && isDigit(s[j + 1]) && s[j + 2] == ' ') {
+            j += 3;
+        } else {
+            return ~(i + 1);
+        }
+        // hour
+        if (j + 1 < n && isDigit(s[j]) && s[j + 1] == ':') {
+            j += 2;
+        } else if (j + 2 < n && s[j + 2] == ':'
+            && ((s[j] == '2' && s[j + 1] >= '0' && s[j + 1] <= '3') || ((s[j] == '0' || s[j] == '1') && isDigit(s[j + 1])))) {
+            j += 3;
+        } else {
+            return ~(i + 1);
+        }
+        // minute
+        if (j + 1 < n && isDigit(s[j]) && s[j + 1] == ':') {
+            j += 2;
+        } else if (j + 2 < n && s[j + 2] == ':' && isSexagesimal(s[j], s[j + 1])) {
+            j += 3;
+        } else {
+            return ~(i + 1);
+        }
+        // second
+        if (j + 1 < n && isSexagesimal(s[j], s[j + 1])) {
+            return j + 2;
+        }
+        if (j < n && isDigit(s[j])) {
+            return j + 1;
+        }
+        return ~(i + 1);
+    }
+
+    // [^\s]+\.go : [0-9]+
+    private static int goFilePath(char[] s, int n, int i) {
+        if (isSpace(s[i])) {
+            return ~(i + 1);
+        }
+        int e = i;
+        while (e < n && !isSpace(s[e])) {
+            e++;
+        }
+        // the ".go" has to close the blank-free run, so later starts in the run fail the same way
+        if (e - i >= 4 && s[e - 3] == '.' && s[e - 2] == 'g' && s[e - 1] == 'o'
+            && e + 3 < n && s[e] == ' ' && s[e + 1] == ':' && s[e + 2] == ' ' && isDigit(s[e + 3])) {
+            return digits(s, n, e + 3);
+        }
+        return ~e;
+    }
+
+    // [a-z0-9]+[\._]?[a-z0-9]+[@]\w+[.]\w{2,3}
+    private static int emailAddress(char[] s, int n, int i) {
+        if (!isLowerAlnum(s[i])) {
+            return ~(i + 1);
+        }
+        int p = i;
+        while (p < n && isLowerAlnum(s[p])) {
+            p++;
+        }
+        int at;
+        if (p < n && s[p] == '@' && p - i >= 2) {
+            at = p;
+        } else if (p < n && (s[p] == '.' || s[p] == '_')) {
+            int q = p + 1;
+            while (q < n && isLowerAlnum(s[q])) {
+                q++;
+            }
+            if (q == p + 1 || q >= n || s[q] != '@') {
+                return ~p;
+            }
+            at = q;
+        } else {
+            return ~p;
+        }
+        int w = at + 1;
+        while (w < n && isWordChar(s[w])) {
+            w++;
+        }
+        if (w == at + 1 || w >= n || s[w] != '.') {
+            return ~p;
+        }
+        int tld = w + 1;
+        int k = 0;
+        while (k < 3 && tld + k < n && isWordChar(s[tld + k])) {
+            k++;
+        }
+        return k >= 2 ? tld + k : ~p;
+    }
+
+    // ((?<=[^A-Za-z0-9])|^)(\d{1,3}\.\d{1,3}\.\d{1,3}\.\d{1,3}\/\d{1,3})((?=[^A-Za-z0-9])|$)
+    private static int ipCidr(char[] s, int n, int i) {
+        if (!isDigit(s[i]) || !boundaryBefore(s, i)) {
+            return ~(i + 1);
+        }
+        int j = dottedQuad(s, n, i);
+        if (j < 0 || j >= n || s[j] != '/') {
+            return ~(i + 1);
+        }
+        int e = octet(s, n, j + 1);
+        return e >= 0 && boundaryAfter(s, n, e) ? e : ~(i + 1);
+    }
+
+    // ((?<=[^A-Za-z0-9])|^)(\d{1,3}\.\d{1,3}\.\d{1,3}\.\d{1,3})((?=[^A-Za-z0-9])|$)
+    private static int ip(char[] s, int n, int i) {
+        if (!isDigit(s[i]) || !boundaryBefore(s, i)) {
+            return ~(i + 1);
+        }
+        int e = dottedQuad(s, n, i);
+        return e >= 0 && boundaryAfter(s, n, e) ? e : ~(i + 1);
+    }
+
+    // ((?<=[^A-Za-z0-9])|^)(\d+\.\d+\s*(s|ds|cs|ms|µs|ns|ps|fs|as|zs|ys))((?=[^A-Za-z0-9])|$)
+    private static int duration(char[] s, int n, int i) {
+        if (!isDigit(s[i]) || !boundaryBefore(s, i)) {
+            return ~(i + 1);
+        }
+        int a = digits(s, n, i);
+        if (a + 1 >= n || s[a] != '.' || !isDigit(s[a + 1])) {
+            return ~(i + 1);
+        }
+        int j = digits(s, n, a + 1);
+        while (j < n && isSpace(s[j])) {
+            j++;
+        }
+        if (j >= n) {
+            return ~(i + 1);
+        }
+        int u;
+        char c = s[j];
+        if (c == 's') {
+            u = j + 1;
+        } else if ((c == 'd' || c == 'c' || c == 'm' || c == '\u00B5' || c == 'n' || c == 'p'
+            || c == 'f' || c == 'a' || c == 'z' || c == 'y') && j + 1 < n && s[j + 1] == 's') {
+            u = j + 2;
+        } else {
+            return ~(i + 1);
+        }
+        return boundaryAfter(s, n, u) ? u : ~(i + 1);
+    }
+
+    // (/[a-zA-Z_\-\./\(?:[0-9]+[a-zA-Z0-9]|[a-zA-Z]+[0-9]\)]*[\s]?), the bracket is one character class
+    private static int path(char[] s, int n, int i) {
+        if (s[i] != '/') {
+            return ~(i + 1);
+        }
+        int j = i + 1;
+        while (j < n && isPathChar(s[j])) {
+            j++;
+        }
+        if (j < n && isSpace(s[j])) {
+            j++;
+        }
+        return j;
+    }
+
+    // (?:[0-9]+[S]|[S]+[0-9])[S0-9]* with S the letters and punctuation of the rule
+    private static int tokenWithDigit(char[] s, int n, int i) {
+        char c = s[i];
+        int p = i + 1;
+        if (isDigit(c)) {
+            while (p < n && isDigit(s[p])) {
+                p++;
+            }
+            if (p >= n || !isTokenSymbol(s[p])) {
+                return ~p;
+            }
+        } else if (isTokenSymbol(c)) {
+            while (p < n && isTokenSymbol(s[p])) {
+                p++;
+            }
+            if (p >= n || !isDigit(s[p])) {
+                return ~p;
+            }
+        } else {
+            return ~(i + 1);
+        }
+        while (p < n && (isDigit(s[p]) || isTokenSymbol(s[p]))) {
+            p++;
+        }
+        return p;
+    }
+
+    // ((?<=[^A-Za-z0-9])|^)([\-\+]?\d*\.?\d+)((?=[^A-Za-z0-9])|$)
+    private static int num(char[] s, int n, int i) {
+        char c = s[i];
+        if (!(isDigit(c) || c == '.' || c == '-' || c == '+') || !boundaryBefore(s, i)) {
+            return ~(i + 1);
+        }
+        int p = (c == '-' || c == '+') ? i + 1 : i;
+        int a = digits(s, n, p);
+        if (a + 1 < n && s[a] == '.' && isDigit(s[a + 1])) {
+            int b = digits(s, n, a + 1);
+            if (boundaryAfter(s, n, b)) {
+                return b;
+            }
+        }
+        // otherwise backtracking settles on the integer part alone
+        if (a > p && boundaryAfter(s, n, a)) {
+            return a;
+        }
+        return ~(i + 1);
+    }
+
+    // \{[\s]*\}
+    private static int emptySet(char[] s, int n, int i) {
+        return enclosedBlank(s, n, i, '{', '}');
+    }
+
+    // \[[\s]*\]
+    private static int emptyList(char[] s, int n, int i) {
+        return enclosedBlank(s, n, i, '[', ']');
+    }
+
+    private static int enclosedBlank(char[] s, int n, int i, char open, char close) {
+        if (s[i] != open) {
+            return ~(i + 1);
+        }
+        int j = i + 1;
+        while (j < n && isSpace(s[j])) {
+            j++;
+        }
+        return j < n && s[j] == close ? j + 1 : ~(i + 1);
+    }
+
+    // returns the end of \d{1,3}\.\d{1,3}\.\d{1,3}\.\d{1,3} at i, or -1
+    private static int dottedQuad(char[] s, int n, int i) {
+        int j = i;
+        for (int k = 0; k < 3; k++) {
+            j = octet(s, n, j);
+            if (j < 0 || j >= n || s[j] != '.') {
+                return -1;
+            }
+            j++;
+        }
+        return octet(s, n, j);
+    }
+
+    // \d{1,3} that is not followed by another digit, which is all backtracking can make of it here
+    private static int octet(char[] s, int n, int i) {
+        int e = digits(s, n, i);
+        int len = e - i;
+        return len >= 1 && len <= 3 ? e : -1;
+    }
+
+    private static int digits(char[] s, int n, int i) {
+        while (i < n && isDigit(s[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(char[] s, int n, int i, String prefix) {
+        int len = prefix.length();
+        if (i + len > n) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (s[i + k] != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean boundaryBefore(char[] s, int i) {
+        return i == 0 || !isAlnum(s[i - 1]);
+    }
+
+    private static boolean boundaryAfter(char[] s, int n, int i) {
+        return i >= n || !isAlnum(s[i]);
+    }
+
+    private static boolean isMonth(char a, char b) {
+        return (a == '0' && b >= '1' && b <= '9') || (a == '1' && b >= '0' && b <= '2');
+    }
+
+    private static boolean isDay(char a, char b) {
+        return (a == '0' && b >= '1' && b <= '9') || ((a == '1' || a == '2') && isDigit(b)) || (a == '3' && (b == '0' || b == '1'));
+    }
+
+    private static boolean isHour(char a, char b) {
+        return ((a == '0' || a == '1') && isDigit(b)) || (a == '2' && b >= '0' && b <= '3');
+    }
+
+    private static boolean isSexagesimal(char a, char b) {
+        return a >= '0' && a <= '5' && isDigit(b);
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isAlnum(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isLowerAlnum(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z');
+    }
+
+    static boolean isWordChar(char c) {
+        return isAlnum(c) || c == '_';
+    }
+
+    // java.util.regex \s
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '=' || c == '|' || c == ':';
+    }
+
+    static boolean isDelimiter(char c) {
+        switch (c) {
+            case ' ': case '"': case '\'': case '(': case ')': case ',': case ':':
+            case '=': case '[': case ']': case '{': case '|': case '}':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isHostChar(char c) {
+        return isWordChar(c) || c == '-';
+    }
+
+    private static boolean isUrlChar(char c) {
+        return isUrlEndChar(c) || c == '.' || c == ',' || c == ':';
+    }
+
+    private static boolean isUrlEndChar(char c) {
+        switch (c) {
+            case '@': case '?': case '^': case '=': case '%': case '&': case '/': case '~': case '+': case '#': case '-':
+                return true;
+            default:
+                return isWordChar(c);
+        }
+    }
+
+    private static boolean isUtcZoneChar(char c) {
+        switch (c) {
+            case '(': case ')': case '+': case '-': case ':': case '?': case 'Z': case '{': case '|': case '}':
+                return true;
+            default:
+                return isDigit(c);
+        }
+    }
+
+    private static boolean isPathChar(char c) {
+        switch (c) {
+            case '_': case '-': case '.': case '/': case '(': case ')': case '?': case ':': case '+': case '|':
+                return true;
+            default:
+                return isAlnum(c);
+        }
+    }
+
+    private static boolean isTokenSymbol(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return true;
+        }
+        switch (c) {
+            case '!': case '(': case ')': case '-': case '.': case '?': case '[': case ']': case '_': case '`': case '~':
+            case ';': case ':': case '@': case '#': case '$': case '%': case '^': case '&': case '+': case '=': case '*':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void register(List<LogMasker.MaskingRule> builtIn, Rule... scanners) {
+        for (int r = 0; r < scanners.length; r++) {
+            SCANNERS.put(builtIn.get(r).regexPatternString, scanners[r]);
+        }
+    }
+
+    private static Rule[] scanners(List<LogMasker.MaskingRule> maskingRules) {
+        Rule[] scanners = new Rule[maskingRules.size()];
+        for (int r = 0; r < scanners.length; r++) {
+            scanners[r] = SCANNERS.get(maskingRules.get(r).regexPatternString);
+            if (scanners[r] == null) {
+                scanners[r] = regexScanner(maskingRules.get(r).regexPattern);
+            }
+        }
+        return scanners;
+    }
+
+    /**
+     * Scanner for a configured rule without a hand-written one: finds the same matches as
+     * {@code Matcher.replaceAll}, except that empty matches are skipped.
+     */
+    private static Rule regexScanner(Pattern pattern) {
+        return (s, n, i) -> {
+            Matcher matcher = pattern.matcher(MaskingBudget.wrap(CharBuffer.wrap(s, 0, n), BUFFERS.get().deadline));
+            int from = i;
+            while (matcher.find(from)) {
+                if (matcher.end() > matcher.start()) {
+                    return matcher.start() == i ? matcher.end() : ~matcher.start();
+                }
+                from = matcher.start() + 1;
+                if (from > n) {
+                    break;
+                }
+            }
+            return ~n;
+        };
+    }
+
+    private static char[][] masks(List<LogMasker.MaskingRule> maskingRules) {
+        char[][] masks = new char[maskingRules.size()][];
+        for (int r = 0; r < masks.length; r++) {
+            masks[r] = maskingRules.get(r).maskWithWrap.toCharArray();
+        }
+        return masks;
+    }
+
+    static final class Buffers {
+        final CharBuf a = new CharBuf();
+        final CharBuf b = new CharBuf();
+        // of the line being masked, for the regex scanners
+        long deadline = MaskingBudget.NO_DEADLINE;
+
+        CharBuf other(CharBuf buf) {
+            return buf == a ? b : a;
+        }
+    }
+
+    static final class CharBuf {
+        char[] chars = new char[256];
+        int length;
+
+        void set(String content) {
+            length = 0;
+            ensure(content.length());
+            content.getChars(0, content.length(), chars, 0);
+            length = content.length();
+        }
+
+        void append(char c) {
+            ensure(length + 1);
+            chars[length++] = c;
+        }
+
+        void append(char[] src, int offset, int len) {
+            ensure(length + len);
+            System.arraycopy(src, offset, chars, length, len);
+            length += len;
+        }
+
+        void trim() {
+            length = 0;
+            if (chars.length > MAX_RETAINED_CAPACITY) {
+                chars = new char[256];
+            }
+        }
+
+        private void ensure(int capacity) {
+            if (capacity > chars.length) {
+                char[] grown = new char[Math.max(capacity, chars.length * 2)];
+                System.arraycopy(chars, 0, grown, 0, length);
+                chars = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass over a line that records which classes of characters it contains, so the maskers can
+ * skip the rules that need a character the line does not have: most lines carry no ANSI escape, no
+ * '@' and no "://", and many no digit at all.
+ *
+ * Every ASCII punctuation character has a class of its own; digits, lower and upper case letters,
+ * control characters and other non-ASCII characters are grouped. A rule's requirements are derived
+ * from its pattern as clauses that each name the classes of which any match contains at least one
+ * character. The clauses are exact for the subset of patterns {@link MaskingAutomaton.Parser}
+ * understands; other patterns get none and always run.
+ */
+final class LinePrescan {
+
+    private static final long[] ASCII = new long[128];
+    private static final long CSI;
+    private static final long NON_ASCII;
+
+    static final long ANSI;
+    static final long SPACE;
+    static final long BLANK;
+
+    private static final long[] NONE = new long[0];
+    // more clauses rarely add anything but cost a check per rule
+    private static final int MAX_CLAUSES = 4;
+
+    static {
+        int bit = 0;
+        long digit = 1L << bit++;
+        long lower = 1L << bit++;
+        long upper = 1L << bit++;
+        long control = 1L << bit++;
+        for (int c = 0; c < 128; c++) {
+            if (c >= '0' && c <= '9') {
+                ASCII[c] = digit;
+            } else if (c >= 'a' && c <= 'z') {
+                ASCII[c] = lower;
+            } else if (c >= 'A' && c <= 'Z') {
+                ASCII[c] = upper;
+            } else if (c < ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\u001B' || c == 127) {
+                ASCII[c] = control;
+            } else {
+                // ' ', '\t', '\n', '\r', ESC and the 32 punctuation characters
+                ASCII[c] = 1L << bit++;
+            }
+        }
+        CSI = 1L << bit++;
+        NON_ASCII = 1L << bit++;
+        assert bit <= 64;
+        ANSI = ASCII['\u001B'] | CSI;
+        SPACE = ASCII[' '];
+        BLANK = ASCII[' '] | ASCII['\t'] | ASCII['\n'] | ASCII['\r'];
+    }
+
+    private LinePrescan() {
+    }
+
+    static long scan(CharSequence s) {
+        long present = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            present |= classOf(s.charAt(i));
+        }
+        return present;
+    }
+
+    static long scan(char[] s, int from, int to) {
+        long present = 0;
+        for (int i = from; i < to; i++) {
+            present |= classOf(s[i]);
+        }
+        return present;
+    }
+
+    private static long classOf(char c) {
+        return c < 128 ? ASCII[c] : c == '\u009B' ? CSI : NON_ASCII;
+    }
+
+    /**
+     * Returns whether a line with the classes {@code present} may contain a match of a rule with
+     * the clauses {@code requirements}.
+     */
+    static boolean mayMatch(long[] requirements, long present) {
+        for (long clause : requirements) {
+            if ((clause & present) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derives the clauses every match of {@code pattern} satisfies.
+     */
+    static long[] requirements(String pattern) {
+        MaskingAutomaton.Node node;
+        try {
+            node = new MaskingAutomaton.Parser(pattern).parse();
+        } catch (IllegalArgumentException e) {
+            return NONE;
+        }
+        List<Long> clauses = new ArrayList<>();
+        collect(node, clauses);
+        // a clause that contains another one is implied by it
+        List<Long> kept = new ArrayList<>();
+        clauses.sort((a, b) -> Integer.compare(Long.bitCount(a), Long.bitCount(b)));
+        for (long clause : clauses) {
+            boolean implied = false;
+            for (long narrower : kept) {
+                implied |= (narrower & ~clause) == 0;
+            }
+            if (!implied && kept.size() < MAX_CLAUSES) {
+                kept.add(clause);
+            }
+        }
+        long[] requirements = new long[kept.size()];
+        for (int i = 0; i < requirements.length; i++) {
+            requirements[i] = kept.get(i);
+        }
+        return requirements;
+    }
+
+    /**
+     * Returns the longest string of at least two characters that every match of {@code pattern}
+     * contains, or null.
+     */
+    static String requiredLiteral(String pattern) {
+        MaskingAutomaton.Node node;
+        try {
+            node = new MaskingAutomaton.Parser(pattern).parse();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        List<String> literals = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        literals(node, run, literals);
+        flush(run, literals);
+        String longest = null;
+        for (String literal : literals) {
+            if (literal.length() >= 2 && (longest == null || literal.length() > longest.length())) {
+                longest = literal;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Returns whether a match of {@code pattern} may contain a blank: a space, tab or line break.
+     * True for the patterns {@link MaskingAutomaton.Parser} does not understand.
+     */
+    static boolean mayMatchBlank(String pattern) {
+        try {
+            return matchesBlank(new MaskingAutomaton.Parser(pattern).parse());
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean matchesBlank(MaskingAutomaton.Node node) {
+        if (node instanceof MaskingAutomaton.CharNode) {
+            return (classesOf(((MaskingAutomaton.CharNode) node).set) & BLANK) != 0;
+        } else if (node instanceof MaskingAutomaton.Concat) {
+            for (MaskingAutomaton.Node item : ((MaskingAutomaton.Concat) node).items) {
+                if (matchesBlank(item)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof MaskingAutomaton.Repeat) {
+            MaskingAutomaton.Repeat repeat = (MaskingAutomaton.Repeat) node;
+            return repeat.max != 0 && matchesBlank(repeat.node);
+        } else if (node instanceof MaskingAutomaton.Alternation) {
+            for (MaskingAutomaton.Node option : ((MaskingAutomaton.Alternation) node).options) {
+                if (matchesBlank(option)) {
+                    return true;
+                }
+            }
+        }
+        // assertions consume nothing
+        return false;
+    }
+
+    private static void literals(MaskingAutomaton.Node node, StringBuilder run, List<String> literals) {
+        if (node instanceof MaskingAutomaton.CharNode) {
+            int[] ranges = ((MaskingAutomaton.CharNode) node).set.ranges;
+            if (ranges.length == 2 && ranges[0] == ranges[1]) {
+                run.append((char) ranges[0]);
+            } else {
+                flush(run, literals);
+            }
+        } else if (node instanceof MaskingAutomaton.Concat) {
+            for (MaskingAutomaton.Node item : ((MaskingAutomaton.Concat) node).items) {
+                literals(item, run, literals);
+            }
+        } else if (node instanceof MaskingAutomaton.Repeat) {
+            flush(run, literals);
+            MaskingAutomaton.Repeat repeat = (MaskingAutomaton.Repeat) node;
+            if (repeat.min > 0) {
+                StringBuilder inner = new StringBuilder();
+                literals(repeat.node, inner, literals);
+                flush(inner, literals);
+            }
+        } else if (node instanceof MaskingAutomaton.Alternation) {
+            flush(run, literals);
+        }
+        // assertions consume nothing, the characters around them are adjacent in the match
+    }
+
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    private static void collect(MaskingAutomaton.Node node, List<Long> clauses) {
+        if (node instanceof MaskingAutomaton.CharNode) {
+            clauses.add(classesOf(((MaskingAutomaton.CharNode) node).set));
+        } else if (node instanceof MaskingAutomaton.Concat) {
+            for (MaskingAutomaton.Node item : ((MaskingAutomaton.Concat) node).items) {
+                collect(item, clauses);
+            }
+        } else if (node instanceof MaskingAutomaton.Repeat) {
+            MaskingAutomaton.Repeat repeat = (MaskingAutomaton.Repeat) node;
+            if (repeat.min > 0) {
+                collect(repeat.node, clauses);
+            }
+        } else if (node instanceof MaskingAutomaton.Alternation) {
+            // one of the options matches: the union of the narrowest clause of each
+            long any = 0;
+            for (MaskingAutomaton.Node option : ((MaskingAutomaton.Alternation) node).options) {
+                List<Long> optionClauses = new ArrayList<>();
+                collect(option, optionClauses);
+                if (optionClauses.isEmpty()) {
+                    return;
+                }
+                long narrowest = optionClauses.get(0);
+                for (long clause : optionClauses) {
+                    if (Long.bitCount(clause) < Long.bitCount(narrowest)) {
+                        narrowest = clause;
+                    }
+                }
+                any |= narrowest;
+            }
+            clauses.add(any);
+        }
+        // assertions consume nothing
+    }
+
+    private static long classesOf(MaskingAutomaton.CharClass set) {
+        long classes = 0;
+        int[] ranges = set.ranges;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1] && c < 128; c++) {
+                classes |= ASCII[c];
+            }
+            if (ranges[i] <= '\u009B' && ranges[i + 1] >= '\u009B') {
+                classes |= CSI;
+            }
+            if (ranges[i + 1] >= 128 && (ranges[i + 1] > '\u009B' || ranges[i] < '\u009B')) {
+                classes |= NON_ASCII;
+            }
+        }
+        return classes;
+    }
+}
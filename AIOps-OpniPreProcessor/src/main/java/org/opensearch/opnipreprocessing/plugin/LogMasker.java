@@ -14,46 +14,249 @@ import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class LogMasker {
 
+    public static final String ENGINE_REGEX = "regex";
+    public static final String ENGINE_LEXER = "lexer";
+    public static final String ENGINE_AUTOMATON = "automaton";
+
+    private final String engine;
     private final MaskingRuleClass maskingRuleClass;
-    public RegexMasker masker;
+    private final TinyLfuCache<String, String> cache;
+    // maskers with the same rules produce the same output and so share cache entries
+    private final String cacheOwner;
+    // the rules of both phases that may match a blank, which windows are not cut across
+    private final List<Pattern> blankRules = new ArrayList<>();
+    public Masker masker;
     
     public LogMasker() {
-        maskingRuleClass = new MaskingRuleClass();
-        masker = new RegexMasker(maskingRuleClass.rules, maskingRuleClass.rulesBeforeSplit);
+        this(ENGINE_REGEX);
+    }
+
+    public LogMasker(String engine) {
+        this(engine, null);
+    }
+
+    LogMasker(String engine, TinyLfuCache<String, String> cache) {
+        this(engine, new MaskingRuleClass(), cache);
+    }
+
+    /**
+     * @param cache node-wide cache of masked lines, shared with other maskers, or null
+     */
+    LogMasker(String engine, MaskingRuleClass maskingRuleClass, TinyLfuCache<String, String> cache) {
+        this.engine = engine;
+        this.cache = cache;
+        this.cacheOwner = engine + "/" + Long.toHexString(maskingRuleClass.fingerprint());
+        this.maskingRuleClass = maskingRuleClass;
+        for (MaskingRule rule : maskingRuleClass.rulesBeforeSplit) {
+            if (rule.mayMatchBlank) {
+                blankRules.add(rule.regexPattern);
+            }
+        }
+        for (MaskingRule rule : maskingRuleClass.rules) {
+            if (rule.mayMatchBlank) {
+                blankRules.add(rule.regexPattern);
+            }
+        }
+        switch (engine) {
+            case ENGINE_REGEX:
+                masker = new RegexMasker(maskingRuleClass.rules, maskingRuleClass.rulesBeforeSplit);
+                break;
+            case ENGINE_LEXER:
+                masker = new LexerMasker(maskingRuleClass.rules, maskingRuleClass.rulesBeforeSplit);
+                break;
+            case ENGINE_AUTOMATON:
+                masker = new AutomatonMasker(maskingRuleClass.rules, maskingRuleClass.rulesBeforeSplit);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown masking engine [" + engine + "]");
+        }
     }
 
     public String mask(String content) {
-        return masker.mask(content);
+        return mask(content, 0).text;
+    }
+
+    /**
+     * Masks {@code content}, giving up on the rules after {@code budgetNanos} (no limit when 0) for
+     * the degraded mask of {@link MaskingBudget}.
+     */
+    Masked mask(String content, long budgetNanos) {
+        return mask(content, MaskingLimits.NONE.withBudget(budgetNanos));
+    }
+
+    /**
+     * Masks {@code content} within {@code limits}: long lines a window at a time, and past the time
+     * budget with the degraded mask.
+     */
+    Masked mask(String content, MaskingLimits limits) {
+        if (limits.streams(content)) {
+            return maskStreaming(content, limits);
+        }
+        long hash = 0;
+        if (cache != null) {
+            hash = Hash64.hash(content);
+            String masked = cache.get(cacheOwner, hash, content);
+            if (masked != null) {
+                return limit(masked, false, limits);
+            }
+        }
+        String masked;
+        try {
+            masked = masker.mask(content, MaskingBudget.deadline(limits.budgetNanos));
+        } catch (MaskingBudget.Exceeded e) {
+            // not cached: the next time the line may well make it
+            return limit(MaskingBudget.degradedMask(content), true, limits);
+        }
+        if (cache != null) {
+            cache.put(cacheOwner, hash, content, masked);
+        }
+        return limit(masked, false, limits);
+    }
+
+    private static Masked limit(String masked, boolean degraded, MaskingLimits limits) {
+        if (limits.exceeds(masked.length())) {
+            return new Masked(limits.truncate(masked), degraded, true);
+        }
+        return new Masked(masked, degraded, false);
     }
 
+    /**
+     * Masks the windows of {@code content} one by one into a single output, which stops at the
+     * maximum output length. Not cached: such lines are rarely repeated and would crowd out many
+     * short ones. Once the time budget runs out the remaining windows get the degraded mask.
+     */
+    private Masked maskStreaming(String content, MaskingLimits limits) {
+        long deadline = MaskingBudget.deadline(limits.budgetNanos);
+        int n = content.length();
+        StringBuilder out = new StringBuilder(limits.maxOutputLength > 0 ? Math.min(limits.maxOutputLength + 1, n) : n);
+        boolean degraded = false;
+        for (int from = 0; from < n && !limits.exceeds(out.length()); ) {
+            // the degraded mask matches nothing across blanks
+            int to = limits.windowEnd(content, from, degraded ? Collections.emptyList() : blankRules, deadline);
+            String window = content.substring(from, to);
+            String masked;
+            if (degraded) {
+                masked = MaskingBudget.degradedMask(window);
+            } else {
+                try {
+                    masked = masker.mask(window, deadline);
+                } catch (MaskingBudget.Exceeded e) {
+                    degraded = true;
+                    masked = MaskingBudget.degradedMask(window);
+                }
+            }
+            if (!masked.isEmpty()) {
+                if (out.length() > 0) {
+                    out.append(' ');
+                }
+                out.append(masked);
+            }
+            from = to;
+        }
+        if (limits.exceeds(out.length())) {
+            return new Masked(limits.truncate(out), degraded, true);
+        }
+        return new Masked(out.toString(), degraded, false);
+    }
 
-    private class RegexMasker {
+    /**
+     * A masked line, whether it only got the degraded mask, and whether it was cut to the maximum
+     * output length.
+     */
+    static final class Masked {
+        final String text;
+        final boolean degraded;
+        final boolean truncated;
+
+        Masked(String text, boolean degraded, boolean truncated) {
+            this.text = text;
+            this.degraded = degraded;
+            this.truncated = truncated;
+        }
+    }
+
+    String getEngine() {
+        return engine;
+    }
+
+    MaskingRuleClass getMaskingRules() {
+        return maskingRuleClass;
+    }
+
+    List<Pattern> blankRules() {
+        return blankRules;
+    }
 
-        List<MaskingRule> maskingRules, maskingRulesBeforeSplit;
+    List<RuleStats> ruleStats() {
+        return masker.ruleStats();
+    }
+
+    /**
+     * Approximate heap cost of a cached line: both strings, the entry and the map node.
+     */
+    static long cacheWeight(String content, String masked) {
+        return 2L * (content.length() + masked.length()) + 160;
+    }
+
+    interface Masker {
+        /**
+         * @param deadline {@link System#nanoTime()} after which to throw {@link MaskingBudget.Exceeded},
+         *                 or {@link MaskingBudget#NO_DEADLINE}
+         */
+        String mask(String content, long deadline);
+
+        /**
+         * Counters of the rules, for engines that apply them one by one.
+         */
+        default List<RuleStats> ruleStats() {
+            return Collections.emptyList();
+        }
+    }
+
+    private class RegexMasker implements Masker {
+
+        RuleStats[] maskingRules, maskingRulesBeforeSplit;
         String delimiters, removeDelimiters;
         Pattern ansiEscape;
         public RegexMasker(List<MaskingRule> maskingRules, List<MaskingRule> maskingRulesBeforeSplit ) {
-            this.maskingRules = maskingRules;
-            this.maskingRulesBeforeSplit = maskingRulesBeforeSplit;
+            this.maskingRules = RuleStats.of(maskingRules, OpniPreprocessingConfig.PHASE_AFTER_SPLIT);
+            this.maskingRulesBeforeSplit = RuleStats.of(maskingRulesBeforeSplit, OpniPreprocessingConfig.PHASE_BEFORE_SPLIT);
             this.delimiters = "([|:| \\(|\\)|\\[|\\]\'|\\{|\\}|\"|,|=])";
             this.removeDelimiters = "([| \\(|\\)|\\[|\\]\'|\\{|\\}|\"|,])";
             this.ansiEscape = Pattern.compile("(\\x9B|\\x1B\\[)[0-?]*[ -\\/]*[@-~]");
         }
 
-        public String mask(String content) {
-            String maskedContent = ansiEscape.matcher(content).replaceAll("");
-            for (MaskingRule mi : maskingRulesBeforeSplit) {
-                maskedContent = mi.regexPattern.matcher(maskedContent).replaceAll(mi.maskWithWrap);
+        public String mask(String content, long deadline) {
+            // skip the rules the line has no characters for; masks only add their own
+            long present = LinePrescan.scan(content);
+            String maskedContent = (present & LinePrescan.ANSI) == 0 ? content
+                : ansiEscape.matcher(MaskingBudget.wrap(content, deadline)).replaceAll("");
+            boolean sampled = RuleStats.sample();
+            for (RuleStats rule : maskingRulesBeforeSplit) {
+                String masked = apply(rule, maskedContent, present, sampled, deadline);
+                if (masked != maskedContent) {
+                    present |= rule.rule.maskClasses;
+                    maskedContent = masked;
+                }
             }
 
             maskedContent = String.join(" ", maskedContent.split("((?==|\\||:)|(?<==|\\||:))"));
             maskedContent = String.join(" ", maskedContent.split("[\n\r\t\r]"));
+            present |= LinePrescan.SPACE;
 
-            for (MaskingRule mi : maskingRules) {
-                maskedContent = mi.regexPattern.matcher(maskedContent).replaceAll(mi.maskWithWrap);
+            for (RuleStats rule : maskingRules) {
+                String masked = apply(rule, maskedContent, present, sampled, deadline);
+                if (masked != maskedContent) {
+                    present |= rule.rule.maskClasses;
+                    maskedContent = masked;
+                }
             }
 
             List<String> splitContext = Arrays.asList(maskedContent.split(delimiters));
@@ -63,15 +266,34 @@ public class LogMasker {
             maskedContent = maskedContent.toLowerCase(Locale.ENGLISH);
             return maskedContent;
         }
+
+        private String apply(RuleStats rule, String content, long present, boolean sampled, long deadline) {
+            if (!rule.shouldRun(present, content, sampled)) {
+                return content;
+            }
+            MaskingBudget.check(deadline);
+            long start = sampled ? System.nanoTime() : 0;
+            MaskingRule mi = rule.rule;
+            String masked = mi.regexPattern.matcher(MaskingBudget.wrap(content, deadline)).replaceAll(mi.maskWithWrap);
+            rule.ran(masked != content, sampled ? System.nanoTime() - start : -1);
+            return masked;
+        }
+
+        @Override
+        public List<RuleStats> ruleStats() {
+            List<RuleStats> stats = new ArrayList<>(Arrays.asList(maskingRulesBeforeSplit));
+            stats.addAll(Arrays.asList(maskingRules));
+            return stats;
+        }
     }
-    public class MaskingRuleClass {
+    public static class MaskingRuleClass {
         List<MaskingRule> rules = new ArrayList<>();
         List<MaskingRule> rulesBeforeSplit = new ArrayList<>();
 
         public MaskingRuleClass() {
             rules.add(new MaskingRule("[^\\s]+\\.go : [0-9]+", "GO_FILE_PATH"));
             rules.add(new MaskingRule("[a-z0-9]+[\\._]?[a-z0-9]+[@]\\w+[.]\\w{2,3}", "EMAIL_ADDRESS"));
-            rules.add(new MaskingRule("((?<=[^A-Za-z0-9])|^)(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\/\\d{1,3})((?=[^A-Za-z0-9])|$)", "IP"));
+            rules.add(new MaskingRule("ip_cidr", "((?<=[^A-Za-z0-9])|^)(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\/\\d{1,3})((?=[^A-Za-z0-9])|$)", "IP"));
             rules.add(new MaskingRule("((?<=[^A-Za-z0-9])|^)(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3})((?=[^A-Za-z0-9])|$)", "IP"));
             rules.add(new MaskingRule("((?<=[^A-Za-z0-9])|^)(\\d+\\.\\d+\\s*(s|ds|cs|ms|µs|ns|ps|fs|as|zs|ys))((?=[^A-Za-z0-9])|$)", "DURATION"));
             rules.add(new MaskingRule("(/[a-zA-Z_\\-\\./\\(?:[0-9]+[a-zA-Z0-9]|[a-zA-Z]+[0-9]\\)]*[\\s]?)","PATH"));
@@ -85,18 +307,113 @@ public class LogMasker {
             rulesBeforeSplit.add(new MaskingRule("[IWEF]\\d{4}\\s\\d{2}:\\d{2}:\\d{2}[\\.\\d+]*", "KLOG_DATE"));
             rulesBeforeSplit.add(new MaskingRule("(Jan(?:uary)?|Feb(?:ruary)?|Mar(?:ch)?|Apr(?:il)?|May|Jun(?:e)?|Jul(?:y)?|Aug(?:ust)?|Sep(?:tember)?|Oct(?:ober)?|Nov(?:ember)?|Dec(?:ember)?)\\s+(\\d{1,2}) (2[0-3]|[01]?[0-9]):([0-5]?[0-9]):([0-5]?[0-9])", "CUSTOM_DATE"));
         }
+
+        public MaskingRuleClass(List<MaskingRule> rules, List<MaskingRule> rulesBeforeSplit) {
+            this.rules = rules;
+            this.rulesBeforeSplit = rulesBeforeSplit;
+        }
+
+        /**
+         * The built-in rules with the given names, in their built-in order.
+         */
+        static MaskingRuleClass builtIn(Collection<String> names) {
+            return new MaskingRuleClass().select(names, "built-in masking rules");
+        }
+
+        /**
+         * The rules of this set with the given names, in their order here.
+         *
+         * @param what what the rules are called in the error message
+         */
+        MaskingRuleClass select(Collection<String> names, String what) {
+            Set<String> unknown = new TreeSet<>(names);
+            List<MaskingRule> selectedRules = new ArrayList<>();
+            List<MaskingRule> selectedRulesBeforeSplit = new ArrayList<>();
+            for (MaskingRule rule : rulesBeforeSplit) {
+                if (names.contains(rule.name)) {
+                    selectedRulesBeforeSplit.add(rule);
+                    unknown.remove(rule.name);
+                }
+            }
+            for (MaskingRule rule : rules) {
+                if (names.contains(rule.name)) {
+                    selectedRules.add(rule);
+                    unknown.remove(rule.name);
+                }
+            }
+            if (!unknown.isEmpty()) {
+                Set<String> known = new TreeSet<>();
+                rulesBeforeSplit.forEach(rule -> known.add(rule.name));
+                rules.forEach(rule -> known.add(rule.name));
+                throw new IllegalArgumentException("unknown " + what + " " + unknown + ", expected any of " + known);
+            }
+            return new MaskingRuleClass(selectedRules, selectedRulesBeforeSplit);
+        }
+
+        /**
+         * Whether both rule sets have the same patterns and masks in the same order.
+         */
+        boolean sameRules(MaskingRuleClass other) {
+            return sameRules(rules, other.rules) && sameRules(rulesBeforeSplit, other.rulesBeforeSplit);
+        }
+
+        private static boolean sameRules(List<MaskingRule> a, List<MaskingRule> b) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (int i = 0; i < a.size(); i++) {
+                if (!a.get(i).regexPatternString.equals(b.get(i).regexPatternString) || !a.get(i).maskWith.equals(b.get(i).maskWith)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Hash of the ordered rules of both phases; equal rule sets mask identically.
+         */
+        long fingerprint() {
+            long hash = 0;
+            for (MaskingRule rule : rulesBeforeSplit) {
+                hash = Hash64.hash(rule.maskWith, Hash64.hash(rule.regexPatternString, hash));
+            }
+            hash = Hash64.mix(hash ^ rulesBeforeSplit.size());
+            for (MaskingRule rule : rules) {
+                hash = Hash64.hash(rule.maskWith, Hash64.hash(rule.regexPatternString, hash));
+            }
+            return hash;
+        }
         
     }
-    public class MaskingRule {
+    public static class MaskingRule {
             
-        String regexPatternString, maskWith, maskWithWrap;
+        String name, regexPatternString, maskWith, maskWithWrap;
         Pattern regexPattern;
+        // the character classes a line needs for a match, and those the mask puts in
+        final long[] requirements;
+        final long maskClasses;
+        // a string every match contains, or null
+        final String literal;
+        final boolean mayMatchBlank;
 
         public MaskingRule(String regexPatternString, String maskWith) {
+            this(maskWith.toLowerCase(Locale.ROOT), regexPatternString, maskWith);
+        }
+
+        public MaskingRule(String name, String regexPatternString, String maskWith) {
+            this.name = name;
             this.regexPatternString = regexPatternString;
             this.maskWith = maskWith;
             this.maskWithWrap = "<" + maskWith + ">";
             this.regexPattern = Pattern.compile(regexPatternString);
+            this.requirements = LinePrescan.requirements(regexPatternString);
+            this.maskClasses = LinePrescan.scan(maskWithWrap);
+            this.literal = LinePrescan.requiredLiteral(regexPatternString);
+            this.mayMatchBlank = LinePrescan.mayMatchBlank(regexPatternString);
+        }
+
+        boolean mayMatch(long present) {
+            return LinePrescan.mayMatch(requirements, present);
         }
     }
 
@@ -0,0 +1,1138 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * All rules of one masking phase compiled into a single automaton.
+ *
+ * A line is scanned once from left to right: at each position the longest match of any rule wins
+ * and ties go to the rule listed first; positions where no rule matches are copied through. The
+ * rules are compiled to one Thompson NFA that is determinized lazily, per thread, while scanning.
+ * Positions the automaton already failed from in a given state are remembered for the rest of the
+ * line, so the work per line is bounded by its length times the number of automaton states no
+ * matter how the rules are written (there is no backtracking).
+ *
+ * Patterns use the java.util.regex syntax, limited to what an automaton can express: literals,
+ * escapes, classes (with nested unions), groups, alternation, greedy or lazy quantifiers, {@code ^},
+ * {@code $} and lookarounds over a single character class. Anything else is rejected when the
+ * automaton is built.
+ */
+final class MaskingAutomaton {
+
+    static final int MAX_STATES = 20000;
+    private static final int MAX_CACHED_KERNELS = 4096;
+
+    private static final int CHAR = 0, SPLIT = 1, ASSERT = 2, MATCH = 3;
+
+    static final int BEGIN = 0, END = 1, LOOKBEHIND = 2, NOT_LOOKBEHIND = 3, LOOKAHEAD = 4, NOT_LOOKAHEAD = 5;
+
+    private static final CharClass DOT = CharClass.of('\n', '\r', '\u0085', '\u2028', '\u2029').negate();
+
+    // compiled NFA, one entry per state
+    private final int[] kind;
+    private final int[] out;
+    private final int[] out1;
+    private final int[] arg;
+    private final CharClass[] sets;
+    private final int start;
+    private final char[][] masks;
+
+    // alphabet partitions: characters in one class behave the same in every transition / assertion
+    private final Partition consumed;
+    private final Partition context;
+    private final boolean[][] assertionHolds;
+    private final int contexts;
+
+    private final ThreadLocal<Dfa> dfas = ThreadLocal.withInitial(Dfa::new);
+
+    MaskingAutomaton(List<LogMasker.MaskingRule> maskingRules) {
+        Builder builder = new Builder();
+        int[] entries = new int[maskingRules.size()];
+        for (int r = 0; r < entries.length; r++) {
+            LogMasker.MaskingRule rule = maskingRules.get(r);
+            Node node;
+            try {
+                node = new Parser(rule.regexPatternString).parse();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("masking rule [" + rule.maskWith + "] cannot be compiled to an automaton: " + e.getMessage(), e);
+            }
+            entries[r] = builder.compile(node, builder.add(MATCH, -1, -1, r, null));
+        }
+        int entry = entries.length == 0 ? builder.dead() : entries[entries.length - 1];
+        for (int r = entries.length - 2; r >= 0; r--) {
+            entry = builder.add(SPLIT, entries[r], entry, 0, null);
+        }
+        this.start = entry;
+        this.kind = Arrays.copyOf(builder.kind, builder.size);
+        this.out = Arrays.copyOf(builder.out, builder.size);
+        this.out1 = Arrays.copyOf(builder.out1, builder.size);
+        this.arg = Arrays.copyOf(builder.arg, builder.size);
+        this.sets = Arrays.copyOf(builder.sets, builder.size);
+
+        this.masks = new char[maskingRules.size()][];
+        for (int r = 0; r < masks.length; r++) {
+            masks[r] = maskingRules.get(r).maskWithWrap.toCharArray();
+        }
+
+        List<CharClass> consumedSets = new ArrayList<>();
+        List<CharClass> contextSets = new ArrayList<>();
+        for (int state = 0; state < kind.length; state++) {
+            if (kind[state] == CHAR) {
+                consumedSets.add(sets[state]);
+            } else if (kind[state] == ASSERT && sets[state] != null) {
+                contextSets.add(sets[state]);
+            }
+        }
+        this.consumed = new Partition(consumedSets);
+        this.context = new Partition(contextSets);
+        this.assertionHolds = new boolean[kind.length][];
+        for (int state = 0; state < kind.length; state++) {
+            if (kind[state] == ASSERT && sets[state] != null) {
+                assertionHolds[state] = new boolean[context.classes];
+                for (int c = 0; c < context.classes; c++) {
+                    assertionHolds[state][c] = sets[state].contains(context.representative[c]);
+                }
+            }
+        }
+        // previous and current character classes (0 for none) times three end-of-input situations
+        this.contexts = (context.classes + 1) * (context.classes + 1) * 3;
+    }
+
+    /**
+     * Replaces every leftmost-longest match in {@code src} with its rule's mask and returns the
+     * buffer holding the result.
+     */
+    LexerMasker.CharBuf replace(LexerMasker.CharBuf src, LexerMasker.CharBuf dst) {
+        char[] s = src.chars;
+        int n = src.length;
+        Dfa dfa = dfas.get();
+        dfa.beginLine();
+        boolean matched = false;
+        int copied = 0;
+        int pos = 0;
+        while (pos < n) {
+            long m = longestMatch(dfa, s, n, pos);
+            if (m < 0) {
+                pos++;
+                continue;
+            }
+            if (!matched) {
+                dst.length = 0;
+                matched = true;
+            }
+            int end = (int) (m >>> 32);
+            char[] mask = masks[(int) m];
+            dst.append(s, copied, pos - copied);
+            dst.append(mask, 0, mask.length);
+            pos = end;
+            copied = end;
+        }
+        if (!matched) {
+            return src;
+        }
+        dst.append(s, copied, n - copied);
+        return dst;
+    }
+
+    /**
+     * Returns {@code end << 32 | rule} for the longest non-empty match starting at {@code pos}, or -1.
+     */
+    private long longestMatch(Dfa dfa, char[] s, int n, int pos) {
+        int kid = dfa.startKernel();
+        int bestEnd = -1;
+        int bestRule = -1;
+        int lastAccept = 0;
+        dfa.trailLength = 0;
+        for (int j = pos; ; j++) {
+            if (dfa.hasFailed(kid, j)) {
+                break;
+            }
+            dfa.push(kid, j);
+            Entry entry = dfa.entry(kid, contextAt(s, n, j));
+            if (entry.accept >= 0) {
+                lastAccept = dfa.trailLength;
+                if (j > pos) {
+                    bestEnd = j;
+                    bestRule = entry.accept;
+                }
+            }
+            if (j == n) {
+                break;
+            }
+            int cls = consumed.classOf(s[j]);
+            int next = entry.next[cls];
+            if (next == Entry.UNKNOWN) {
+                next = dfa.step(entry, s[j]);
+                entry.next[cls] = next;
+            }
+            if (next == Entry.DEAD) {
+                break;
+            }
+            kid = next;
+        }
+        // nothing accepts from the states visited after the last accepting one
+        for (int t = lastAccept; t < dfa.trailLength; t++) {
+            dfa.fail(dfa.trail[2 * t], dfa.trail[2 * t + 1]);
+        }
+        return bestEnd < 0 ? -1 : ((long) bestEnd << 32) | bestRule;
+    }
+
+    private int contextAt(char[] s, int n, int j) {
+        int prev = j > 0 ? context.classOf(s[j - 1]) + 1 : 0;
+        int cur = j < n ? context.classOf(s[j]) + 1 : 0;
+        int end;
+        if (j == n) {
+            end = 1;
+        } else if ((j == n - 1 && isLineTerminator(s[j]) && !(s[j] == '\n' && j > 0 && s[j - 1] == '\r'))
+            || (j == n - 2 && s[j] == '\r' && s[j + 1] == '\n')) {
+            end = 2;
+        } else {
+            end = 0;
+        }
+        return (prev * (context.classes + 1) + cur) * 3 + end;
+    }
+
+    private boolean holds(int state, int ctx) {
+        int end = ctx % 3;
+        int cur = (ctx / 3) % (context.classes + 1);
+        int prev = (ctx / 3) / (context.classes + 1);
+        switch (arg[state]) {
+            case BEGIN:
+                return prev == 0;
+            case END:
+                return end != 0;
+            case LOOKBEHIND:
+                return prev != 0 && assertionHolds[state][prev - 1];
+            case NOT_LOOKBEHIND:
+                return prev == 0 || !assertionHolds[state][prev - 1];
+            case LOOKAHEAD:
+                return cur != 0 && assertionHolds[state][cur - 1];
+            case NOT_LOOKAHEAD:
+                return cur == 0 || !assertionHolds[state][cur - 1];
+            default:
+                throw new IllegalStateException("unknown assertion " + arg[state]);
+        }
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * A determinized state: the closure of a kernel (the NFA states entered by consuming a character)
+     * under one context, with its lazily filled transitions.
+     */
+    private static final class Entry {
+        static final int UNKNOWN = -1, DEAD = -2;
+
+        final int[] chars;
+        final int accept;
+        final int[] next;
+
+        Entry(int[] chars, int accept, int classes) {
+            this.chars = chars;
+            this.accept = accept;
+            this.next = new int[classes];
+            Arrays.fill(next, UNKNOWN);
+        }
+    }
+
+    /**
+     * Per-thread determinization cache and per-line scan state.
+     */
+    private final class Dfa {
+        final Map<Kernel, Integer> ids = new HashMap<>();
+        final List<int[]> kernels = new ArrayList<>();
+        final List<Entry[]> entries = new ArrayList<>();
+        int startKernel = -1;
+
+        // scratch
+        final int[] stamp = new int[kind.length];
+        int generation;
+        final int[] stack = new int[3 * kind.length];
+        final int[] list = new int[kind.length];
+
+        // (kernel, position) pairs of the running scan, and the failed ones of the current line
+        int[] trail = new int[64];
+        int trailLength;
+        long[] failedKeys = new long[64];
+        int failedCount;
+
+        void beginLine() {
+            if (kernels.size() > MAX_CACHED_KERNELS) {
+                ids.clear();
+                kernels.clear();
+                entries.clear();
+                startKernel = -1;
+            }
+            if (failedKeys.length > 1024) {
+                failedKeys = new long[64];
+            } else if (failedCount > 0) {
+                Arrays.fill(failedKeys, 0L);
+            }
+            failedCount = 0;
+        }
+
+        int startKernel() {
+            if (startKernel < 0) {
+                startKernel = intern(new int[] {start});
+            }
+            return startKernel;
+        }
+
+        Entry entry(int kid, int ctx) {
+            Entry[] byContext = entries.get(kid);
+            Entry entry = byContext[ctx];
+            if (entry == null) {
+                entry = closure(kernels.get(kid), ctx);
+                byContext[ctx] = entry;
+            }
+            return entry;
+        }
+
+        private Entry closure(int[] kernel, int ctx) {
+            int gen = nextGeneration();
+            int sp = 0;
+            int count = 0;
+            int accept = -1;
+            for (int k = kernel.length - 1; k >= 0; k--) {
+                stack[sp++] = kernel[k];
+            }
+            while (sp > 0) {
+                int state = stack[--sp];
+                if (stamp[state] == gen) {
+                    continue;
+                }
+                stamp[state] = gen;
+                switch (kind[state]) {
+                    case CHAR:
+                        list[count++] = state;
+                        break;
+                    case SPLIT:
+                        stack[sp++] = out1[state];
+                        stack[sp++] = out[state];
+                        break;
+                    case ASSERT:
+                        if (holds(state, ctx)) {
+                            stack[sp++] = out[state];
+                        }
+                        break;
+                    case MATCH:
+                        if (arg[state] >= 0 && (accept < 0 || arg[state] < accept)) {
+                            accept = arg[state];
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown state kind " + kind[state]);
+                }
+            }
+            return new Entry(Arrays.copyOf(list, count), accept, consumed.classes);
+        }
+
+        int step(Entry entry, char c) {
+            int gen = nextGeneration();
+            int count = 0;
+            for (int state : entry.chars) {
+                int target = out[state];
+                if (sets[state].contains(c) && stamp[target] != gen) {
+                    stamp[target] = gen;
+                    list[count++] = target;
+                }
+            }
+            if (count == 0) {
+                return Entry.DEAD;
+            }
+            int[] kernel = Arrays.copyOf(list, count);
+            Arrays.sort(kernel);
+            return intern(kernel);
+        }
+
+        private int intern(int[] kernel) {
+            Kernel key = new Kernel(kernel);
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = kernels.size();
+                ids.put(key, id);
+                kernels.add(kernel);
+                entries.add(new Entry[contexts]);
+            }
+            return id;
+        }
+
+        private int nextGeneration() {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+
+        void push(int kid, int j) {
+            if (2 * trailLength + 2 > trail.length) {
+                trail = Arrays.copyOf(trail, trail.length * 2);
+            }
+            trail[2 * trailLength] = kid;
+            trail[2 * trailLength + 1] = j;
+            trailLength++;
+        }
+
+        boolean hasFailed(int kid, int j) {
+            if (failedCount == 0) {
+                return false;
+            }
+            long key = key(kid, j);
+            int mask = failedKeys.length - 1;
+            for (int slot = mix(key) & mask; failedKeys[slot] != 0; slot = (slot + 1) & mask) {
+                if (failedKeys[slot] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void fail(int kid, int j) {
+            if (2 * (failedCount + 1) > failedKeys.length) {
+                long[] old = failedKeys;
+                failedKeys = new long[old.length * 2];
+                failedCount = 0;
+                for (long key : old) {
+                    if (key != 0) {
+                        insert(key);
+                    }
+                }
+            }
+            insert(key(kid, j));
+        }
+
+        private void insert(long key) {
+            int mask = failedKeys.length - 1;
+            int slot = mix(key) & mask;
+            while (failedKeys[slot] != 0) {
+                if (failedKeys[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            failedKeys[slot] = key;
+            failedCount++;
+        }
+
+        // never 0, which marks a free slot
+        private long key(int kid, int j) {
+            return ((long) (kid + 1) << 32) | (j & 0xFFFFFFFFL);
+        }
+
+        private int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class Kernel {
+        final int[] states;
+        final int hash;
+
+        Kernel(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Kernel && Arrays.equals(states, ((Kernel) o).states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Splits the characters into classes that no set in the list tells apart.
+     */
+    private static final class Partition {
+        final int classes;
+        final char[] representative;
+        private final int[] asciiClass = new int[128];
+        // class of every interval [bounds[i], bounds[i + 1])
+        private final int[] bounds;
+        private final int[] intervalClass;
+
+        Partition(List<CharClass> sets) {
+            TreeSet<Integer> cuts = new TreeSet<>();
+            cuts.add(0);
+            for (CharClass set : sets) {
+                for (int i = 0; i < set.ranges.length; i += 2) {
+                    cuts.add(set.ranges[i]);
+                    if (set.ranges[i + 1] < Character.MAX_VALUE) {
+                        cuts.add(set.ranges[i + 1] + 1);
+                    }
+                }
+            }
+            bounds = new int[cuts.size()];
+            intervalClass = new int[cuts.size()];
+            int b = 0;
+            for (int cut : cuts) {
+                bounds[b++] = cut;
+            }
+            Map<String, Integer> signatures = new HashMap<>();
+            List<Character> representatives = new ArrayList<>();
+            for (int i = 0; i < bounds.length; i++) {
+                char c = (char) bounds[i];
+                StringBuilder signature = new StringBuilder(sets.size());
+                for (CharClass set : sets) {
+                    signature.append(set.contains(c) ? '1' : '0');
+                }
+                Integer cls = signatures.get(signature.toString());
+                if (cls == null) {
+                    cls = signatures.size();
+                    signatures.put(signature.toString(), cls);
+                    representatives.add(c);
+                }
+                intervalClass[i] = cls;
+            }
+            classes = signatures.size();
+            representative = new char[classes];
+            for (int c = 0; c < classes; c++) {
+                representative[c] = representatives.get(c);
+            }
+            for (char c = 0; c < 128; c++) {
+                asciiClass[c] = lookup(c);
+            }
+        }
+
+        int classOf(char c) {
+            return c < 128 ? asciiClass[c] : lookup(c);
+        }
+
+        private int lookup(char c) {
+            int i = Arrays.binarySearch(bounds, c);
+            return intervalClass[i >= 0 ? i : -i - 2];
+        }
+    }
+
+    /**
+     * Set of chars as sorted, disjoint, inclusive ranges.
+     */
+    static final class CharClass {
+        static final CharClass DIGIT = range('0', '9');
+        static final CharClass WORD = range('a', 'z').union(range('A', 'Z')).union(range('0', '9')).union(of('_'));
+        static final CharClass SPACE = of(' ', '\t', '\n', '\u000B', '\f', '\r');
+
+        final int[] ranges;
+        private final long asciiLow, asciiHigh;
+
+        private CharClass(int[] ranges) {
+            this.ranges = ranges;
+            long low = 0, high = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                for (int c = ranges[i]; c <= ranges[i + 1] && c < 128; c++) {
+                    if (c < 64) {
+                        low |= 1L << c;
+                    } else {
+                        high |= 1L << (c - 64);
+                    }
+                }
+            }
+            this.asciiLow = low;
+            this.asciiHigh = high;
+        }
+
+        static CharClass range(int from, int to) {
+            return new CharClass(new int[] {from, to});
+        }
+
+        static CharClass of(char... chars) {
+            CharClass set = new CharClass(new int[0]);
+            for (char c : chars) {
+                set = set.union(range(c, c));
+            }
+            return set;
+        }
+
+        boolean contains(char c) {
+            if (c < 64) {
+                return (asciiLow & (1L << c)) != 0;
+            }
+            if (c < 128) {
+                return (asciiHigh & (1L << (c - 64))) != 0;
+            }
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c < ranges[i]) {
+                    return false;
+                }
+                if (c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return ranges.length == 0;
+        }
+
+        CharClass union(CharClass other) {
+            int[] all = new int[ranges.length + other.ranges.length];
+            System.arraycopy(ranges, 0, all, 0, ranges.length);
+            System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+            Integer[] order = new Integer[all.length / 2];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(all[2 * a], all[2 * b]));
+            int[] merged = new int[all.length];
+            int count = 0;
+            for (int i : order) {
+                int from = all[2 * i], to = all[2 * i + 1];
+                if (count > 0 && from <= merged[count - 1] + 1) {
+                    merged[count - 1] = Math.max(merged[count - 1], to);
+                } else {
+                    merged[count++] = from;
+                    merged[count++] = to;
+                }
+            }
+            return new CharClass(Arrays.copyOf(merged, count));
+        }
+
+        CharClass negate() {
+            int[] negated = new int[ranges.length + 2];
+            int count = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    negated[count++] = next;
+                    negated[count++] = ranges[i] - 1;
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                negated[count++] = next;
+                negated[count++] = Character.MAX_VALUE;
+            }
+            return new CharClass(Arrays.copyOf(negated, count));
+        }
+    }
+
+    // ---- pattern syntax tree ----
+
+    abstract static class Node {
+    }
+
+    static final class CharNode extends Node {
+        final CharClass set;
+
+        CharNode(CharClass set) {
+            this.set = set;
+        }
+    }
+
+    static final class Concat extends Node {
+        final List<Node> items;
+
+        Concat(List<Node> items) {
+            this.items = items;
+        }
+    }
+
+    static final class Alternation extends Node {
+        final List<Node> options;
+
+        Alternation(List<Node> options) {
+            this.options = options;
+        }
+    }
+
+    static final class Repeat extends Node {
+        final Node node;
+        final int min, max;
+
+        Repeat(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    static final class Assertion extends Node {
+        final int kind;
+        final CharClass set;
+
+        Assertion(int kind, CharClass set) {
+            this.kind = kind;
+            this.set = set;
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of java.util.regex.
+     */
+    static final class Parser {
+        private final String pattern;
+        private int pos;
+
+        Parser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        Node parse() {
+            Node node = alternation();
+            if (pos < pattern.length()) {
+                throw error("unmatched ')'");
+            }
+            return node;
+        }
+
+        private Node alternation() {
+            List<Node> options = new ArrayList<>();
+            options.add(concat());
+            while (peek('|')) {
+                pos++;
+                options.add(concat());
+            }
+            return options.size() == 1 ? options.get(0) : new Alternation(options);
+        }
+
+        private Node concat() {
+            List<Node> items = new ArrayList<>();
+            while (pos < pattern.length() && !peek('|') && !peek(')')) {
+                items.add(quantified());
+            }
+            return items.size() == 1 ? items.get(0) : new Concat(items);
+        }
+
+        private Node quantified() {
+            Node atom = atom();
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                int min, max;
+                if (c == '*') {
+                    min = 0;
+                    max = -1;
+                    pos++;
+                } else if (c == '+') {
+                    min = 1;
+                    max = -1;
+                    pos++;
+                } else if (c == '?') {
+                    min = 0;
+                    max = 1;
+                    pos++;
+                } else if (c == '{') {
+                    pos++;
+                    min = number();
+                    max = min;
+                    if (peek(',')) {
+                        pos++;
+                        max = peek('}') ? -1 : number();
+                    }
+                    expect('}');
+                    if (max >= 0 && max < min) {
+                        throw error("illegal repetition range");
+                    }
+                } else {
+                    break;
+                }
+                if (peek('?')) {
+                    // lazy quantifiers match the same strings and leftmost-longest ignores preference
+                    pos++;
+                } else if (peek('+')) {
+                    throw error("possessive quantifiers are not supported");
+                }
+                atom = new Repeat(atom, min, max);
+            }
+            return atom;
+        }
+
+        private Node atom() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case '(':
+                    return group();
+                case '[':
+                    return new CharNode(charClass());
+                case '.':
+                    return new CharNode(DOT);
+                case '^':
+                    return new Assertion(BEGIN, null);
+                case '$':
+                    return new Assertion(END, null);
+                case '\\':
+                    return escape();
+                case '*': case '+': case '?': case '{':
+                    throw error("dangling meta character '" + c + "'");
+                default:
+                    return new CharNode(CharClass.of(c));
+            }
+        }
+
+        private Node group() {
+            int kind = -1;
+            if (peek('?')) {
+                pos++;
+                if (peek(':')) {
+                    pos++;
+                } else if (pattern.startsWith("<=", pos)) {
+                    pos += 2;
+                    kind = LOOKBEHIND;
+                } else if (pattern.startsWith("<!", pos)) {
+                    pos += 2;
+                    kind = NOT_LOOKBEHIND;
+                } else if (peek('=')) {
+                    pos++;
+                    kind = LOOKAHEAD;
+                } else if (peek('!')) {
+                    pos++;
+                    kind = NOT_LOOKAHEAD;
+                } else if (peek('<')) {
+                    int close = pattern.indexOf('>', pos);
+                    if (close < 0) {
+                        throw error("unterminated group name");
+                    }
+                    pos = close + 1;
+                } else {
+                    throw error("unsupported group construct");
+                }
+            }
+            Node inner = alternation();
+            expect(')');
+            if (kind < 0) {
+                return inner;
+            }
+            CharClass set = singleCharacter(inner);
+            if (set == null) {
+                throw error("lookarounds must test a single character class");
+            }
+            return new Assertion(kind, set);
+        }
+
+        private CharClass singleCharacter(Node node) {
+            if (node instanceof CharNode) {
+                return ((CharNode) node).set;
+            }
+            if (node instanceof Alternation) {
+                CharClass union = CharClass.of();
+                for (Node option : ((Alternation) node).options) {
+                    CharClass set = singleCharacter(option);
+                    if (set == null) {
+                        return null;
+                    }
+                    union = union.union(set);
+                }
+                return union;
+            }
+            return null;
+        }
+
+        private CharClass charClass() {
+            boolean negated = false;
+            if (peek('^')) {
+                negated = true;
+                pos++;
+            }
+            CharClass set = CharClass.of();
+            boolean nested = false;
+            boolean first = true;
+            while (true) {
+                if (pos >= pattern.length()) {
+                    throw error("unclosed character class");
+                }
+                char c = pattern.charAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    break;
+                }
+                first = false;
+                if (c == '[') {
+                    pos++;
+                    set = set.union(charClass());
+                    nested = true;
+                    continue;
+                }
+                if (c == '&' && pattern.startsWith("&&", pos)) {
+                    throw error("character class intersections are not supported");
+                }
+                CharClass single;
+                int from;
+                if (c == '\\') {
+                    pos++;
+                    single = classEscape();
+                    from = single == null ? escapedChar() : -1;
+                } else {
+                    pos++;
+                    single = null;
+                    from = c;
+                }
+                if (single != null) {
+                    set = set.union(single);
+                    continue;
+                }
+                if (peek('-') && pos + 1 < pattern.length() && pattern.charAt(pos + 1) != ']') {
+                    pos++;
+                    int to;
+                    char d = pattern.charAt(pos++);
+                    if (d == '\\') {
+                        if (classEscapeAhead()) {
+                            throw error("illegal character range");
+                        }
+                        to = escapedChar();
+                    } else if (d == '[') {
+                        throw error("illegal character range");
+                    } else {
+                        to = d;
+                    }
+                    if (to < from) {
+                        throw error("illegal character range");
+                    }
+                    set = set.union(CharClass.range(from, to));
+                } else {
+                    set = set.union(CharClass.range(from, from));
+                }
+            }
+            if (negated) {
+                if (nested) {
+                    // java.util.regex only negates the non-nested part of such classes
+                    throw error("negated classes with nested classes are not supported");
+                }
+                return set.negate();
+            }
+            return set;
+        }
+
+        private boolean classEscapeAhead() {
+            return pos < pattern.length() && "dDwWsS".indexOf(pattern.charAt(pos)) >= 0;
+        }
+
+        // \d \D \w \W \s \S after the backslash, or null (nothing consumed)
+        private CharClass classEscape() {
+            if (pos >= pattern.length()) {
+                throw error("trailing backslash");
+            }
+            switch (pattern.charAt(pos)) {
+                case 'd':
+                    pos++;
+                    return CharClass.DIGIT;
+                case 'D':
+                    pos++;
+                    return CharClass.DIGIT.negate();
+                case 'w':
+                    pos++;
+                    return CharClass.WORD;
+                case 'W':
+                    pos++;
+                    return CharClass.WORD.negate();
+                case 's':
+                    pos++;
+                    return CharClass.SPACE;
+                case 'S':
+                    pos++;
+                    return CharClass.SPACE.negate();
+                default:
+                    return null;
+            }
+        }
+
+        private Node escape() {
+            CharClass set = classEscape();
+            if (set != null) {
+                return new CharNode(set);
+            }
+            char c = pattern.charAt(pos);
+            if (c == 'A') {
+                pos++;
+                return new Assertion(BEGIN, null);
+            }
+            if (c == 'Z') {
+                pos++;
+                return new Assertion(END, null);
+            }
+            return new CharNode(CharClass.of((char) escapedChar()));
+        }
+
+        // a single escaped character after the backslash
+        private int escapedChar() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001B';
+                case '0':
+                    return octal();
+                case 'x':
+                    if (peek('{')) {
+                        pos++;
+                        int close = pattern.indexOf('}', pos);
+                        int value = hex(close - pos);
+                        pos++;
+                        if (value > Character.MAX_VALUE) {
+                            throw error("supplementary characters are not supported");
+                        }
+                        return value;
+                    }
+                    return hex(2);
+                case 'u':
+                    return hex(4);
+                default:
+                    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '1' && c <= '9')) {
+                        throw error("unsupported escape '\\" + c + "'");
+                    }
+                    return c;
+            }
+        }
+
+        private int octal() {
+            int value = 0;
+            int digits = 0;
+            while (digits < 3 && pos < pattern.length() && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '7'
+                && value * 8 + (pattern.charAt(pos) - '0') <= 0377) {
+                value = value * 8 + (pattern.charAt(pos++) - '0');
+                digits++;
+            }
+            if (digits == 0) {
+                throw error("illegal octal escape");
+            }
+            return value;
+        }
+
+        private int hex(int digits) {
+            if (digits <= 0 || pos + digits > pattern.length()) {
+                throw error("illegal hexadecimal escape");
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int d = Character.digit(pattern.charAt(pos++), 16);
+                if (d < 0) {
+                    throw error("illegal hexadecimal escape");
+                }
+                value = value * 16 + d;
+            }
+            return value;
+        }
+
+        private int number() {
+            int from = pos;
+            while (pos < pattern.length() && Character.isDigit(pattern.charAt(pos))) {
+                pos++;
+            }
+            if (from == pos || pos - from > 4) {
+                throw error("illegal repetition");
+            }
+            return Integer.parseInt(pattern.substring(from, pos));
+        }
+
+        private boolean peek(char c) {
+            return pos < pattern.length() && pattern.charAt(pos) == c;
+        }
+
+        private void expect(char c) {
+            if (!peek(c)) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at index " + pos + " in [" + pattern + "]");
+        }
+    }
+
+    /**
+     * Thompson construction, built back to front so every fragment knows its successor.
+     */
+    private static final class Builder {
+        int[] kind = new int[64];
+        int[] out = new int[64];
+        int[] out1 = new int[64];
+        int[] arg = new int[64];
+        CharClass[] sets = new CharClass[64];
+        int size;
+
+        int add(int k, int o, int o1, int a, CharClass set) {
+            if (size == MAX_STATES) {
+                throw new IllegalArgumentException("masking rules need more than " + MAX_STATES + " automaton states");
+            }
+            if (size == kind.length) {
+                kind = Arrays.copyOf(kind, size * 2);
+                out = Arrays.copyOf(out, size * 2);
+                out1 = Arrays.copyOf(out1, size * 2);
+                arg = Arrays.copyOf(arg, size * 2);
+                sets = Arrays.copyOf(sets, size * 2);
+            }
+            kind[size] = k;
+            out[size] = o;
+            out1[size] = o1;
+            arg[size] = a;
+            sets[size] = set;
+            return size++;
+        }
+
+        int compile(Node node, int next) {
+            if (node instanceof CharNode) {
+                CharClass set = ((CharNode) node).set;
+                return set.isEmpty() ? dead() : add(CHAR, next, -1, 0, set);
+            }
+            if (node instanceof Assertion) {
+                Assertion assertion = (Assertion) node;
+                return add(ASSERT, next, -1, assertion.kind, assertion.set);
+            }
+            if (node instanceof Concat) {
+                List<Node> items = ((Concat) node).items;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    next = compile(items.get(i), next);
+                }
+                return next;
+            }
+            if (node instanceof Alternation) {
+                List<Node> options = ((Alternation) node).options;
+                int entry = compile(options.get(options.size() - 1), next);
+                for (int i = options.size() - 2; i >= 0; i--) {
+                    entry = add(SPLIT, compile(options.get(i), next), entry, 0, null);
+                }
+                return entry;
+            }
+            Repeat repeat = (Repeat) node;
+            int entry;
+            if (repeat.max < 0) {
+                int loop = add(SPLIT, -1, next, 0, null);
+                out[loop] = compile(repeat.node, loop);
+                entry = loop;
+            } else {
+                entry = next;
+                for (int i = repeat.min; i < repeat.max; i++) {
+                    entry = add(SPLIT, compile(repeat.node, entry), next, 0, null);
+                }
+            }
+            for (int i = 0; i < repeat.min; i++) {
+                entry = compile(repeat.node, entry);
+            }
+            return entry;
+        }
+
+        // a MATCH state of no rule: reaching it accepts nothing
+        int dead() {
+            return add(MATCH, -1, -1, -1, null);
+        }
+    }
+}
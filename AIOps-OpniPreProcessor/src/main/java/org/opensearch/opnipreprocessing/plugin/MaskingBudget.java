@@ -0,0 +1,139 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time limit for masking a single line, so that a pathological line (a huge blob, a long token
+ * that makes a pattern backtrack) cannot hold a write thread.
+ *
+ * The maskers get a deadline in {@link System#nanoTime()} terms: regex matching reads the line
+ * through {@link #wrap}, which checks it every few thousand characters read, and the engines check
+ * it between rules. Past the deadline they throw {@link Exceeded} and the line gets the
+ * {@link #degradedMask}, which is linear in the line length.
+ */
+final class MaskingBudget {
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int CHECK_INTERVAL = 4096;
+    private static final char[] TOKEN_WITH_DIGIT = "<TOKEN_WITH_DIGIT>".toCharArray();
+    // the mask of the degraded lines
+    static final List<String> LABELS = Collections.singletonList("TOKEN_WITH_DIGIT");
+
+    private MaskingBudget() {
+    }
+
+    /**
+     * Thrown when masking a line runs past its deadline.
+     */
+    static final class Exceeded extends RuntimeException {
+        Exceeded() {
+            super("masking time budget exceeded", null, false, false);
+        }
+    }
+
+    static long deadline(long budgetNanos) {
+        return budgetNanos > 0 ? System.nanoTime() + budgetNanos : NO_DEADLINE;
+    }
+
+    static void check(long deadline) {
+        if (deadline != NO_DEADLINE && System.nanoTime() - deadline > 0) {
+            throw new Exceeded();
+        }
+    }
+
+    /**
+     * Returns {@code s} as seen by a matcher that gives up at {@code deadline}.
+     */
+    static CharSequence wrap(CharSequence s, long deadline) {
+        return deadline == NO_DEADLINE ? s : new DeadlineCharSequence(s, deadline);
+    }
+
+    private static final class DeadlineCharSequence implements CharSequence {
+        private final CharSequence s;
+        private final long deadline;
+        private int reads;
+
+        DeadlineCharSequence(CharSequence s, long deadline) {
+            this.s = s;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_INTERVAL) {
+                reads = 0;
+                check(deadline);
+            }
+            return s.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return s.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return s.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return s.toString();
+        }
+    }
+
+    /**
+     * Cheap stand-in for the rules: every token containing a digit becomes
+     * {@code <token_with_digit>}, the rest is split and lower cased as usual.
+     */
+    static String degradedMask(String content) {
+        LexerMasker.Buffers buffers = LexerMasker.BUFFERS.get();
+        try {
+            LexerMasker.CharBuf buf = buffers.a;
+            buf.set(content);
+            buf = LexerMasker.stripAnsi(buf, buffers.other(buf));
+            buf = LexerMasker.splitAroundSeparators(buf, buffers.other(buf));
+            buf = LexerMasker.joinLines(buf, buffers.other(buf));
+            buf = maskTokensWithDigits(buf, buffers.other(buf));
+            return LexerMasker.joinTokens(buf, buffers.other(buf));
+        } finally {
+            buffers.a.trim();
+            buffers.b.trim();
+        }
+    }
+
+    private static LexerMasker.CharBuf maskTokensWithDigits(LexerMasker.CharBuf src, LexerMasker.CharBuf dst) {
+        char[] s = src.chars;
+        int n = src.length;
+        dst.length = 0;
+        int start = 0;
+        boolean digit = false;
+        for (int i = 0; i <= n; i++) {
+            if (i < n && !LexerMasker.isDelimiter(s[i])) {
+                digit |= LexerMasker.isDigit(s[i]);
+                continue;
+            }
+            if (digit) {
+                dst.append(TOKEN_WITH_DIGIT, 0, TOKEN_WITH_DIGIT.length);
+            } else {
+                dst.append(s, start, i - start);
+            }
+            if (i < n) {
+                dst.append(s[i]);
+            }
+            start = i + 1;
+            digit = false;
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.TimeValue;
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Node-wide limits on masking a single line: the time it may take (see {@link MaskingBudget}), the
+ * length from which it is masked in windows, and the length of the masked line.
+ *
+ * A line longer than {@code streamingMinLength} is masked a window of about {@code window} chars at
+ * a time, and the masked windows are joined with a space into one output that stops growing at
+ * {@code maxOutputLength}. The maskers' working copies then hold a window instead of the whole line.
+ *
+ * A match that crosses a cut is lost, and one that ends in a blank before the cut gets a space
+ * after its mask that masking the whole line does not give, so the cut goes after a run of blanks,
+ * preferably one with a line break, in the second half of the window, that no match of the rules
+ * which may match a blank (see {@link LinePrescan#mayMatchBlank}) overlaps: among the built-in rules
+ * the dates, DURATION, PATH with its trailing blank, EMPTY_SET and EMPTY_LIST. The matches are
+ * looked for within {@value #REACH} chars of the run, in the line as it is before masking. Only
+ * when there is no such run is the window cut after any blank, and such a match may be split, or
+ * inside a token, which splits whatever matches it.
+ */
+final class MaskingLimits implements ToXContentFragment {
+
+    // how far around a blank run to look for matches across it, more than any built-in date takes
+    static final int REACH = 64;
+
+    // no streaming, no truncation
+    static final MaskingLimits NONE = new MaskingLimits(0, 0, 0, 0);
+    static final MaskingLimits DEFAULT = of(Settings.EMPTY);
+
+    final long budgetNanos;
+    final int streamingMinLength;
+    final int window;
+    final int maxOutputLength;
+
+    /**
+     * @param streamingMinLength 0 to mask every line in one piece
+     * @param maxOutputLength    0 for no limit
+     */
+    MaskingLimits(long budgetNanos, int streamingMinLength, int window, int maxOutputLength) {
+        this.budgetNanos = budgetNanos;
+        this.streamingMinLength = streamingMinLength;
+        this.window = window;
+        this.maxOutputLength = maxOutputLength;
+    }
+
+    static MaskingLimits of(Settings settings) {
+        return new MaskingLimits(OpniPreprocessingConfig.MASKING_TIME_BUDGET_SETTING.get(settings).nanos(),
+            OpniPreprocessingConfig.MASKING_STREAMING_MIN_LENGTH_SETTING.get(settings),
+            OpniPreprocessingConfig.MASKING_STREAMING_WINDOW_SETTING.get(settings),
+            OpniPreprocessingConfig.MASKING_MAX_OUTPUT_LENGTH_SETTING.get(settings));
+    }
+
+    MaskingLimits withBudget(long budgetNanos) {
+        return new MaskingLimits(budgetNanos, streamingMinLength, window, maxOutputLength);
+    }
+
+    boolean streams(String content) {
+        return streamingMinLength > 0 && content.length() > Math.max(streamingMinLength, window);
+    }
+
+    /**
+     * Returns the end of the window of {@code content} that starts at {@code from}, cut where no match
+     * of {@code blankRules} crosses, as far as they can be checked before {@code deadline}.
+     */
+    int windowEnd(String content, int from, List<Pattern> blankRules, long deadline) {
+        int n = content.length();
+        if (n - from <= window) {
+            return n;
+        }
+        int end = from + window;
+        int min = from + window / 2;
+        int cut = blankCut(content, min, end, true, blankRules, deadline);
+        if (cut < 0) {
+            cut = blankCut(content, min, end, false, blankRules, deadline);
+        }
+        if (cut < 0) {
+            cut = blankCut(content, min, end, false, null, deadline);
+        }
+        if (cut >= 0) {
+            return cut;
+        }
+        // one long token: cut it, but not within a surrogate pair
+        return Character.isHighSurrogate(content.charAt(end - 1)) ? end - 1 : end;
+    }
+
+    /**
+     * Returns the end of the last run of blanks that ends in {@code [min, end]}, with a line break
+     * if {@code lineBreak}, and that no match of {@code blankRules} overlaps unless they are null;
+     * -1 if there is none.
+     */
+    private static int blankCut(String content, int min, int end, boolean lineBreak, List<Pattern> blankRules,
+                                long deadline) {
+        for (int i = end - 1; i >= min; i--) {
+            if (!blank(content.charAt(i))) {
+                continue;
+            }
+            // the run of blanks around i, cut after it, or at end if it goes on
+            int runEnd = i + 1;
+            while (runEnd < end && blank(content.charAt(runEnd))) {
+                runEnd++;
+            }
+            int runStart = i;
+            boolean hasLineBreak = false;
+            while (runStart > min && blank(content.charAt(runStart - 1))) {
+                runStart--;
+            }
+            for (int j = runStart; j < runEnd; j++) {
+                char c = content.charAt(j);
+                hasLineBreak |= c == '\n' || c == '\r';
+            }
+            if ((!lineBreak || hasLineBreak) && (blankRules == null || !matchedAcross(content, runStart, runEnd, blankRules,
+                deadline))) {
+                return runEnd;
+            }
+            i = runStart;
+        }
+        return -1;
+    }
+
+    /**
+     * Whether a match of any of {@code blankRules} near the run {@code [runStart, runEnd)} overlaps
+     * it; also when there is no time left to look.
+     */
+    private static boolean matchedAcross(String content, int runStart, int runEnd, List<Pattern> blankRules, long deadline) {
+        // the rest of the run, which may go on past the window, is part of it
+        int n = content.length();
+        while (runEnd < n && blank(content.charAt(runEnd))) {
+            runEnd++;
+        }
+        CharSequence input = MaskingBudget.wrap(content, deadline);
+        try {
+            for (Pattern rule : blankRules) {
+                Matcher matcher = rule.matcher(input).region(Math.max(0, runStart - REACH), Math.min(n, runEnd + REACH));
+                while (matcher.find() && matcher.start() < runEnd) {
+                    if (matcher.end() > runStart) {
+                        return true;
+                    }
+                }
+            }
+        } catch (MaskingBudget.Exceeded e) {
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean blank(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    boolean exceeds(int length) {
+        return maxOutputLength > 0 && length > maxOutputLength;
+    }
+
+    /**
+     * Cuts {@code masked} to {@link #maxOutputLength}, at the last token boundary if there is one
+     * in the second half.
+     */
+    String truncate(CharSequence masked) {
+        int end = maxOutputLength;
+        for (int i = end; i >= maxOutputLength / 2; i--) {
+            if (masked.charAt(i) == ' ') {
+                end = i;
+                break;
+            }
+        }
+        if (end == maxOutputLength && Character.isHighSurrogate(masked.charAt(end - 1))) {
+            end--;
+        }
+        return masked.subSequence(0, end).toString();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("time_budget", TimeValue.timeValueNanos(budgetNanos).getStringRep());
+        builder.field("streaming_min_length", streamingMinLength);
+        builder.field("streaming_window", window);
+        builder.field("max_output_length", maxOutputLength);
+        return builder;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maskers for lines of a given {@code log_type} and, optionally, {@code kubernetes_component}, each
+ * with only the node's rules that apply to them: kubelet lines need the klog date and Go file path
+ * rules but never carry a URL or an e-mail address. Lines no profile covers get the node's masker.
+ *
+ * Profiles are compiled with the node's masker, profiles with the same rules share one, and a line
+ * finds its masker with two hash lookups.
+ */
+final class MaskingProfiles implements ToXContentFragment {
+
+    static final String PREFIX = "masking.profiles";
+    static final MaskingProfiles NONE = new MaskingProfiles(Collections.emptyList());
+
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("log_type", "components", "rules"));
+
+    private final List<Profile> profiles;
+    // by log_type, then by kubernetes_component
+    private final Map<String, ForLogType> byLogType = new HashMap<>();
+
+    private static final class Profile {
+        final String name;
+        final String logType;
+        final List<String> components;
+        final LogMasker masker;
+        final LongAdder lines = new LongAdder();
+
+        Profile(String name, String logType, List<String> components, LogMasker masker) {
+            this.name = name;
+            this.logType = logType;
+            this.components = components;
+            this.masker = masker;
+        }
+    }
+
+    private static final class ForLogType {
+        final Map<String, Profile> byComponent = new HashMap<>();
+        // the profile without components, or null
+        Profile any;
+    }
+
+    private MaskingProfiles(List<Profile> profiles) {
+        this.profiles = profiles;
+        for (Profile profile : profiles) {
+            ForLogType forLogType = byLogType.computeIfAbsent(profile.logType, logType -> new ForLogType());
+            if (profile.components.isEmpty()) {
+                if (forLogType.any != null) {
+                    throw new IllegalArgumentException("[" + PREFIX + "." + profile.name + "] covers the same lines as ["
+                        + PREFIX + "." + forLogType.any.name + "]");
+                }
+                forLogType.any = profile;
+            }
+            for (String component : profile.components) {
+                Profile other = forLogType.byComponent.put(component, profile);
+                if (other != null) {
+                    throw new IllegalArgumentException("[" + PREFIX + "." + profile.name + "] covers the same lines as ["
+                        + PREFIX + "." + other.name + "]");
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads {@code masking.profiles}: every profile has a {@code log_type}, optionally the
+     * {@code components} it is limited to, and the names of the {@code rules} of {@code nodeMasker}
+     * to mask with, which keep their order.
+     */
+    static MaskingProfiles load(Settings settings, LogMasker nodeMasker, TinyLfuCache<String, String> cache) {
+        Map<String, Settings> groups = new TreeMap<>(settings.getGroups(PREFIX));
+        if (groups.isEmpty()) {
+            return NONE;
+        }
+        List<Profile> profiles = new ArrayList<>();
+        List<LogMasker> compiled = new ArrayList<>();
+        for (Map.Entry<String, Settings> group : groups.entrySet()) {
+            String key = PREFIX + "." + group.getKey();
+            Settings profile = group.getValue();
+            Set<String> unknown = new HashSet<>(profile.keySet());
+            unknown.removeAll(OPTIONS);
+            if (!unknown.isEmpty()) {
+                throw new IllegalArgumentException("[" + key + "] has unknown options " + unknown);
+            }
+            String logType = profile.get("log_type");
+            if (logType == null || logType.isEmpty()) {
+                throw new IllegalArgumentException("[" + key + ".log_type] is required");
+            }
+            if (!profile.hasValue("rules")) {
+                throw new IllegalArgumentException("[" + key + ".rules] is required");
+            }
+            LogMasker.MaskingRuleClass rules = nodeMasker.getMaskingRules()
+                .select(profile.getAsList("rules"), "masking rules in [" + key + ".rules]");
+            LogMasker masker = null;
+            for (LogMasker other : compiled) {
+                if (other.getMaskingRules().sameRules(rules)) {
+                    masker = other;
+                }
+            }
+            if (masker == null) {
+                masker = new LogMasker(nodeMasker.getEngine(), rules, cache);
+                compiled.add(masker);
+            }
+            profiles.add(new Profile(group.getKey(), logType, profile.getAsList("components"), masker));
+        }
+        return new MaskingProfiles(profiles);
+    }
+
+    /**
+     * Returns the masker of the profile for {@code logType} and {@code component}, or {@code fallback}.
+     */
+    LogMasker select(String logType, String component, LogMasker fallback) {
+        ForLogType forLogType = logType == null ? null : byLogType.get(logType);
+        if (forLogType == null) {
+            return fallback;
+        }
+        Profile profile = component == null ? null : forLogType.byComponent.get(component);
+        if (profile == null) {
+            profile = forLogType.any;
+        }
+        if (profile == null) {
+            return fallback;
+        }
+        profile.lines.increment();
+        return profile.masker;
+    }
+
+    boolean isEmpty() {
+        return profiles.isEmpty();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("profiles");
+        for (Profile profile : profiles) {
+            LogMasker.MaskingRuleClass rules = profile.masker.getMaskingRules();
+            builder.startObject();
+            builder.field("name", profile.name);
+            builder.field("log_type", profile.logType);
+            builder.field("components", profile.components);
+            builder.field("rules_before_split", rules.rulesBeforeSplit.size());
+            builder.field("rules", rules.rules.size());
+            builder.field("lines", profile.lines.sum());
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.cluster.metadata.ComponentTemplate;
+import org.opensearch.cluster.metadata.ComposableIndexTemplate;
+import org.opensearch.cluster.metadata.DataStream;
+import org.opensearch.cluster.metadata.Template;
+import org.opensearch.common.Strings;
+import org.opensearch.common.compress.CompressedXContent;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The component template with the mappings of the fields the processors add, and an index template
+ * composed of it. Without them dynamic mapping indexes every string as both text and keyword.
+ *
+ * Classification and kubernetes fields are keywords, the log line and the template are text without
+ * norms, as nobody scores them, {@code time} and {@code ingest_at} are dates and the hashes and
+ * template ids are longs. Other strings, those of the {@code kubernetes} object and of extracted
+ * JSON included, are mapped as keywords only.
+ */
+final class OpniIndexTemplates {
+
+    static final String COMPONENT_TEMPLATE = "opni-logs-mappings";
+    static final String INDEX_TEMPLATE = "opni-logs";
+    static final long VERSION = 1;
+
+    // the ISO-8601 time in UTC the json detector sets as ingest_at
+    static final String INGEST_AT_FORMAT = "strict_date_optional_time";
+    // the epoch millis the json detector sets, or the time of the source
+    static final String TIME_FORMAT = "strict_date_optional_time||epoch_millis";
+    // longer strings are kept in the source only
+    static final int IGNORE_ABOVE = 1024;
+
+    private static final String[] TEXT_FIELDS = { "log", "masked_log", "template_matched" };
+    private static final String[] KEYWORD_FIELDS = { "log_type", "kubernetes_component", "pod_name", "namespace_name",
+        "deployment", "service", "cluster_id", "anomaly_level", "agent", "opni_collector", "raw_ts", "log_source_field",
+        PreprocessingFailure.REASON_FIELD, PreprocessingFailure.FIELD_FIELD };
+    private static final String[] LONG_FIELDS = { "template_cluster_id", OpniPreProcessor.FINGERPRINT_FIELD };
+
+    private OpniIndexTemplates() {}
+
+    static XContentBuilder mappings(XContentBuilder builder) throws IOException {
+        builder.startObject();
+        builder.startArray("dynamic_templates");
+        builder.startObject().startObject("strings_as_keywords");
+        builder.field("match_mapping_type", "string");
+        builder.startObject("mapping").field("type", "keyword").field("ignore_above", IGNORE_ABOVE).endObject();
+        builder.endObject().endObject();
+        builder.endArray();
+
+        builder.startObject("properties");
+        for (String field : TEXT_FIELDS) {
+            builder.startObject(field).field("type", "text").field("norms", false).endObject();
+        }
+        for (String field : KEYWORD_FIELDS) {
+            builder.startObject(field).field("type", "keyword").field("ignore_above", IGNORE_ABOVE).endObject();
+        }
+        for (String field : LONG_FIELDS) {
+            builder.startObject(field).field("type", "long").endObject();
+        }
+        // compared bit by bit from doc values, never searched
+        builder.startObject(OpniPreProcessor.SIMHASH_FIELD).field("type", "long").field("index", false).endObject();
+        builder.startObject("masking_degraded").field("type", "boolean").endObject();
+        // a time of the source in another format is kept in the source, not rejected
+        builder.startObject("time").field("type", "date").field("format", TIME_FORMAT).field("ignore_malformed", true).endObject();
+        builder.startObject("ingest_at").field("type", "date").field("format", INGEST_AT_FORMAT).endObject();
+        builder.endObject();
+        return builder.endObject();
+    }
+
+    static ComponentTemplate componentTemplate() {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            CompressedXContent mappings = new CompressedXContent(Strings.toString(mappings(builder)));
+            return new ComponentTemplate(new Template(null, mappings, null), VERSION, null);
+        } catch (IOException e) {
+            // an in-memory builder does not fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The index template for {@code indexPatterns}, with {@code pipeline} as their default pipeline if
+     * not null. With a {@code timestampField} the matching indices are data streams, and the field is
+     * mapped as a date every document must have well formed, without the {@code ignore_malformed} of
+     * {@code time} in the component template.
+     */
+    static ComposableIndexTemplate indexTemplate(List<String> indexPatterns, long priority, String pipeline,
+                                                 String timestampField) {
+        Settings settings = pipeline == null ? null : Settings.builder().put("index.default_pipeline", pipeline).build();
+        CompressedXContent mappings = timestampField == null ? null : timestampMappings(timestampField);
+        Template template = settings == null && mappings == null ? null : new Template(settings, mappings, null);
+        ComposableIndexTemplate.DataStreamTemplate dataStream = timestampField == null ? null
+            : new ComposableIndexTemplate.DataStreamTemplate(new DataStream.TimestampField(timestampField));
+        return new ComposableIndexTemplate(indexPatterns, template, Collections.singletonList(COMPONENT_TEMPLATE), priority,
+            VERSION, null, dataStream);
+    }
+
+    // the mappings of an index template replace the field definitions of its component templates
+    private static CompressedXContent timestampMappings(String timestampField) {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            builder.startObject().startObject("properties");
+            builder.startObject(timestampField).field("type", "date").field("format", TIME_FORMAT).endObject();
+            builder.endObject().endObject();
+            return new CompressedXContent(Strings.toString(builder));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -147,6 +147,63 @@ public final class OpniPayloadProto {
      */
     com.google.protobuf.ByteString
         getServiceBytes();
+
+    /**
+     * <pre>
+     * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+     * </pre>
+     *
+     * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+     */
+    java.util.List<java.lang.Integer> getMaskedTokenIdsList();
+    /**
+     * <pre>
+     * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+     * </pre>
+     *
+     * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+     */
+    int getMaskedTokenIdsCount();
+    /**
+     * <pre>
+     * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+     * </pre>
+     *
+     * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+     */
+    int getMaskedTokenIds(int index);
+
+    /**
+     * <pre>
+     * 64-bit hashes of masked_log: equal for equal masked lines, and close in Hamming distance for similar ones
+     * </pre>
+     *
+     * <code>sfixed64 masked_log_fingerprint = 16;</code>
+     */
+    long getMaskedLogFingerprint();
+
+    /**
+     * <code>sfixed64 masked_log_simhash = 17;</code>
+     */
+    long getMaskedLogSimhash();
+
+    /**
+     * <pre>
+     * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+     * </pre>
+     *
+     * <code>string vocabulary_id = 18;</code>
+     */
+    java.lang.String getVocabularyId();
+    /**
+     * <pre>
+     * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+     * </pre>
+     *
+     * <code>string vocabulary_id = 18;</code>
+     */
+    com.google.protobuf.ByteString
+        getVocabularyIdBytes();
   }
   /**
    * Protobuf type {@code loganomaly.Payload}
@@ -173,6 +230,8 @@ public final class OpniPayloadProto {
       namespaceName_ = "";
       deployment_ = "";
       service_ = "";
+      maskedTokenIds_ = emptyIntList();
+      vocabularyId_ = "";
     }
 
     @java.lang.Override
@@ -281,6 +340,43 @@ public final class OpniPayloadProto {
               service_ = s;
               break;
             }
+            case 120: {
+              if (!((mutable_bitField0_ & 0x00004000) != 0)) {
+                maskedTokenIds_ = newIntList();
+                mutable_bitField0_ |= 0x00004000;
+              }
+              maskedTokenIds_.addInt(input.readUInt32());
+              break;
+            }
+            case 122: {
+              int length = input.readRawVarint32();
+              int limit = input.pushLimit(length);
+              if (!((mutable_bitField0_ & 0x00004000) != 0) && input.getBytesUntilLimit() > 0) {
+                maskedTokenIds_ = newIntList();
+                mutable_bitField0_ |= 0x00004000;
+              }
+              while (input.getBytesUntilLimit() > 0) {
+                maskedTokenIds_.addInt(input.readUInt32());
+              }
+              input.popLimit(limit);
+              break;
+            }
+            case 129: {
+
+              maskedLogFingerprint_ = input.readSFixed64();
+              break;
+            }
+            case 137: {
+
+              maskedLogSimhash_ = input.readSFixed64();
+              break;
+            }
+            case 146: {
+              java.lang.String s = input.readStringRequireUtf8();
+
+              vocabularyId_ = s;
+              break;
+            }
             default: {
               if (!parseUnknownField(
                   input, unknownFields, extensionRegistry, tag)) {
@@ -296,6 +392,9 @@ public final class OpniPayloadProto {
         throw new com.google.protobuf.InvalidProtocolBufferException(
             e).setUnfinishedMessage(this);
       } finally {
+        if (((mutable_bitField0_ & 0x00004000) != 0)) {
+          maskedTokenIds_.makeImmutable(); // C
+        }
         this.unknownFields = unknownFields.build();
         makeExtensionsImmutable();
       }
@@ -313,6 +412,7 @@ public final class OpniPayloadProto {
               org.opensearch.opnipreprocessing.plugin.OpniPayloadProto.Payload.class, org.opensearch.opnipreprocessing.plugin.OpniPayloadProto.Payload.Builder.class);
     }
 
+    private int bitField0_;
     public static final int _ID_FIELD_NUMBER = 1;
     private volatile java.lang.Object Id_;
     /**
@@ -739,6 +839,105 @@ public final class OpniPayloadProto {
       }
     }
 
+    public static final int MASKED_TOKEN_IDS_FIELD_NUMBER = 15;
+    private com.google.protobuf.Internal.IntList maskedTokenIds_;
+    /**
+     * <pre>
+     * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+     * </pre>
+     *
+     * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+     */
+    public java.util.List<java.lang.Integer>
+        getMaskedTokenIdsList() {
+      return maskedTokenIds_;
+    }
+    /**
+     * <pre>
+     * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+     * </pre>
+     *
+     * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+     */
+    public int getMaskedTokenIdsCount() {
+      return maskedTokenIds_.size();
+    }
+    /**
+     * <pre>
+     * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+     * </pre>
+     *
+     * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+     */
+    public int getMaskedTokenIds(int index) {
+      return maskedTokenIds_.getInt(index);
+    }
+    private int maskedTokenIdsMemoizedSerializedSize = -1;
+
+    public static final int MASKED_LOG_FINGERPRINT_FIELD_NUMBER = 16;
+    private long maskedLogFingerprint_;
+    /**
+     * <pre>
+     * 64-bit hashes of masked_log: equal for equal masked lines, and close in Hamming distance for similar ones
+     * </pre>
+     *
+     * <code>sfixed64 masked_log_fingerprint = 16;</code>
+     */
+    public long getMaskedLogFingerprint() {
+      return maskedLogFingerprint_;
+    }
+
+    public static final int MASKED_LOG_SIMHASH_FIELD_NUMBER = 17;
+    private long maskedLogSimhash_;
+    /**
+     * <code>sfixed64 masked_log_simhash = 17;</code>
+     */
+    public long getMaskedLogSimhash() {
+      return maskedLogSimhash_;
+    }
+
+    public static final int VOCABULARY_ID_FIELD_NUMBER = 18;
+    private volatile java.lang.Object vocabularyId_;
+    /**
+     * <pre>
+     * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+     * </pre>
+     *
+     * <code>string vocabulary_id = 18;</code>
+     */
+    public java.lang.String getVocabularyId() {
+      java.lang.Object ref = vocabularyId_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        vocabularyId_ = s;
+        return s;
+      }
+    }
+    /**
+     * <pre>
+     * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+     * </pre>
+     *
+     * <code>string vocabulary_id = 18;</code>
+     */
+    public com.google.protobuf.ByteString
+        getVocabularyIdBytes() {
+      java.lang.Object ref = vocabularyId_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        vocabularyId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
     private byte memoizedIsInitialized = -1;
     @java.lang.Override
     public final boolean isInitialized() {
@@ -753,6 +952,7 @@ public final class OpniPayloadProto {
     @java.lang.Override
     public void writeTo(com.google.protobuf.CodedOutputStream output)
                         throws java.io.IOException {
+      getSerializedSize();
       if (!getIdBytes().isEmpty()) {
         com.google.protobuf.GeneratedMessageV3.writeString(output, 1, Id_);
       }
@@ -795,6 +995,22 @@ public final class OpniPayloadProto {
       if (!getServiceBytes().isEmpty()) {
         com.google.protobuf.GeneratedMessageV3.writeString(output, 14, service_);
       }
+      if (getMaskedTokenIdsList().size() > 0) {
+        output.writeUInt32NoTag(122);
+        output.writeUInt32NoTag(maskedTokenIdsMemoizedSerializedSize);
+      }
+      for (int i = 0; i < maskedTokenIds_.size(); i++) {
+        output.writeUInt32NoTag(maskedTokenIds_.getInt(i));
+      }
+      if (maskedLogFingerprint_ != 0L) {
+        output.writeSFixed64(16, maskedLogFingerprint_);
+      }
+      if (maskedLogSimhash_ != 0L) {
+        output.writeSFixed64(17, maskedLogSimhash_);
+      }
+      if (!getVocabularyIdBytes().isEmpty()) {
+        com.google.protobuf.GeneratedMessageV3.writeString(output, 18, vocabularyId_);
+      }
       unknownFields.writeTo(output);
     }
 
@@ -848,6 +1064,31 @@ public final class OpniPayloadProto {
       if (!getServiceBytes().isEmpty()) {
         size += com.google.protobuf.GeneratedMessageV3.computeStringSize(14, service_);
       }
+      {
+        int dataSize = 0;
+        for (int i = 0; i < maskedTokenIds_.size(); i++) {
+          dataSize += com.google.protobuf.CodedOutputStream
+            .computeUInt32SizeNoTag(maskedTokenIds_.getInt(i));
+        }
+        size += dataSize;
+        if (!getMaskedTokenIdsList().isEmpty()) {
+          size += 1;
+          size += com.google.protobuf.CodedOutputStream
+              .computeInt32SizeNoTag(dataSize);
+        }
+        maskedTokenIdsMemoizedSerializedSize = dataSize;
+      }
+      if (maskedLogFingerprint_ != 0L) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeSFixed64Size(16, maskedLogFingerprint_);
+      }
+      if (maskedLogSimhash_ != 0L) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeSFixed64Size(17, maskedLogSimhash_);
+      }
+      if (!getVocabularyIdBytes().isEmpty()) {
+        size += com.google.protobuf.GeneratedMessageV3.computeStringSize(18, vocabularyId_);
+      }
       size += unknownFields.getSerializedSize();
       memoizedSize = size;
       return size;
@@ -892,6 +1133,14 @@ public final class OpniPayloadProto {
           .equals(other.getDeployment())) return false;
       if (!getService()
           .equals(other.getService())) return false;
+      if (!getMaskedTokenIdsList()
+          .equals(other.getMaskedTokenIdsList())) return false;
+      if (getMaskedLogFingerprint()
+          != other.getMaskedLogFingerprint()) return false;
+      if (getMaskedLogSimhash()
+          != other.getMaskedLogSimhash()) return false;
+      if (!getVocabularyId()
+          .equals(other.getVocabularyId())) return false;
       if (!unknownFields.equals(other.unknownFields)) return false;
       return true;
     }
@@ -933,6 +1182,18 @@ public final class OpniPayloadProto {
       hash = (53 * hash) + getDeployment().hashCode();
       hash = (37 * hash) + SERVICE_FIELD_NUMBER;
       hash = (53 * hash) + getService().hashCode();
+      if (getMaskedTokenIdsCount() > 0) {
+        hash = (37 * hash) + MASKED_TOKEN_IDS_FIELD_NUMBER;
+        hash = (53 * hash) + getMaskedTokenIdsList().hashCode();
+      }
+      hash = (37 * hash) + MASKED_LOG_FINGERPRINT_FIELD_NUMBER;
+      hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+          getMaskedLogFingerprint());
+      hash = (37 * hash) + MASKED_LOG_SIMHASH_FIELD_NUMBER;
+      hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+          getMaskedLogSimhash());
+      hash = (37 * hash) + VOCABULARY_ID_FIELD_NUMBER;
+      hash = (53 * hash) + getVocabularyId().hashCode();
       hash = (29 * hash) + unknownFields.hashCode();
       memoizedHashCode = hash;
       return hash;
@@ -1094,6 +1355,14 @@ public final class OpniPayloadProto {
 
         service_ = "";
 
+        maskedTokenIds_ = emptyIntList();
+        bitField0_ = (bitField0_ & ~0x00004000);
+        maskedLogFingerprint_ = 0L;
+
+        maskedLogSimhash_ = 0L;
+
+        vocabularyId_ = "";
+
         return this;
       }
 
@@ -1120,6 +1389,8 @@ public final class OpniPayloadProto {
       @java.lang.Override
       public org.opensearch.opnipreprocessing.plugin.OpniPayloadProto.Payload buildPartial() {
         org.opensearch.opnipreprocessing.plugin.OpniPayloadProto.Payload result = new org.opensearch.opnipreprocessing.plugin.OpniPayloadProto.Payload(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
         result.Id_ = Id_;
         result.clusterId_ = clusterId_;
         result.log_ = log_;
@@ -1134,6 +1405,15 @@ public final class OpniPayloadProto {
         result.namespaceName_ = namespaceName_;
         result.deployment_ = deployment_;
         result.service_ = service_;
+        if (((bitField0_ & 0x00004000) != 0)) {
+          maskedTokenIds_.makeImmutable();
+          bitField0_ = (bitField0_ & ~0x00004000);
+        }
+        result.maskedTokenIds_ = maskedTokenIds_;
+        result.maskedLogFingerprint_ = maskedLogFingerprint_;
+        result.maskedLogSimhash_ = maskedLogSimhash_;
+        result.vocabularyId_ = vocabularyId_;
+        result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
       }
@@ -1236,6 +1516,26 @@ public final class OpniPayloadProto {
           service_ = other.service_;
           onChanged();
         }
+        if (!other.maskedTokenIds_.isEmpty()) {
+          if (maskedTokenIds_.isEmpty()) {
+            maskedTokenIds_ = other.maskedTokenIds_;
+            bitField0_ = (bitField0_ & ~0x00004000);
+          } else {
+            ensureMaskedTokenIdsIsMutable();
+            maskedTokenIds_.addAll(other.maskedTokenIds_);
+          }
+          onChanged();
+        }
+        if (other.getMaskedLogFingerprint() != 0L) {
+          setMaskedLogFingerprint(other.getMaskedLogFingerprint());
+        }
+        if (other.getMaskedLogSimhash() != 0L) {
+          setMaskedLogSimhash(other.getMaskedLogSimhash());
+        }
+        if (!other.getVocabularyId().isEmpty()) {
+          vocabularyId_ = other.vocabularyId_;
+          onChanged();
+        }
         this.mergeUnknownFields(other.unknownFields);
         onChanged();
         return this;
@@ -1264,6 +1564,7 @@ public final class OpniPayloadProto {
         }
         return this;
       }
+      private int bitField0_;
 
       private java.lang.Object Id_ = "";
       /**
@@ -2144,6 +2445,254 @@ public final class OpniPayloadProto {
         onChanged();
         return this;
       }
+
+      private com.google.protobuf.Internal.IntList maskedTokenIds_ = emptyIntList();
+      private void ensureMaskedTokenIdsIsMutable() {
+        if (!((bitField0_ & 0x00004000) != 0)) {
+          maskedTokenIds_ = mutableCopy(maskedTokenIds_);
+          bitField0_ |= 0x00004000;
+         }
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public java.util.List<java.lang.Integer>
+          getMaskedTokenIdsList() {
+        return ((bitField0_ & 0x00004000) != 0) ?
+                 java.util.Collections.unmodifiableList(maskedTokenIds_) : maskedTokenIds_;
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public int getMaskedTokenIdsCount() {
+        return maskedTokenIds_.size();
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public int getMaskedTokenIds(int index) {
+        return maskedTokenIds_.getInt(index);
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public Builder setMaskedTokenIds(
+          int index, int value) {
+        ensureMaskedTokenIdsIsMutable();
+        maskedTokenIds_.setInt(index, value);
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public Builder addMaskedTokenIds(int value) {
+        ensureMaskedTokenIdsIsMutable();
+        maskedTokenIds_.addInt(value);
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public Builder addAllMaskedTokenIds(
+          java.lang.Iterable<? extends java.lang.Integer> values) {
+        ensureMaskedTokenIdsIsMutable();
+        com.google.protobuf.AbstractMessageLite.Builder.addAll(
+            values, maskedTokenIds_);
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * masked_log as ids of the node's token vocabulary, see GET _plugins/_opni/preprocessing/vocabulary
+       * </pre>
+       *
+       * <code>repeated uint32 masked_token_ids = 15 [packed = true];</code>
+       */
+      public Builder clearMaskedTokenIds() {
+        maskedTokenIds_ = emptyIntList();
+        bitField0_ = (bitField0_ & ~0x00004000);
+        onChanged();
+        return this;
+      }
+
+      private long maskedLogFingerprint_ ;
+      /**
+       * <pre>
+       * 64-bit hashes of masked_log: equal for equal masked lines, and close in Hamming distance for similar ones
+       * </pre>
+       *
+       * <code>sfixed64 masked_log_fingerprint = 16;</code>
+       */
+      public long getMaskedLogFingerprint() {
+        return maskedLogFingerprint_;
+      }
+      /**
+       * <pre>
+       * 64-bit hashes of masked_log: equal for equal masked lines, and close in Hamming distance for similar ones
+       * </pre>
+       *
+       * <code>sfixed64 masked_log_fingerprint = 16;</code>
+       */
+      public Builder setMaskedLogFingerprint(long value) {
+        
+        maskedLogFingerprint_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * 64-bit hashes of masked_log: equal for equal masked lines, and close in Hamming distance for similar ones
+       * </pre>
+       *
+       * <code>sfixed64 masked_log_fingerprint = 16;</code>
+       */
+      public Builder clearMaskedLogFingerprint() {
+        
+        maskedLogFingerprint_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      private long maskedLogSimhash_ ;
+      /**
+       * <code>sfixed64 masked_log_simhash = 17;</code>
+       */
+      public long getMaskedLogSimhash() {
+        return maskedLogSimhash_;
+      }
+      /**
+       * <code>sfixed64 masked_log_simhash = 17;</code>
+       */
+      public Builder setMaskedLogSimhash(long value) {
+        
+        maskedLogSimhash_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>sfixed64 masked_log_simhash = 17;</code>
+       */
+      public Builder clearMaskedLogSimhash() {
+        
+        maskedLogSimhash_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      private java.lang.Object vocabularyId_ = "";
+      /**
+       * <pre>
+       * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+       * </pre>
+       *
+       * <code>string vocabulary_id = 18;</code>
+       */
+      public java.lang.String getVocabularyId() {
+        java.lang.Object ref = vocabularyId_;
+        if (!(ref instanceof java.lang.String)) {
+          com.google.protobuf.ByteString bs =
+              (com.google.protobuf.ByteString) ref;
+          java.lang.String s = bs.toStringUtf8();
+          vocabularyId_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <pre>
+       * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+       * </pre>
+       *
+       * <code>string vocabulary_id = 18;</code>
+       */
+      public com.google.protobuf.ByteString
+          getVocabularyIdBytes() {
+        java.lang.Object ref = vocabularyId_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          vocabularyId_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <pre>
+       * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+       * </pre>
+       *
+       * <code>string vocabulary_id = 18;</code>
+       */
+      public Builder setVocabularyId(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  
+        vocabularyId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+       * </pre>
+       *
+       * <code>string vocabulary_id = 18;</code>
+       */
+      public Builder clearVocabularyId() {
+        
+        vocabularyId_ = getDefaultInstance().getVocabularyId();
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * the vocabulary masked_token_ids refer to: the node name and a random id drawn when the node starts
+       * </pre>
+       *
+       * <code>string vocabulary_id = 18;</code>
+       */
+      public Builder setVocabularyIdBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  checkByteStringIsUtf8(value);
+        
+        vocabularyId_ = value;
+        onChanged();
+        return this;
+      }
       @java.lang.Override
       public final Builder setUnknownFields(
           final com.google.protobuf.UnknownFieldSet unknownFields) {
@@ -2997,7 +3546,7 @@ public final class OpniPayloadProto {
       descriptor;
   static {
     java.lang.String[] descriptorData = {
-      "\n\rpayload.proto\022\nloganomaly\"\257\002\n\007Payload\022" +
+      "\n\rpayload.proto\022\nloganomaly\"\240\003\n\007Payload\022" +
       "\013\n\003_id\030\001 \001(\t\022\022\n\ncluster_id\030\002 \001(\t\022\013\n\003log\030" +
       "\003 \001(\t\022\022\n\nmasked_log\030\004 \001(\t\022\025\n\ranomaly_lev" +
       "el\030\005 \001(\t\022\020\n\010log_type\030\006 \001(\t\022\030\n\020template_m" +
@@ -3005,10 +3554,13 @@ public final class OpniPayloadProto {
       "\003\022\027\n\017inference_model\030\t \001(\t\022\032\n\022opnilog_co" +
       "nfidence\030\n \001(\002\022\020\n\010pod_name\030\013 \001(\t\022\026\n\016name" +
       "space_name\030\014 \001(\t\022\022\n\ndeployment\030\r \001(\t\022\017\n\007" +
-      "service\030\016 \001(\t\"1\n\013PayloadList\022\"\n\005items\030\001 " +
-      "\003(\0132\023.loganomaly.PayloadB;\n\'org.opensear" +
-      "ch.opnipreprocessing.pluginB\020OpniPayload" +
-      "Protob\006proto3"
+      "service\030\016 \001(\t\022\034\n\020masked_token_ids\030\017 \003(\rB" +
+      "\002\020\001\022\036\n\026masked_log_fingerprint\030\020 \001(\020\022\032\n\022m" +
+      "asked_log_simhash\030\021 \001(\020\022\025\n\rvocabulary_id\030\022 \001(\t" +
+      "\"1\n\013PayloadList\022\"" +
+      "\n\005items\030\001 \003(\0132\023.loganomaly.PayloadB;\n\'or" +
+      "g.opensearch.opnipreprocessing.pluginB\020O" +
+      "pniPayloadProtob\006proto3"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
         new com.google.protobuf.Descriptors.FileDescriptor.    InternalDescriptorAssigner() {
@@ -3027,7 +3579,7 @@ public final class OpniPayloadProto {
     internal_static_loganomaly_Payload_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_loganomaly_Payload_descriptor,
-        new java.lang.String[] { "Id", "ClusterId", "Log", "MaskedLog", "AnomalyLevel", "LogType", "TemplateMatched", "TemplateClusterId", "InferenceModel", "OpnilogConfidence", "PodName", "NamespaceName", "Deployment", "Service", });
+        new java.lang.String[] { "Id", "ClusterId", "Log", "MaskedLog", "AnomalyLevel", "LogType", "TemplateMatched", "TemplateClusterId", "InferenceModel", "OpnilogConfidence", "PodName", "NamespaceName", "Deployment", "Service", "MaskedTokenIds", "MaskedLogFingerprint", "MaskedLogSimhash", "VocabularyId", });
     internal_static_loganomaly_PayloadList_descriptor =
       getDescriptor().getMessageTypes().get(1);
     internal_static_loganomaly_PayloadList_fieldAccessorTable = new
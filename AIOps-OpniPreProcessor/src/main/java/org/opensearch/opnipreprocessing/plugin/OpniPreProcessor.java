@@ -7,6 +7,8 @@
  */
 package org.opensearch.opnipreprocessing.plugin;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.opensearch.common.Strings;
 import org.opensearch.common.unit.ByteSizeUnit;
 import org.opensearch.common.unit.ByteSizeValue;
@@ -20,16 +22,24 @@ import org.opensearch.common.settings.Settings;
 import org.opensearch.env.Environment;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Date;
 import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
-import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import org.opensearch.common.io.PathUtils;
 
 
+import static org.opensearch.ingest.ConfigurationUtils.newConfigurationException;
 import static org.opensearch.ingest.ConfigurationUtils.readBooleanProperty;
+import static org.opensearch.ingest.ConfigurationUtils.readOptionalList;
+import static org.opensearch.ingest.ConfigurationUtils.readOptionalMap;
 import static org.opensearch.ingest.ConfigurationUtils.readOptionalStringProperty;
 import static org.opensearch.ingest.ConfigurationUtils.readStringProperty;
 
@@ -67,21 +77,60 @@ public final class OpniPreProcessor extends AbstractProcessor {
 
     public static final String TYPE = "opnipre";
 
+    private static final Logger logger = LogManager.getLogger(OpniPreProcessor.class);
+
+    static final String FINGERPRINT_FIELD = "masked_log_fingerprint";
+    static final String SIMHASH_FIELD = "masked_log_simhash";
+
+    // OTLP resource attributes and the fields they fill on documents of the otel collector
+    private static final String[][] OTEL_RESOURCE_FIELDS = {
+        { "k8s.pod.name", "pod_name" },
+        { "k8s.namespace.name", "namespace_name" },
+        { "k8s.deployment.name", "deployment" },
+        { "service.name", "service" }
+    };
+
     private final OpniPreprocessingConfig config;
-    private Connection nc;
+    private final Connection nc;
+    private final PreprocessingServices services;
     private LogMasker masker;
+    // the masker of the pipeline's own masking options, if it has any
+    private final LogMasker pipelineMasker;
+    private final TemplateMiner templateMiner;
+    private final OutputOptions options;
+    private final TokenVocabulary vocabulary;
 
     public OpniPreProcessor(String tag, String description, OpniPreprocessingConfig config)
             throws IOException, PrivilegedActionException {
+        this(tag, description, config, null, null, OutputOptions.DEFAULT);
+    }
+
+    OpniPreProcessor(String tag, String description, OpniPreprocessingConfig config, PreprocessingServices services,
+                     LogMasker pipelineMasker, OutputOptions options) throws IOException, PrivilegedActionException {
+        this(tag, description, config, services, pipelineMasker, options, connectNats(config));
+    }
+
+    // publishes to nc, which it does not connect itself
+    OpniPreProcessor(String tag, String description, OpniPreprocessingConfig config, PreprocessingServices services,
+                     LogMasker pipelineMasker, OutputOptions options, Connection nc) {
         super(tag, description);
         this.config = config;
-
-        try{
-            nc = connectNats();
-        }catch (PrivilegedActionException e) {
-            throw e;
+        this.nc = nc;
+        this.services = services;
+        this.pipelineMasker = pipelineMasker;
+        if (services == null && pipelineMasker == null) {
+            masker = new LogMasker(config.getMaskingEngine());
+        }
+        templateMiner = services == null ? null : services.templateMiner;
+        this.options = options;
+        if (services != null) {
+            vocabulary = services.vocabulary;
+        } else {
+            LogMasker.MaskingRuleClass rules = masker().getMaskingRules();
+            vocabulary = new TokenVocabulary(TokenVocabulary.newId(TYPE), TokenVocabulary.labels(rules),
+                OpniPreprocessingConfig.MASKING_VOCABULARY_MAX_SIZE_SETTING.getDefault(Settings.EMPTY));
+            vocabulary.addLabels(MaskingBudget.LABELS);
         }
-        masker = new LogMasker();
     }
 
     @Override
@@ -93,31 +142,40 @@ public final class OpniPreProcessor extends AbstractProcessor {
         // } catch (Exception e) {
         //     throw new RuntimeException(e);
         // }
-        // main entry
-        try {
-            return AccessController.doPrivileged(new PrivilegedExceptionAction<IngestDocument>() {
-                @Override
-                public IngestDocument run() throws Exception {
-                    long startTime = System.nanoTime();
-
-                    String generated_id = getRandomID();
-                    ingestDocument.setFieldValue("_id", generated_id);
-                    preprocessingDocument(ingestDocument);
-                    publishToNats(ingestDocument, nc);
-
-                    long endTime = System.nanoTime();
-                    //ingestDocument.setFieldValue("aiops_extraction_time_ms", (endTime-startTime) / 1000000.0);
-                    
-                    return ingestDocument;
-                }
-            });
-        } catch (PrivilegedActionException e) {
-            throw e;
-        }         
+        // main entry, unprivileged: the connection is made with privileges and NATS does its socket I/O on its own threads
+        long startTime = System.nanoTime();
+
+        DocumentFields fields = new DocumentFields(ingestDocument);
+        String generated_id = getRandomID();
+        fields.set("_id", generated_id);
+        // in tolerant mode malformed documents are tagged and indexed, but not published
+        PreprocessingFailure failure = options.tolerant ? PreprocessingFailure.check(fields) : null;
+        Preprocessed preprocessed = Preprocessed.NONE;
+        if (failure == null) {
+            preprocessed = preprocessingDocument(ingestDocument, fields);
+            if (options.tolerant && publishes(fields)) {
+                failure = PreprocessingFailure.checkPayload(fields, options.slim);
+            }
+        }
+        if (failure != null) {
+            failed(fields, failure);
+        }
+        route(fields);
+        // the values preprocessing needed from it are out by now
+        slimKubernetes(fields);
+        fields.apply();
+        if (failure == null) {
+            publishToNats(fields, nc, preprocessed);
+        }
+
+        long endTime = System.nanoTime();
+        //ingestDocument.setFieldValue("aiops_extraction_time_ms", (endTime-startTime) / 1000000.0);
+        
+        return ingestDocument;
     }
 
     public String getRandomID() {
-        return UUID.randomUUID().toString();
+        return options.ids.next();
     }
 
     @Override
@@ -125,7 +183,7 @@ public final class OpniPreProcessor extends AbstractProcessor {
         return TYPE;
     }
 
-    private Connection connectNats() throws PrivilegedActionException {
+    private static Connection connectNats(OpniPreprocessingConfig config) throws PrivilegedActionException {
         /***
         this method assigns privilege to create a nats connection. 
         ***/
@@ -133,7 +191,7 @@ public final class OpniPreProcessor extends AbstractProcessor {
             return AccessController.doPrivileged(new PrivilegedExceptionAction<Connection>() {
                 @Override
                 public Connection run() throws Exception {
-                    return Nats.connect(getNKeyOption());
+                    return Nats.connect(getNKeyOption(config));
                     // return Nats.connect("nats://x.x.x.x:4222"); // test only
                 }
             });
@@ -143,7 +201,7 @@ public final class OpniPreProcessor extends AbstractProcessor {
     }
 
     @SuppressForbidden(reason = "Not config the seed file as env variable for now")
-    private Options getNKeyOption() throws GeneralSecurityException, IOException, NullPointerException{
+    private static Options getNKeyOption(OpniPreprocessingConfig config) throws GeneralSecurityException, IOException, NullPointerException{
         char[] seed = new String(Files.readAllBytes(PathUtils.get(config.getSeedFile())), StandardCharsets.UTF_8).toCharArray();
         NKey theNKey = NKey.fromSeed(seed);
         Options options = new Options.Builder().
@@ -173,14 +231,18 @@ public final class OpniPreProcessor extends AbstractProcessor {
         return options;
     }
 
-    // @SuppressWarnings({"unchecked"})
-    @SuppressForbidden(reason = "only use PathUtil to get filename")
-    private void preprocessingDocument(IngestDocument ingestDocument) {
+    /**
+     * Returns what the payload needs of the preprocessing: the masked log line if it had to be masked
+     * for the document, and the template of the line. Top-level fields go through {@code fields},
+     * which the caller applies to the document.
+     */
+    private Preprocessed preprocessingDocument(IngestDocument ingestDocument, DocumentFields fields) {
         /* 
-         * Do not preprocess if document has been through the otel collector
+         * Do not preprocess if document has been through the otel collector, it already says where it comes from
         */
-        if (isOtelCollector(ingestDocument)) {
-            return;
+        if (isOtelCollector(fields)) {
+            preprocessingOtelDocument(fields, options.slim);
+            return Preprocessed.NONE;
         }
 
         /**
@@ -188,150 +250,242 @@ public final class OpniPreProcessor extends AbstractProcessor {
         0. initialize a few fields for downstream AI services.
         1. identify controlplane/rancher logs
         **/
-        ingestDocument.setFieldValue("template_matched", "");
-        ingestDocument.setFieldValue("anomaly_level", ""); 
+        placeholder(fields, "template_matched", options.slim);
+        placeholder(fields, "anomaly_level", options.slim);
 
         // If it's an event we don't need to do any further processing
-        if (ingestDocument.hasField("log_type") && ingestDocument.getFieldValue("log_type", String.class).equals("event")) {
-            return;
+        if (fields.is("log_type", "event")) {
+            return Preprocessed.NONE;
         }
 
         // Don't do any further processing if the logs come from the support agent
-        if (ingestDocument.hasField("agent") && ingestDocument.getFieldValue("agent", String.class).equals("support")) {
-            return;
+        if (fields.is("agent", "support")) {
+            return Preprocessed.NONE;
         }
 
         // normalize log field
-        if (!ingestDocument.hasField("log")) {
+        if (!fields.has("log")) {
             String log = "";
-            if (ingestDocument.hasField("message")) {
-                log = ingestDocument.getFieldValue("message", String.class);
-                ingestDocument.removeField("message");
+            if (fields.has("message")) {
+                log = fields.string("message");
+                fields.remove("message");
             }
-            if (ingestDocument.hasField("MESSAGE")) {
-                log = ingestDocument.getFieldValue("MESSAGE", String.class);
-                ingestDocument.removeField("MESSAGE");
+            if (fields.has("MESSAGE")) {
+                log = fields.string("MESSAGE");
+                fields.remove("MESSAGE");
             }
-            ingestDocument.setFieldValue("log", log);
+            fields.set("log", log);
         }
 
         // normalize field log_type and kubernetesComponent conponent
-        String logType = "workload";
-        String kubernetesComponent = "";
+        Map<String, Object> source = ingestDocument.getSourceAndMetadata();
+        SourceClassifier.Classification classification = services == null
+            ? SourceClassifier.DEFAULT.classify(source, null) : services.classify(source);
+        String logType = classification.logType;
+        String kubernetesComponent = classification.component;
         String podName = "";
         String namespaceName = "";
-        
-        if (ingestDocument.hasField("filename")) {
-            String controlPlaneName = ingestDocument.getFieldValue("filename", String.class);
-            if (controlPlaneName.contains("rke/log/etcd") ||
-                controlPlaneName.contains("rke/log/kubelet") ||
-                controlPlaneName.contains("/rke/log/kube-apiserver") ||
-                controlPlaneName.contains("rke/log/kube-controller-manager") ||
-                controlPlaneName.contains("rke/log/kube-proxy") ||
-                controlPlaneName.contains("rke/log/kube-scheduler") 
-                ) { 
-                logType = "controlplane";
-                controlPlaneName = PathUtils.get(controlPlaneName).getFileName().toString();
-                kubernetesComponent = (controlPlaneName.split("_"))[0];
-            }
-            else if (controlPlaneName.contains("k3s.log")){
-                logType = "controlplane";
-                kubernetesComponent = "k3s";
-            }
-            else if (controlPlaneName.contains("rke2/agent/logs/kubelet")){
-                logType = "controlplane";
-                kubernetesComponent = "kubelet";
+
+        Map<?, ?> kubernetes = fields.kubernetes();
+        if (!fields.has("filename") && !fields.has("COMM") && kubernetes != null) {
+            if (kubernetes.containsKey("pod_name")) {
+                podName = ((String)kubernetes.get("pod_name"));
             }
-        }  
-        else if (ingestDocument.hasField("COMM")){
-            String controlPlaneName = ingestDocument.getFieldValue("COMM", String.class);
-            if (controlPlaneName.contains("kubelet") ||
-                controlPlaneName.contains("k3s-agent") ||
-                controlPlaneName.contains("k3s-server") ||
-                controlPlaneName.contains("rke2-agent") ||
-                controlPlaneName.contains("rke2-server")
-                ){
-                logType = "controlplane";
-                kubernetesComponent = (controlPlaneName.split("-"))[0];
+            if (kubernetes.containsKey("namespace_name")) {
+                namespaceName = ((String)kubernetes.get("namespace_name"));
             }
         }
-        else {
-            if (ingestDocument.hasField("kubernetes")) {// kubernetes.labels.tier
-                Map<String, Object> kubernetes = ingestDocument.getFieldValue("kubernetes", Map.class);
-                if (kubernetes.containsKey("labels")) {
-                    HashMap<String, String> labels = (HashMap)kubernetes.get("labels");
-                    if (labels.containsKey("tier")) {
-                        String controlPlaneName = labels.get("tier");
-                        if (controlPlaneName.contains("control-plane")){
-                            logType = "controlplane";
-                            kubernetesComponent = "control-plane";
-                        }
-                    }
-                }
-                if (kubernetes.containsKey("container_image") && ((String)kubernetes.get("container_image")).contains("rancher/rancher") &&
-                    ingestDocument.hasField("deployment") && ingestDocument.getFieldValue("deployment", String.class).equals("rancher")  ) {
-                    logType = "rancher";
-                }
-                if (kubernetes.containsKey("container_image") && ((String)kubernetes.get("container_image")).contains("longhornio")) {
-                    logType = "longhorn";
-                }
-                if (kubernetes.containsKey("pod_name")) {
-                    podName = ((String)kubernetes.get("pod_name"));
-                }
-                if (kubernetes.containsKey("namespace_name")) {
-                    namespaceName = ((String)kubernetes.get("namespace_name"));
-                } 
-            }
-            if (ingestDocument.hasField("container_image")) {
-                if (ingestDocument.getFieldValue("container_image", String.class).contains("rancher/rancher") &&
-                    ingestDocument.hasField("deployment") && ingestDocument.getFieldValue("deployment", String.class).equals("rancher")  ) {
-                    logType = "rancher";
-                }
-                if (ingestDocument.getFieldValue("container_image", String.class).contains("longhornio")) {
-                    logType = "longhorn";
-                }
-            }
+
+        setDefault(fields, "deployment", "", options.slim);
+        setDefault(fields, "service", "", options.slim);
+        setDefault(fields, "log_type", logType, options.slim);
+        setDefault(fields, "kubernetes_component", kubernetesComponent, options.slim);
+        setDefault(fields, "pod_name", podName, options.slim);
+        setDefault(fields, "namespace_name", namespaceName, options.slim);
+
+        // the template and the indexed document need the masked line now, the payload can wait for it
+        String log = fields.required("log");
+        String maskedLog = null;
+        if ((templateMiner != null || options.needsMaskedLogInDocument()) && log != null && !log.isEmpty()) {
+            maskedLog = maskLogs(fields, masker(fields), log);
+        }
+
+        // group the line into a template of its cluster
+        TemplateMiner.Match template = null;
+        if (templateMiner != null && maskedLog != null) {
+            template = templateMiner.match(clusterID(fields), maskedLog);
+            fields.set("template_matched", template.template);
+            fields.set("template_cluster_id", template.id);
+        }
+        if (options.targetField != null) {
+            // may be a path into an object
+            ingestDocument.setFieldValue(options.targetField, maskedLog == null ? "" : maskedLog);
         }
+        if (options.fingerprint && maskedLog != null) {
+            fields.set(FINGERPRINT_FIELD, Hash64.hash(maskedLog));
+        }
+        if (options.simHash && maskedLog != null) {
+            fields.set(SIMHASH_FIELD, Hash64.simHash(maskedLog, ' '));
+        }
+        return maskedLog == null && template == null ? Preprocessed.NONE : new Preprocessed(maskedLog, template);
+    }
 
-        if (!ingestDocument.hasField("deployment")) {
-            ingestDocument.setFieldValue("deployment", "");
+    /**
+     * Fills the Opni fields of a document of the otel collector from its OTLP resource attributes,
+     * either a {@code resource} object keyed by attribute or its {@code attributes} object, and its
+     * log from the record's {@code body}.
+     */
+    static void preprocessingOtelDocument(DocumentFields fields, boolean slim) {
+        placeholder(fields, "template_matched", slim);
+        placeholder(fields, "anomaly_level", slim);
+        Map<?, ?> resource = fields.object("resource");
+        if (resource != null && resource.get("attributes") instanceof Map) {
+            resource = (Map<?, ?>) resource.get("attributes");
         }
-        if (!ingestDocument.hasField("service")) {
-            ingestDocument.setFieldValue("service", "");
+        for (String[] mapping : OTEL_RESOURCE_FIELDS) {
+            Object value = resource == null ? null : resource.get(mapping[0]);
+            setDefault(fields, mapping[1], value instanceof String ? (String) value : "", slim);
         }
-        if (!ingestDocument.hasField("log_type")) {
-            ingestDocument.setFieldValue("log_type", logType);
+        setDefault(fields, "log_type", SourceClassifier.DEFAULT_LOG_TYPE, slim);
+        setDefault(fields, "kubernetes_component", SourceClassifier.DEFAULT_COMPONENT, slim);
+        if (!fields.has("log")) {
+            // the OTLP log record body
+            Object body = fields.get("body");
+            fields.set("log", body instanceof String ? body : "");
         }
-        if (!ingestDocument.hasField("kubernetes_component")) {
-            ingestDocument.setFieldValue("kubernetes_component", kubernetesComponent);
+    }
+
+    // slim documents leave empty placeholders out
+    private static void placeholder(DocumentFields fields, String key, boolean slim) {
+        if (!slim) {
+            fields.set(key, "");
         }
-        if (!ingestDocument.hasField("pod_name")) {
-            ingestDocument.setFieldValue("pod_name", podName);
+    }
+
+    private static void setDefault(DocumentFields fields, String key, String value, boolean slim) {
+        if (!slim || !value.isEmpty()) {
+            fields.setIfAbsent(key, value);
         }
-        if (!ingestDocument.hasField("namespace_name")) {
-            ingestDocument.setFieldValue("namespace_name", namespaceName);
+    }
+
+    // a placeholder a slim document may lack
+    private String placeholderValue(DocumentFields fields, String key) {
+        return options.slim && !fields.has(key) ? "" : fields.required(key);
+    }
+
+    // sends the document to the index of its log_type, if it has one
+    private void route(DocumentFields fields) {
+        if (options.indexRouter == null) {
+            return;
+        }
+        String logType = fields.string("log_type");
+        if (logType != null && !logType.isEmpty()) {
+            fields.set("_index", options.indexRouter.index(logType, fields.string("_index")));
         }
     }
 
-    private void publishToNats (IngestDocument ingestDocument, Connection nc) throws PrivilegedActionException {
-        // skip non inferred logs
-        if (ingestDocument.getFieldValue("log_type", String.class).equals("event")) {
+    private void slimKubernetes(DocumentFields fields) {
+        if (options.kubernetesKeep == null && options.kubernetesStrip == null) {
+            return;
+        }
+        Map<?, ?> kubernetes = fields.kubernetes();
+        if (kubernetes == null) {
             return;
         }
-        if (isOtelCollector(ingestDocument)) {
+        if (options.kubernetesKeep != null) {
+            kubernetes.keySet().retainAll(options.kubernetesKeep);
+        } else {
+            kubernetes.keySet().removeAll(options.kubernetesStrip);
+        }
+    }
+
+    // skip non inferred logs, and those of the otel collector unless asked for
+    private boolean publishes(DocumentFields fields) {
+        return !fields.is("log_type", "event") && (options.publishOtel || !isOtelCollector(fields));
+    }
+
+    private void failed(DocumentFields fields, PreprocessingFailure failure) {
+        failure.tag(fields);
+        if (services != null) {
+            services.preprocessingFailures[failure.reason.ordinal()].increment();
+        }
+        if (options.deadLetterSubject != null) {
+            nc.publish(options.deadLetterSubject, failure.deadLetter(fields));
+            if (services != null) {
+                services.deadLettered.increment();
+            }
+        }
+    }
+
+    private void publishToNats (DocumentFields fields, Connection nc, Preprocessed preprocessed) {
+        if (!publishes(fields)) {
             return;
         }
         
-        OpniPayloadProto.Payload payload = OpniPayloadProto.Payload.newBuilder()
-                  .setId(ingestDocument.getFieldValue("_id", String.class))
-                  .setClusterId(ingestDocument.getFieldValue("cluster_id", String.class))
-                  .setLog(ingestDocument.getFieldValue("log", String.class))
-                  .setLogType(ingestDocument.getFieldValue("log_type", String.class))
-                  .setPodName(ingestDocument.getFieldValue("pod_name", String.class))
-                  .setNamespaceName(ingestDocument.getFieldValue("namespace_name", String.class))
-                  .setDeployment(ingestDocument.getFieldValue("deployment", String.class))
-                  .setService(ingestDocument.getFieldValue("service", String.class)).build();
-        nc.publish("raw_logs", payload.toByteArray() );
+        OpniPayloadProto.Payload.Builder payload = OpniPayloadProto.Payload.newBuilder()
+                  .setId(fields.required("_id"))
+                  .setClusterId(fields.required("cluster_id"))
+                  .setLog(fields.required("log"))
+                  .setLogType(fields.required("log_type"))
+                  .setPodName(placeholderValue(fields, "pod_name"))
+                  .setNamespaceName(placeholderValue(fields, "namespace_name"))
+                  .setDeployment(placeholderValue(fields, "deployment"))
+                  .setService(placeholderValue(fields, "service"));
+        // the template this line matched, not whatever the source said
+        if (preprocessed.template != null) {
+            payload.setTemplateMatched(preprocessed.template.template)
+                   .setTemplateClusterId(preprocessed.template.id);
+        }
+        String maskedLog = preprocessed.maskedLog;
+        String log = payload.getLog();
+        boolean needsMaskedLog = options.needsMaskedLogInPayload();
+        if (!needsMaskedLog || maskedLog != null || log.isEmpty()) {
+            if (needsMaskedLog) {
+                setMaskedLog(payload, maskedLog == null ? "" : maskedLog);
+            }
+            nc.publish("raw_logs", payload.build().toByteArray() );
+            return;
+        }
+
+        // only the payload needs the masked line: mask it off the write thread unless the pool is saturated
+        LogMasker masker = masker(fields);
+        Runnable maskAndPublish = () -> {
+            try {
+                nc.publish("raw_logs", setMaskedLog(payload, maskLogs(null, masker, log)).build().toByteArray());
+            } catch (RuntimeException e) {
+                logger.warn("failed to publish a masked log line", e);
+            }
+        };
+        ExecutorService executor = services == null ? null : services.maskingExecutor();
+        if (executor != null) {
+            try {
+                executor.execute(maskAndPublish);
+                services.maskingOffloaded.increment();
+                return;
+            } catch (RejectedExecutionException e) {
+                services.maskingCallerRuns.increment();
+            }
+        }
+        nc.publish("raw_logs", setMaskedLog(payload, maskLogs(null, masker, log)).build().toByteArray());
+    }
+
+    private OpniPayloadProto.Payload.Builder setMaskedLog(OpniPayloadProto.Payload.Builder payload, String maskedLog) {
+        if (options.maskLogs) {
+            payload.setMaskedLog(maskedLog);
+        }
+        if (options.fingerprint) {
+            payload.setMaskedLogFingerprint(Hash64.hash(maskedLog));
+        }
+        if (options.simHash) {
+            payload.setMaskedLogSimhash(Hash64.simHash(maskedLog, ' '));
+        }
+        if (options.tokenIds) {
+            payload.setVocabularyId(vocabulary.id);
+            for (int id : vocabulary.ids(maskedLog)) {
+                payload.addMaskedTokenIds(id);
+            }
+        }
+        return payload;
     }
 
     private boolean isPendingDelete (IngestDocument ingestDocument, Connection nc) throws Exception {
@@ -347,29 +501,183 @@ public final class OpniPreProcessor extends AbstractProcessor {
         return false;
     }
 
-    private String clusterID (IngestDocument ingestDocument) {
-        if (ingestDocument.hasField("cluster_id")) {
-            return ingestDocument.getFieldValue("cluster_id", String.class);
+    private String clusterID (DocumentFields fields) {
+        if (fields.has("cluster_id")) {
+            return fields.required("cluster_id");
         }
         return "";
     }
 
-    private boolean isOtelCollector (IngestDocument ingestDocument) {
-        if (ingestDocument.hasField("opni_collector")) {
-            return ingestDocument.getFieldValue("opni_collector", String.class) == "otel";
+    private static boolean isOtelCollector (DocumentFields fields) {
+        return fields.is("opni_collector", "otel");
+    }
+
+    private String maskLogs(DocumentFields fields, LogMasker masker, String log) {
+        MaskingLimits limits = services == null ? MaskingLimits.DEFAULT : services.maskingLimits();
+        LogMasker.Masked masked = masker.mask(log, limits);
+        if (services != null) {
+            if (limits.streams(log)) {
+                services.maskingStreamed.increment();
+            }
+            if (masked.truncated) {
+                services.maskingTruncated.increment();
+            }
         }
-        return false;
+        if (masked.degraded) {
+            // the rules ran out of time on this line, flag it for whoever reads the masked log
+            if (fields != null) {
+                fields.set("masking_degraded", true);
+            }
+            if (services != null) {
+                services.maskingBudgetExceeded.increment();
+            }
+        }
+        return masked.text;
+    }
+
+    // the node's masker follows reloads of the settings file
+    private LogMasker masker() {
+        if (pipelineMasker != null) {
+            return pipelineMasker;
+        }
+        return services == null ? masker : services.masker();
     }
 
-    private String maskLogs(String log) {
-        return masker.mask(log);
+    // the pipeline's own rules win over the node's masking profiles
+    private LogMasker masker(DocumentFields fields) {
+        if (pipelineMasker != null || services == null) {
+            return masker();
+        }
+        return services.masker(fields.string("log_type"), fields.string("kubernetes_component"));
+    }
+
+    // what the payload takes from the preprocessing of the document rather than from its fields
+    private static final class Preprocessed {
+        static final Preprocessed NONE = new Preprocessed(null, null);
+
+        // null if the document did not need the line masked
+        final String maskedLog;
+        final TemplateMiner.Match template;
+
+        Preprocessed(String maskedLog, TemplateMiner.Match template) {
+            this.maskedLog = maskedLog;
+            this.template = template;
+        }
+    }
+
+    /**
+     * What the processor adds to the document and the payload besides the preprocessing fields, and
+     * what it does with malformed documents.
+     */
+    static final class OutputOptions {
+        static final OutputOptions DEFAULT = new OutputOptions(false, null, false, false, false, false, false, null, false,
+            null, null, null, IdGenerator.TIME);
+        // fluent-bit metadata nobody queries, stripped from slim documents unless kubernetes_keep or _strip say otherwise
+        static final List<String> SLIM_KUBERNETES_STRIP = Arrays.asList("container_hash", "docker_id", "pod_id", "annotations");
+
+        // publish the masked line with the payload, and index it in targetField if set
+        final boolean maskLogs;
+        final String targetField;
+        // publish the masked line as token ids too
+        final boolean tokenIds;
+        // hashes of the masked line, in the document and the payload
+        final boolean fingerprint;
+        final boolean simHash;
+        // publish documents of the otel collector too
+        final boolean publishOtel;
+        // tag malformed documents instead of failing them, and publish them to deadLetterSubject if set
+        final boolean tolerant;
+        final String deadLetterSubject;
+        // leave empty placeholder fields out of the document
+        final boolean slim;
+        // the keys of the kubernetes object to keep, or to strip; null for all, or none
+        final Set<String> kubernetesKeep;
+        final Set<String> kubernetesStrip;
+        // names the index of a document from its log_type; null to leave _index alone
+        final IndexRouter indexRouter;
+        // names the _id of the document and the payload
+        final IdGenerator ids;
+
+        OutputOptions(boolean maskLogs, String targetField, boolean tokenIds, boolean fingerprint, boolean simHash,
+                      boolean publishOtel, boolean tolerant, String deadLetterSubject, boolean slim,
+                      Set<String> kubernetesKeep, Set<String> kubernetesStrip, IndexRouter indexRouter,
+                      IdGenerator ids) {
+            this.maskLogs = maskLogs;
+            this.targetField = targetField;
+            this.tokenIds = tokenIds;
+            this.fingerprint = fingerprint;
+            this.simHash = simHash;
+            this.publishOtel = publishOtel;
+            this.tolerant = tolerant;
+            this.deadLetterSubject = deadLetterSubject;
+            this.slim = slim;
+            this.kubernetesKeep = kubernetesKeep;
+            this.kubernetesStrip = kubernetesStrip;
+            this.indexRouter = indexRouter;
+            this.ids = ids;
+        }
+
+        static OutputOptions read(String tag, Map<String, Object> config) {
+            boolean slim = readBooleanProperty(TYPE, tag, config, "slim", false);
+            List<String> keep = readOptionalList(TYPE, tag, config, "kubernetes_keep");
+            List<String> strip = readOptionalList(TYPE, tag, config, "kubernetes_strip");
+            if (keep != null && strip != null) {
+                throw newConfigurationException(TYPE, tag, "kubernetes_keep", "cannot be set together with [kubernetes_strip]");
+            }
+            if (slim && keep == null && strip == null) {
+                strip = SLIM_KUBERNETES_STRIP;
+            }
+            String indexTemplate = readOptionalStringProperty(TYPE, tag, config, "index_template");
+            IndexRouter indexRouter = null;
+            if (indexTemplate != null) {
+                try {
+                    indexRouter = IndexRouter.compile(indexTemplate);
+                } catch (IllegalArgumentException e) {
+                    throw newConfigurationException(TYPE, tag, "index_template", e.getMessage());
+                }
+            }
+            IdGenerator ids;
+            try {
+                ids = IdGenerator.fromString(readStringProperty(TYPE, tag, config, "id_strategy", "time"));
+            } catch (IllegalArgumentException e) {
+                throw newConfigurationException(TYPE, tag, "id_strategy", e.getMessage());
+            }
+            return new OutputOptions(readBooleanProperty(TYPE, tag, config, "mask_logs", false),
+                readOptionalStringProperty(TYPE, tag, config, "target_field"),
+                readBooleanProperty(TYPE, tag, config, "token_ids", false),
+                readBooleanProperty(TYPE, tag, config, "fingerprint", false),
+                readBooleanProperty(TYPE, tag, config, "simhash", false),
+                readBooleanProperty(TYPE, tag, config, "publish_otel", false),
+                readBooleanProperty(TYPE, tag, config, "tolerant", false),
+                readOptionalStringProperty(TYPE, tag, config, "dead_letter_subject"),
+                slim,
+                keep == null ? null : new HashSet<>(keep),
+                strip == null ? null : new HashSet<>(strip),
+                indexRouter,
+                ids);
+        }
+
+        // the document's fields need the masked line before the document is indexed
+        boolean needsMaskedLogInDocument() {
+            return targetField != null || fingerprint || simHash;
+        }
+
+        boolean needsMaskedLogInPayload() {
+            return maskLogs || tokenIds || fingerprint || simHash;
+        }
     }
 
     public static final class Factory implements Processor.Factory {
         private final Environment env;
+        private final PreprocessingServices services;
 
         public Factory(Environment env) {
+            this(env, null);
+        }
+
+        Factory(Environment env, PreprocessingServices services) {
             this.env = env;
+            this.services = services;
         }
 
         @Override
@@ -377,7 +685,25 @@ public final class OpniPreProcessor extends AbstractProcessor {
                                 Map<String, Object> config) throws Exception {
             OpniPreprocessingConfig pluginConfig = new OpniPreprocessingConfig(env);
             // OpniPreprocessingConfig pluginConfig = null;
-            return new OpniPreProcessor(tag, description, pluginConfig);
+            Map<String, Object> masking = readOptionalMap(TYPE, tag, config, "masking");
+            LogMasker pipelineMasker = masking == null ? null : pipelineMasker(tag, masking, pluginConfig);
+            return new OpniPreProcessor(tag, description, pluginConfig, services, pipelineMasker, OutputOptions.read(tag, config));
+        }
+
+        private LogMasker pipelineMasker(String tag, Map<String, Object> masking, OpniPreprocessingConfig pluginConfig) {
+            String defaultEngine = services == null ? pluginConfig.getMaskingEngine() : services.masker().getEngine();
+            String engine = readStringProperty(TYPE, tag, masking, "engine", defaultEngine);
+            List<Object> builtinRules = readOptionalList(TYPE, tag, masking, "builtin_rules");
+            List<Object> extraRules = readOptionalList(TYPE, tag, masking, "extra_rules");
+            if (!masking.isEmpty()) {
+                throw newConfigurationException(TYPE, tag, "masking", "unknown options " + masking.keySet());
+            }
+            try {
+                LogMasker.MaskingRuleClass rules = OpniPreprocessingConfig.loadPipelineMaskingRules(builtinRules, extraRules);
+                return services == null ? new LogMasker(engine, rules, null) : services.pipelineMasker(engine, rules);
+            } catch (IllegalArgumentException e) {
+                throw newConfigurationException(TYPE, tag, "masking", e);
+            }
         }
     }
 }
\ No newline at end of file
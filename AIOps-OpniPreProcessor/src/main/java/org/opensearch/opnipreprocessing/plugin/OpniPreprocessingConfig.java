@@ -14,22 +14,75 @@ import org.opensearch.common.settings.SecureString;
 import org.opensearch.common.settings.Setting;
 import org.opensearch.common.settings.Setting.Property;
 import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.ByteSizeUnit;
+import org.opensearch.common.unit.ByteSizeValue;
+import org.opensearch.common.unit.TimeValue;
 import org.opensearch.env.Environment;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 
 public class OpniPreprocessingConfig {
+    static final String SETTINGS_FILE = "preprocessing/settings.yml";
+    static final String MASKING_RULES_PREFIX = "masking.rules";
+    static final String PHASE_BEFORE_SPLIT = "before_split";
+    static final String PHASE_AFTER_SPLIT = "after_split";
+
     static final Setting<String> ENDPOINT_SETTING = Setting.simpleString("nats.endpoint", Property.NodeScope);
     static final Setting<String> SEED_FILE_SETTING = Setting.simpleString("nats.seed_file", "/etc/nkey/seed", value -> {}, Property.NodeScope);
+    static final Setting<String> MASKING_ENGINE_SETTING = Setting.simpleString("masking.engine", LogMasker.ENGINE_REGEX, value -> {
+        if (!LogMasker.ENGINE_REGEX.equals(value) && !LogMasker.ENGINE_LEXER.equals(value)
+            && !LogMasker.ENGINE_AUTOMATON.equals(value)) {
+            throw new IllegalArgumentException("unknown masking engine [" + value + "]");
+        }
+    }, Property.NodeScope);
+    static final Setting<TimeValue> MASKING_TIME_BUDGET_SETTING = Setting.timeSetting("masking.time_budget",
+        TimeValue.timeValueMillis(50), TimeValue.ZERO, Property.NodeScope);
+    static final Setting<Integer> MASKING_STREAMING_MIN_LENGTH_SETTING = Setting.intSetting("masking.streaming.min_length", 65536, 0,
+        Property.NodeScope);
+    static final Setting<Integer> MASKING_STREAMING_WINDOW_SETTING = Setting.intSetting("masking.streaming.window", 16384, 256,
+        Property.NodeScope);
+    static final Setting<Integer> MASKING_MAX_OUTPUT_LENGTH_SETTING = Setting.intSetting("masking.max_output_length", 1048576, 0,
+        Property.NodeScope);
+    static final Setting<Integer> MASKING_CACHE_MAX_ENTRIES_SETTING = Setting.intSetting("masking.cache.max_entries", 10000, 0,
+        Property.NodeScope);
+    static final Setting<ByteSizeValue> MASKING_CACHE_MAX_WEIGHT_SETTING = Setting.byteSizeSetting("masking.cache.max_weight",
+        new ByteSizeValue(32, ByteSizeUnit.MB), Property.NodeScope);
+    static final Setting<Integer> CLASSIFICATION_CACHE_MAX_ENTRIES_SETTING = Setting.intSetting("classification.cache.max_entries",
+        10000, 0, Property.NodeScope);
+    static final Setting<ByteSizeValue> CLASSIFICATION_CACHE_MAX_WEIGHT_SETTING = Setting.byteSizeSetting(
+        "classification.cache.max_weight", new ByteSizeValue(8, ByteSizeUnit.MB), Property.NodeScope);
+    static final Setting<Integer> MASKING_VOCABULARY_MAX_SIZE_SETTING = Setting.intSetting("masking.vocabulary.max_size", 100000, 1,
+        Property.NodeScope);
+    static final Setting<Boolean> TEMPLATE_MINER_ENABLED_SETTING = Setting.boolSetting("template_miner.enabled", false, Property.NodeScope);
+    static final Setting<Integer> TEMPLATE_MINER_DEPTH_SETTING = Setting.intSetting("template_miner.depth", 4, 3, Property.NodeScope);
+    static final Setting<Double> TEMPLATE_MINER_SIMILARITY_SETTING = Setting.doubleSetting("template_miner.similarity_threshold", 0.4,
+        0.0, 1.0, Property.NodeScope);
+    static final Setting<Integer> TEMPLATE_MINER_MAX_CHILDREN_SETTING = Setting.intSetting("template_miner.max_children", 100, 2,
+        Property.NodeScope);
+    static final Setting<Integer> TEMPLATE_MINER_MAX_TEMPLATES_SETTING = Setting.intSetting("template_miner.max_templates", 2000, 1,
+        Property.NodeScope);
+    static final Setting<Integer> TEMPLATE_MINER_MAX_PARTITIONS_SETTING = Setting.intSetting("template_miner.max_partitions", 256, 1,
+        Property.NodeScope);
+    static final Setting<Integer> TEMPLATE_MINER_MAX_TOKENS_SETTING = Setting.intSetting("template_miner.max_tokens", 256, 2,
+        Property.NodeScope);
 
     private final String natsEndpoint;
     private final String seedFile;
+    private final String maskingEngine;
 
     public OpniPreprocessingConfig(final Environment env) {
         // In a later version of Opensearch this method is renamed configDir
         final Path configDir = env.configFile();
-        final Path settingsYaml = configDir.resolve("preprocessing/settings.yml");
+        final Path settingsYaml = configDir.resolve(SETTINGS_FILE);
 
         final Settings pluginSettings;
         try {
@@ -41,6 +94,120 @@ public class OpniPreprocessingConfig {
 
         this.natsEndpoint = ENDPOINT_SETTING.get(pluginSettings);
         this.seedFile = SEED_FILE_SETTING.get(pluginSettings);
+        this.maskingEngine = MASKING_ENGINE_SETTING.get(pluginSettings);
+    }
+
+    /**
+     * Loads the settings file for node-wide services, which start with the node and so fall back
+     * to the defaults when the file does not exist.
+     */
+    static Settings loadNodeSettings(final Environment env) {
+        final Path settingsYaml = env.configFile().resolve(SETTINGS_FILE);
+        if (!Files.exists(settingsYaml)) {
+            return Settings.EMPTY;
+        }
+        try {
+            return Settings.builder().loadFromPath(settingsYaml).build();
+        } catch (IOException e) {
+            throw new OpenSearchException("failed to load settings", e);
+        }
+    }
+
+    /**
+     * Reads the {@code masking.rules} map, or returns the built-in rules when there is none. Every
+     * rule has a {@code pattern}, a {@code mask} label (defaults to the rule name), a {@code phase},
+     * either {@value #PHASE_BEFORE_SPLIT} or {@value #PHASE_AFTER_SPLIT} (the default), and runs in
+     * ascending {@code order}, ties broken by name.
+     */
+    static LogMasker.MaskingRuleClass loadMaskingRules(final Settings settings) {
+        final Map<String, Settings> groups = settings.getGroups(MASKING_RULES_PREFIX);
+        if (groups.isEmpty()) {
+            return new LogMasker.MaskingRuleClass();
+        }
+        final List<String> names = new ArrayList<>(groups.keySet());
+        final Map<String, Integer> order = new HashMap<>();
+        for (String name : names) {
+            order.put(name, groups.get(name).getAsInt("order", 0));
+        }
+        names.sort(Comparator.comparing((String name) -> order.get(name)).thenComparing(Comparator.naturalOrder()));
+
+        final List<LogMasker.MaskingRule> rules = new ArrayList<>();
+        final List<LogMasker.MaskingRule> rulesBeforeSplit = new ArrayList<>();
+        for (String name : names) {
+            final Settings rule = groups.get(name);
+            addMaskingRule(MASKING_RULES_PREFIX + "." + name, name, rule.get("pattern"), rule.get("mask", name),
+                rule.get("phase", PHASE_AFTER_SPLIT), rules, rulesBeforeSplit);
+        }
+        return new LogMasker.MaskingRuleClass(rules, rulesBeforeSplit);
+    }
+
+    /**
+     * Builds the rules of a pipeline's {@code masking} options: the named built-in rules, all of them
+     * when {@code builtinRules} is null, followed in each phase by the {@code extraRules} of that phase
+     * in the given order. An extra rule has a {@code pattern}, a {@code mask} label and optionally a
+     * {@code phase}.
+     */
+    static LogMasker.MaskingRuleClass loadPipelineMaskingRules(final List<?> builtinRules, final List<?> extraRules) {
+        final LogMasker.MaskingRuleClass builtIn;
+        if (builtinRules == null) {
+            builtIn = new LogMasker.MaskingRuleClass();
+        } else {
+            final List<String> names = new ArrayList<>();
+            for (Object name : builtinRules) {
+                names.add(String.valueOf(name));
+            }
+            builtIn = LogMasker.MaskingRuleClass.builtIn(names);
+        }
+        final List<LogMasker.MaskingRule> rules = new ArrayList<>(builtIn.rules);
+        final List<LogMasker.MaskingRule> rulesBeforeSplit = new ArrayList<>(builtIn.rulesBeforeSplit);
+        if (extraRules != null) {
+            for (int i = 0; i < extraRules.size(); i++) {
+                final String key = "extra_rules." + i;
+                if (!(extraRules.get(i) instanceof Map)) {
+                    throw new IllegalArgumentException("[" + key + "] must be an object");
+                }
+                final Map<?, ?> rule = new HashMap<>((Map<?, ?>) extraRules.get(i));
+                final Object pattern = rule.remove("pattern");
+                final Object mask = rule.remove("mask");
+                final Object phase = rule.remove("phase");
+                if (!rule.isEmpty()) {
+                    throw new IllegalArgumentException("[" + key + "] has unknown options " + rule.keySet());
+                }
+                if (mask == null) {
+                    throw new IllegalArgumentException("[" + key + ".mask] is required");
+                }
+                addMaskingRule(key, String.valueOf(mask).toLowerCase(Locale.ROOT), pattern == null ? null : String.valueOf(pattern),
+                    String.valueOf(mask), phase == null ? PHASE_AFTER_SPLIT : String.valueOf(phase), rules, rulesBeforeSplit);
+            }
+        }
+        return new LogMasker.MaskingRuleClass(rules, rulesBeforeSplit);
+    }
+
+    private static void addMaskingRule(final String key, final String name, final String pattern, final String mask, final String phase,
+                                       final List<LogMasker.MaskingRule> rules, final List<LogMasker.MaskingRule> rulesBeforeSplit) {
+        if (pattern == null || pattern.isEmpty()) {
+            throw new IllegalArgumentException("[" + key + ".pattern] is required");
+        }
+        if (!mask.matches("[A-Za-z0-9_]+")) {
+            throw new IllegalArgumentException("[" + key + ".mask] must be a label of letters, digits and '_', got [" + mask + "]");
+        }
+        final LogMasker.MaskingRule maskingRule;
+        try {
+            maskingRule = new LogMasker.MaskingRule(name, pattern, mask);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("[" + key + ".pattern] is not a valid pattern: " + e.getDescription(), e);
+        }
+        if (maskingRule.regexPattern.matcher("").matches()) {
+            throw new IllegalArgumentException("[" + key + ".pattern] must not match the empty string");
+        }
+        if (PHASE_BEFORE_SPLIT.equals(phase)) {
+            rulesBeforeSplit.add(maskingRule);
+        } else if (PHASE_AFTER_SPLIT.equals(phase)) {
+            rules.add(maskingRule);
+        } else {
+            throw new IllegalArgumentException("[" + key + ".phase] must be [" + PHASE_BEFORE_SPLIT + "] or [" + PHASE_AFTER_SPLIT
+                + "], got [" + phase + "]");
+        }
     }
 
     public String getNatsEndpoint() {
@@ -50,4 +217,8 @@ public class OpniPreprocessingConfig {
     public String getSeedFile() {
         return seedFile;
     }
+
+    public String getMaskingEngine() {
+        return maskingEngine;
+    }
 }
@@ -7,20 +7,54 @@
  */
 package org.opensearch.opnipreprocessing.plugin;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.opensearch.OpenSearchException;
+import org.opensearch.client.Client;
+import org.opensearch.cluster.metadata.IndexNameExpressionResolver;
+import org.opensearch.cluster.node.DiscoveryNodes;
+import org.opensearch.cluster.service.ClusterService;
+import org.opensearch.common.io.stream.NamedWriteableRegistry;
+import org.opensearch.common.settings.ClusterSettings;
+import org.opensearch.common.settings.IndexScopedSettings;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.settings.SettingsFilter;
+import org.opensearch.common.util.concurrent.OpenSearchExecutors;
+import org.opensearch.common.xcontent.NamedXContentRegistry;
+import org.opensearch.common.xcontent.ToXContent;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.env.Environment;
+import org.opensearch.env.NodeEnvironment;
 import org.opensearch.ingest.Processor;
+import org.opensearch.node.Node;
+import org.opensearch.plugins.ActionPlugin;
 import org.opensearch.plugins.IngestPlugin;
 import org.opensearch.plugins.Plugin;
+import org.opensearch.repositories.RepositoriesService;
+import org.opensearch.rest.RestController;
+import org.opensearch.rest.RestHandler;
+import org.opensearch.script.ScriptService;
+import org.opensearch.threadpool.ExecutorBuilder;
+import org.opensearch.threadpool.FixedExecutorBuilder;
+import org.opensearch.threadpool.ThreadPool;
+import org.opensearch.watcher.ResourceWatcherService;
 import org.opensearch.common.SuppressForbidden;
 
 
 import java.nio.file.FileSystem;
 
 
-public class OpniPreprocessingPlugin extends Plugin implements IngestPlugin {
+public class OpniPreprocessingPlugin extends Plugin implements IngestPlugin, ActionPlugin {
+
+    static final String MASKING_THREAD_POOL = "opni_masking";
+
+    private volatile PreprocessingServices services;
 
     public OpniPreprocessingPlugin() {
 
@@ -28,8 +62,51 @@ public class OpniPreprocessingPlugin extends Plugin implements IngestPlugin {
 
     @Override
     public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        services = new PreprocessingServices(OpniPreprocessingConfig.loadNodeSettings(parameters.env),
+            Node.NODE_NAME_SETTING.get(parameters.env.settings()));
+
+        return Collections.singletonMap(OpniPreProcessor.TYPE, new OpniPreProcessor.Factory(parameters.env, services));
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry,
+                                               IndexNameExpressionResolver indexNameExpressionResolver,
+                                               Supplier<RepositoriesService> repositoriesServiceSupplier) {
+        if (services != null) {
+            services.setMaskingExecutor(threadPool.executor(MASKING_THREAD_POOL));
+            try {
+                services.watch(resourceWatcherService, environment);
+            } catch (IOException e) {
+                throw new OpenSearchException("failed to watch the preprocessing settings", e);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        // bounded, the write threads mask the lines themselves when it is full
+        int size = Math.max(1, OpenSearchExecutors.allocatedProcessors(settings) / 2);
+        return Collections.singletonList(
+            new FixedExecutorBuilder(settings, MASKING_THREAD_POOL, size, 1000, "thread_pool." + MASKING_THREAD_POOL));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(new RestOpniPreprocessingStatsAction(this::statsToXContent),
+            new RestOpniPreprocessingVocabularyAction(() -> services == null ? null : services.vocabulary),
+            new RestOpniPreprocessingTemplateAction());
+    }
 
-        return Collections.singletonMap(OpniPreProcessor.TYPE, new OpniPreProcessor.Factory(parameters.env));
+    private XContentBuilder statsToXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        PreprocessingServices current = services;
+        return current == null ? builder : current.toXContent(builder, params);
     }
 
 }
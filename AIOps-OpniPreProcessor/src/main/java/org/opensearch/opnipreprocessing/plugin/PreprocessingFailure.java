@@ -0,0 +1,137 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.Strings;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Why a malformed document is neither preprocessed nor published in tolerant mode, found by checking
+ * its fields up front rather than by catching what the preprocessing throws: a bad bulk then costs
+ * a few map lookups per document instead of an exception and a stack trace.
+ */
+final class PreprocessingFailure {
+
+    static final String REASON_FIELD = "preprocessing_failure";
+    static final String FIELD_FIELD = "preprocessing_failure_field";
+
+    // the head of the log line that goes to the dead-letter subject
+    static final int DEAD_LETTER_LOG_LENGTH = 1024;
+
+    enum Reason {
+        // a field the payload needs is missing
+        MISSING_FIELD,
+        // a field that must be a string is something else
+        INVALID_FIELD_TYPE;
+
+        final String code = name().toLowerCase(Locale.ROOT);
+    }
+
+    // top-level fields that are strings wherever the document has them
+    private static final String[] STRING_FIELDS = { "log", "message", "MESSAGE", "log_type", "agent", "opni_collector",
+        "cluster_id", "deployment", "service", "kubernetes_component", "pod_name", "namespace_name" };
+    // and those of the kubernetes object
+    private static final String[] KUBERNETES_STRING_FIELDS = { "pod_name", "namespace_name" };
+    // what the NATS payload is built from, and the placeholders among them, which slim documents may lack
+    private static final String[] PAYLOAD_FIELDS = { "cluster_id", "log", "log_type" };
+    private static final String[] PLACEHOLDER_FIELDS = { "pod_name", "namespace_name", "deployment", "service" };
+
+    final Reason reason;
+    final String field;
+
+    private PreprocessingFailure(Reason reason, String field) {
+        this.reason = reason;
+        this.field = field;
+    }
+
+    /**
+     * Returns why the document cannot be preprocessed, or null if it can.
+     */
+    static PreprocessingFailure check(DocumentFields fields) {
+        for (String field : STRING_FIELDS) {
+            Object value = fields.get(field);
+            if (value != null && !(value instanceof String)) {
+                return new PreprocessingFailure(Reason.INVALID_FIELD_TYPE, field);
+            }
+        }
+        Map<?, ?> kubernetes = fields.kubernetes();
+        if (kubernetes != null) {
+            for (String field : KUBERNETES_STRING_FIELDS) {
+                Object value = kubernetes.get(field);
+                if (value != null && !(value instanceof String)) {
+                    return new PreprocessingFailure(Reason.INVALID_FIELD_TYPE, "kubernetes." + field);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns why the preprocessed document cannot be published, or null if it can. Slim documents
+     * are published with empty values for the placeholders they lack.
+     */
+    static PreprocessingFailure checkPayload(DocumentFields fields, boolean slim) {
+        for (String field : PAYLOAD_FIELDS) {
+            if (fields.get(field) == null) {
+                return new PreprocessingFailure(Reason.MISSING_FIELD, field);
+            }
+        }
+        if (slim) {
+            return null;
+        }
+        for (String field : PLACEHOLDER_FIELDS) {
+            if (fields.get(field) == null) {
+                return new PreprocessingFailure(Reason.MISSING_FIELD, field);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tags the document with the reason and the field.
+     */
+    void tag(DocumentFields fields) {
+        fields.set(REASON_FIELD, reason.code);
+        fields.set(FIELD_FIELD, field);
+    }
+
+    /**
+     * The compact JSON form of the document for the dead-letter subject: its id, cluster and the head
+     * of its log line, with the reason.
+     */
+    byte[] deadLetter(DocumentFields fields) {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            builder.startObject();
+            builder.field("id", fields.get("_id"));
+            builder.field("reason", reason.code);
+            builder.field("field", field);
+            Object clusterId = fields.get("cluster_id");
+            builder.field("cluster_id", clusterId instanceof String ? clusterId : null);
+            Object log = fields.get("log");
+            if (log == null) {
+                log = fields.get("message");
+            }
+            if (log instanceof String) {
+                String line = (String) log;
+                builder.field("log", line.length() > DEAD_LETTER_LOG_LENGTH ? line.substring(0, DEAD_LETTER_LOG_LENGTH) : line);
+            }
+            builder.endObject();
+            return Strings.toString(builder).getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // an in-memory builder does not fail
+            throw new UncheckedIOException(e);
+        }
+    }
+}
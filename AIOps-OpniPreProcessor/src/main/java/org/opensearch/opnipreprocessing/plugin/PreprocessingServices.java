@@ -0,0 +1,304 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.settings.SettingsException;
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.env.Environment;
+import org.opensearch.watcher.FileChangesListener;
+import org.opensearch.watcher.FileWatcher;
+import org.opensearch.watcher.ResourceWatcherService;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide state shared by the processors of every pipeline, created once by the plugin.
+ */
+final class PreprocessingServices implements ToXContentFragment {
+
+    private static final Logger logger = LogManager.getLogger(PreprocessingServices.class);
+
+    // null when disabled
+    final TinyLfuCache<String, String> maskingCache;
+    final TinyLfuCache<SourceClassifier.Inputs, SourceClassifier.Classification> classificationCache;
+    final TemplateMiner templateMiner;
+    final TokenVocabulary vocabulary;
+
+    // swapped as a whole when the settings file changes; documents keep the masker they started with
+    private volatile LogMasker masker;
+    // compiled with the masker, from its rules
+    private volatile MaskingProfiles maskingProfiles = MaskingProfiles.NONE;
+    private volatile MaskingLimits maskingLimits;
+    // reloaded with the masker, but does not depend on it
+    private volatile SourceClassifier sourceClassifier = SourceClassifier.DEFAULT;
+    final LongAdder maskingBudgetExceeded = new LongAdder();
+    final LongAdder maskingStreamed = new LongAdder();
+    final LongAdder maskingTruncated = new LongAdder();
+
+    // masks the lines only the NATS payload needs; null until the thread pool is up
+    private volatile ExecutorService maskingExecutor;
+    final LongAdder maskingOffloaded = new LongAdder();
+    final LongAdder maskingCallerRuns = new LongAdder();
+    // malformed documents of tolerant processors, by reason
+    final LongAdder[] preprocessingFailures = new LongAdder[PreprocessingFailure.Reason.values().length];
+    final LongAdder deadLettered = new LongAdder();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private volatile String lastLoadFailure;
+
+    // compiled maskers of pipeline rule sets, by engine and rule fingerprint, shared by every processor
+    // with the same rules and dropped once no processor uses them any more
+    private final Map<String, WeakReference<LogMasker>> pipelineMaskers = new HashMap<>();
+    private final AtomicLong pipelineMaskerCompilations = new AtomicLong();
+    private final AtomicLong pipelineMaskerReuses = new AtomicLong();
+
+    PreprocessingServices(Settings nodeSettings) {
+        this(nodeSettings, "");
+    }
+
+    /**
+     * @param nodeName the name of the node, which the id of its token vocabulary starts with
+     */
+    PreprocessingServices(Settings nodeSettings, String nodeName) {
+        int maxEntries = OpniPreprocessingConfig.MASKING_CACHE_MAX_ENTRIES_SETTING.get(nodeSettings);
+        long maxWeight = OpniPreprocessingConfig.MASKING_CACHE_MAX_WEIGHT_SETTING.get(nodeSettings).getBytes();
+        for (int i = 0; i < preprocessingFailures.length; i++) {
+            preprocessingFailures[i] = new LongAdder();
+        }
+        this.maskingCache = maxEntries > 0 && maxWeight > 0 ? new TinyLfuCache<>(maxEntries, maxWeight, LogMasker::cacheWeight) : null;
+        maxEntries = OpniPreprocessingConfig.CLASSIFICATION_CACHE_MAX_ENTRIES_SETTING.get(nodeSettings);
+        maxWeight = OpniPreprocessingConfig.CLASSIFICATION_CACHE_MAX_WEIGHT_SETTING.get(nodeSettings).getBytes();
+        // entries of a replaced classifier are misses, keyed by the classifier, and age out
+        this.classificationCache = maxEntries > 0 && maxWeight > 0
+            ? new TinyLfuCache<>(maxEntries, maxWeight, SourceClassifier::cacheWeight) : null;
+        // the built-in labels first, so their ids stay put whatever rules the node or a pipeline uses
+        this.vocabulary = new TokenVocabulary(TokenVocabulary.newId(nodeName), TokenVocabulary.labels(new LogMasker.MaskingRuleClass()),
+            OpniPreprocessingConfig.MASKING_VOCABULARY_MAX_SIZE_SETTING.get(nodeSettings));
+        vocabulary.addLabels(MaskingBudget.LABELS);
+
+        if (!reloadMasker(nodeSettings)) {
+            // there is no last good rule set yet
+            this.masker = new LogMasker(LogMasker.ENGINE_REGEX, maskingCache);
+            this.maskingLimits = MaskingLimits.DEFAULT;
+        }
+
+        if (OpniPreprocessingConfig.TEMPLATE_MINER_ENABLED_SETTING.get(nodeSettings)) {
+            this.templateMiner = new TemplateMiner(
+                OpniPreprocessingConfig.TEMPLATE_MINER_DEPTH_SETTING.get(nodeSettings),
+                OpniPreprocessingConfig.TEMPLATE_MINER_SIMILARITY_SETTING.get(nodeSettings),
+                OpniPreprocessingConfig.TEMPLATE_MINER_MAX_CHILDREN_SETTING.get(nodeSettings),
+                OpniPreprocessingConfig.TEMPLATE_MINER_MAX_TEMPLATES_SETTING.get(nodeSettings),
+                OpniPreprocessingConfig.TEMPLATE_MINER_MAX_PARTITIONS_SETTING.get(nodeSettings),
+                OpniPreprocessingConfig.TEMPLATE_MINER_MAX_TOKENS_SETTING.get(nodeSettings));
+        } else {
+            this.templateMiner = null;
+        }
+    }
+
+    LogMasker masker() {
+        return masker;
+    }
+
+    /**
+     * Returns the masker of the masking profile for lines of {@code logType} and {@code component},
+     * or the node's masker if no profile covers them.
+     */
+    LogMasker masker(String logType, String component) {
+        return maskingProfiles.select(logType, component, masker);
+    }
+
+    ExecutorService maskingExecutor() {
+        return maskingExecutor;
+    }
+
+    void setMaskingExecutor(ExecutorService maskingExecutor) {
+        this.maskingExecutor = maskingExecutor;
+    }
+
+    SourceClassifier sourceClassifier() {
+        return sourceClassifier;
+    }
+
+    /**
+     * Returns the log_type and component of a document, from the cache when another document from
+     * the same source was classified by the current rules.
+     */
+    SourceClassifier.Classification classify(Map<String, Object> source) {
+        return sourceClassifier.classify(source, classificationCache);
+    }
+
+    /**
+     * Time, streaming and output limits on masking a line.
+     */
+    MaskingLimits maskingLimits() {
+        return maskingLimits;
+    }
+
+    /**
+     * Compiles the masking engine, rules and profiles and the classification rules of {@code settings}
+     * and swaps them in. Returns false, keeping the current ones, if any of them is invalid.
+     */
+    boolean reloadMasker(Settings settings) {
+        final LogMasker compiled;
+        final MaskingProfiles profiles;
+        final MaskingLimits limits;
+        final SourceClassifier classifier;
+        try {
+            String engine = OpniPreprocessingConfig.MASKING_ENGINE_SETTING.get(settings);
+            compiled = new LogMasker(engine, OpniPreprocessingConfig.loadMaskingRules(settings), maskingCache);
+            profiles = MaskingProfiles.load(settings, compiled, maskingCache);
+            limits = MaskingLimits.of(settings);
+            classifier = SourceClassifier.load(settings);
+        } catch (IllegalArgumentException | SettingsException e) {
+            // SettingsException is what Settings throws for a rule that is not a group or a non-int order
+            loadFailures.incrementAndGet();
+            lastLoadFailure = e.getMessage();
+            logger.warn("rejected masking or classification rules, keeping the previous ones", e);
+            return false;
+        }
+        vocabulary.addLabels(TokenVocabulary.labels(compiled.getMaskingRules()));
+        maskingProfiles = profiles;
+        masker = compiled;
+        maskingLimits = limits;
+        sourceClassifier = classifier;
+        loads.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the masker of a pipeline's own rule set, compiling it only if no other processor uses
+     * the same rules.
+     */
+    LogMasker pipelineMasker(String engine, LogMasker.MaskingRuleClass rules) {
+        String key = engine + "/" + Long.toHexString(rules.fingerprint());
+        synchronized (pipelineMaskers) {
+            WeakReference<LogMasker> shared = pipelineMaskers.get(key);
+            LogMasker masker = shared == null ? null : shared.get();
+            if (masker != null && masker.getMaskingRules().sameRules(rules)) {
+                pipelineMaskerReuses.incrementAndGet();
+                return masker;
+            }
+            LogMasker compiled = new LogMasker(engine, rules, maskingCache);
+            vocabulary.addLabels(TokenVocabulary.labels(rules));
+            pipelineMaskerCompilations.incrementAndGet();
+            pipelineMaskers.values().removeIf(reference -> reference.get() == null);
+            if (masker == null) {
+                pipelineMaskers.put(key, new WeakReference<>(compiled));
+            }
+            return compiled;
+        }
+    }
+
+    int pipelineMaskers() {
+        synchronized (pipelineMaskers) {
+            pipelineMaskers.values().removeIf(reference -> reference.get() == null);
+            return pipelineMaskers.size();
+        }
+    }
+
+    /**
+     * Recompiles the masker whenever the settings file is created or changes.
+     */
+    void watch(ResourceWatcherService resourceWatcherService, Environment env) throws IOException {
+        FileWatcher watcher = new FileWatcher(env.configFile().resolve(OpniPreprocessingConfig.SETTINGS_FILE));
+        watcher.addListener(new FileChangesListener() {
+            @Override
+            public void onFileCreated(Path file) {
+                onFileChanged(file);
+            }
+
+            @Override
+            public void onFileChanged(Path file) {
+                Settings settings;
+                try {
+                    settings = OpniPreprocessingConfig.loadNodeSettings(env);
+                } catch (RuntimeException e) {
+                    loadFailures.incrementAndGet();
+                    lastLoadFailure = e.getMessage();
+                    logger.warn("failed to read [" + file + "], keeping the previous masking rules", e);
+                    return;
+                }
+                if (reloadMasker(settings)) {
+                    logger.info("reloaded masking rules from [{}]", file);
+                }
+            }
+        });
+        resourceWatcherService.add(watcher, ResourceWatcherService.Frequency.HIGH);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        LogMasker current = masker;
+        builder.startObject("masking");
+        builder.field("engine", current.getEngine());
+        builder.field("rules_before_split", current.getMaskingRules().rulesBeforeSplit.size());
+        builder.field("rules", current.getMaskingRules().rules.size());
+        builder.field("fingerprint", Long.toHexString(current.getMaskingRules().fingerprint()));
+        builder.field("loads", loads.get());
+        builder.field("load_failures", loadFailures.get());
+        builder.field("last_load_failure", lastLoadFailure);
+        maskingLimits.toXContent(builder, params);
+        builder.field("time_budget_exceeded", maskingBudgetExceeded.sum());
+        builder.field("streamed", maskingStreamed.sum());
+        builder.field("truncated", maskingTruncated.sum());
+        builder.field("offloaded", maskingOffloaded.sum());
+        builder.field("caller_runs", maskingCallerRuns.sum());
+        builder.startArray("rule_stats");
+        for (RuleStats stats : current.ruleStats()) {
+            stats.toXContent(builder, params);
+        }
+        builder.endArray();
+        maskingProfiles.toXContent(builder, params);
+        builder.field("pipeline_rule_sets", pipelineMaskers());
+        builder.field("pipeline_rule_set_compilations", pipelineMaskerCompilations.get());
+        builder.field("pipeline_rule_set_reuses", pipelineMaskerReuses.get());
+        builder.endObject();
+        builder.startObject("masking_cache");
+        builder.field("enabled", maskingCache != null);
+        if (maskingCache != null) {
+            maskingCache.toXContent(builder, params);
+        }
+        builder.endObject();
+        builder.startObject("failures");
+        for (PreprocessingFailure.Reason reason : PreprocessingFailure.Reason.values()) {
+            builder.field(reason.code, preprocessingFailures[reason.ordinal()].sum());
+        }
+        builder.field("dead_lettered", deadLettered.sum());
+        builder.endObject();
+        builder.startObject("classification");
+        sourceClassifier.toXContent(builder, params);
+        builder.startObject("cache");
+        builder.field("enabled", classificationCache != null);
+        if (classificationCache != null) {
+            classificationCache.toXContent(builder, params);
+        }
+        builder.endObject();
+        builder.endObject();
+        builder.startObject("vocabulary");
+        vocabulary.toXContent(builder, params);
+        builder.endObject();
+        builder.startObject("template_miner");
+        builder.field("enabled", templateMiner != null);
+        if (templateMiner != null) {
+            templateMiner.toXContent(builder, params);
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.action.ActionListener;
+import org.opensearch.action.admin.indices.template.put.PutComponentTemplateAction;
+import org.opensearch.action.admin.indices.template.put.PutComposableIndexTemplateAction;
+import org.opensearch.client.node.NodeClient;
+import org.opensearch.cluster.metadata.ComposableIndexTemplate;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.rest.BaseRestHandler;
+import org.opensearch.rest.BytesRestResponse;
+import org.opensearch.rest.RestChannel;
+import org.opensearch.rest.RestRequest;
+import org.opensearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.opensearch.rest.RestRequest.Method.GET;
+import static org.opensearch.rest.RestRequest.Method.PUT;
+
+/**
+ * Installs the component template with the mappings of the preprocessed documents and an index
+ * template composed of it for the {@code index_patterns}, or shows them on GET.
+ */
+public class RestOpniPreprocessingTemplateAction extends BaseRestHandler {
+
+    static final String PATH = "/_plugins/_opni/preprocessing/template";
+    static final String[] DEFAULT_INDEX_PATTERNS = { "logs*" };
+    static final long DEFAULT_PRIORITY = 100;
+
+    @Override
+    public String getName() {
+        return "opni_preprocessing_template_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return Arrays.asList(new Route(GET, PATH), new Route(PUT, PATH));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        List<String> indexPatterns = Arrays.asList(request.paramAsStringArray("index_patterns", DEFAULT_INDEX_PATTERNS));
+        long priority = request.paramAsLong("priority", DEFAULT_PRIORITY);
+        String pipeline = request.param("pipeline");
+        String timestampField = request.paramAsBoolean("data_stream", false) ? request.param("timestamp_field", "ingest_at") : null;
+        ComposableIndexTemplate indexTemplate = OpniIndexTemplates.indexTemplate(indexPatterns, priority, pipeline, timestampField);
+        if (request.method() == GET) {
+            return channel -> {
+                XContentBuilder builder = channel.newBuilder();
+                builder.startObject();
+                builder.field(OpniIndexTemplates.COMPONENT_TEMPLATE, OpniIndexTemplates.componentTemplate());
+                builder.field(OpniIndexTemplates.INDEX_TEMPLATE, indexTemplate);
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            };
+        }
+        // the index template needs its component template in the cluster state first
+        PutComponentTemplateAction.Request component = new PutComponentTemplateAction.Request(OpniIndexTemplates.COMPONENT_TEMPLATE)
+            .componentTemplate(OpniIndexTemplates.componentTemplate())
+            .cause("opni preprocessing mappings");
+        PutComposableIndexTemplateAction.Request index = new PutComposableIndexTemplateAction.Request(OpniIndexTemplates.INDEX_TEMPLATE)
+            .indexTemplate(indexTemplate)
+            .cause("opni preprocessing mappings");
+        return channel -> client.execute(PutComponentTemplateAction.INSTANCE, component, ActionListener.wrap(
+            componentResponse -> client.execute(PutComposableIndexTemplateAction.INSTANCE, index, ActionListener.wrap(
+                indexResponse -> respond(channel, componentResponse.isAcknowledged() && indexResponse.isAcknowledged()),
+                e -> fail(channel, e))),
+            e -> fail(channel, e)));
+    }
+
+    private static void respond(RestChannel channel, boolean acknowledged) throws IOException {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("acknowledged", acknowledged);
+        builder.field("component_template", OpniIndexTemplates.COMPONENT_TEMPLATE);
+        builder.field("index_template", OpniIndexTemplates.INDEX_TEMPLATE);
+        builder.endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+    }
+
+    private static void fail(RestChannel channel, Exception e) {
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, e));
+        } catch (IOException inner) {
+            inner.addSuppressed(e);
+            channel.sendResponse(new BytesRestResponse(RestStatus.INTERNAL_SERVER_ERROR, inner.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.client.node.NodeClient;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.rest.BaseRestHandler;
+import org.opensearch.rest.BytesRestResponse;
+import org.opensearch.rest.RestRequest;
+import org.opensearch.rest.RestStatus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.opensearch.rest.RestRequest.Method.GET;
+
+/**
+ * Lists the token vocabulary of the node that receives the request, in id order from the
+ * {@code from} id on, so consumers of {@code masked_token_ids} can fetch only the new tokens, with
+ * the id of the vocabulary, which payloads carry as {@code vocabulary_id}.
+ */
+public class RestOpniPreprocessingVocabularyAction extends BaseRestHandler {
+
+    static final String PATH = "/_plugins/_opni/preprocessing/vocabulary";
+
+    private final Supplier<TokenVocabulary> vocabulary;
+
+    RestOpniPreprocessingVocabularyAction(Supplier<TokenVocabulary> vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    @Override
+    public String getName() {
+        return "opni_preprocessing_vocabulary_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return Collections.singletonList(new Route(GET, PATH));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        int from = request.paramAsInt("from", 0);
+        return channel -> {
+            TokenVocabulary current = vocabulary.get();
+            List<String> tokens = current == null ? Collections.emptyList() : current.tokens(from);
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("vocabulary_id", current == null ? null : current.id);
+            builder.field("from", from);
+            builder.field("tokens", tokens);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
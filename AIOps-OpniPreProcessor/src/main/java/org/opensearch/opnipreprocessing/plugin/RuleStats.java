@@ -0,0 +1,170 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.xcontent.ToXContentObject;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a rule of a masker runs on a line, and counts how often it ran, matched and was
+ * skipped, and what it costs.
+ *
+ * A rule is skipped when the line lacks one of its character classes (see {@link LinePrescan}) or
+ * its required literal. The literal check scans the line, so it is switched off for rules whose
+ * literal is nearly always there; one line in {@value #SAMPLE_EVERY} still gets the check, which
+ * keeps the skip rate current and switches it back on when it pays off again. The same sampled
+ * lines are timed for the cost estimate.
+ *
+ * The rules keep their order: each one masks the output of the one before, so reordering them
+ * would change the masked lines, and every rule that may match runs anyway.
+ */
+final class RuleStats implements ToXContentObject {
+
+    private static final int SAMPLE_EVERY = 64;
+    // sampled literal checks per decision, and the skip rate below which the check is not worth it
+    private static final int DECIDE_EVERY = 256;
+    private static final int MIN_SKIP_RATE_INVERSE = 32;
+
+    final LogMasker.MaskingRule rule;
+    private final String phase;
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder skippedByClass = new LongAdder();
+    private final LongAdder skippedByLiteral = new LongAdder();
+    private final LongAdder sampledRuns = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+
+    private volatile boolean literalCheck = true;
+    // guarded by this
+    private int sampledChecks, sampledSkips;
+
+    RuleStats(LogMasker.MaskingRule rule, String phase) {
+        this.rule = rule;
+        this.phase = phase;
+    }
+
+    static RuleStats[] of(List<LogMasker.MaskingRule> rules, String phase) {
+        RuleStats[] stats = new RuleStats[rules.size()];
+        for (int r = 0; r < stats.length; r++) {
+            stats[r] = new RuleStats(rules.get(r), phase);
+        }
+        return stats;
+    }
+
+    /**
+     * Whether to sample the current line.
+     */
+    static boolean sample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0;
+    }
+
+    /**
+     * Returns whether the rule needs to run on {@code line}, which contains the classes {@code present}.
+     */
+    boolean shouldRun(long present, String line, boolean sampled) {
+        if (!rule.mayMatch(present)) {
+            skippedByClass.increment();
+            return false;
+        }
+        if (rule.literal != null && (literalCheck || sampled) && !literal(line.contains(rule.literal), sampled)) {
+            return false;
+        }
+        runs.increment();
+        return true;
+    }
+
+    /**
+     * Returns whether the rule needs to run on {@code s[0, n)}, which contains the classes {@code present}.
+     */
+    boolean shouldRun(long present, char[] s, int n, boolean sampled) {
+        if (!rule.mayMatch(present)) {
+            skippedByClass.increment();
+            return false;
+        }
+        if (rule.literal != null && (literalCheck || sampled) && !literal(contains(s, n, rule.literal), sampled)) {
+            return false;
+        }
+        runs.increment();
+        return true;
+    }
+
+    private boolean literal(boolean found, boolean sampled) {
+        if (!found) {
+            skippedByLiteral.increment();
+        }
+        if (sampled) {
+            synchronized (this) {
+                sampledChecks++;
+                sampledSkips += found ? 0 : 1;
+                if (sampledChecks == DECIDE_EVERY) {
+                    literalCheck = sampledSkips * MIN_SKIP_RATE_INVERSE >= sampledChecks;
+                    // halve, so the decision follows changes in the traffic
+                    sampledChecks /= 2;
+                    sampledSkips /= 2;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean contains(char[] s, int n, String literal) {
+        int len = literal.length();
+        next:
+        for (int i = 0; i <= n - len; i++) {
+            for (int k = 0; k < len; k++) {
+                if (s[i + k] != literal.charAt(k)) {
+                    continue next;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a run of the rule.
+     *
+     * @param nanos the time it took on a sampled line, or -1
+     */
+    void ran(boolean hit, long nanos) {
+        if (hit) {
+            hits.increment();
+        }
+        if (nanos >= 0) {
+            sampledRuns.increment();
+            sampledNanos.add(nanos);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        long runs = this.runs.sum();
+        long samples = sampledRuns.sum();
+        long avgNanos = samples == 0 ? 0 : sampledNanos.sum() / samples;
+        builder.startObject();
+        builder.field("name", rule.name);
+        builder.field("mask", rule.maskWith);
+        builder.field("phase", phase);
+        builder.field("literal", rule.literal);
+        builder.field("literal_check", rule.literal != null && literalCheck);
+        builder.field("runs", runs);
+        builder.field("hits", hits.sum());
+        builder.field("skipped_by_class", skippedByClass.sum());
+        builder.field("skipped_by_literal", skippedByLiteral.sum());
+        builder.field("avg_run_nanos", avgNanos);
+        builder.field("estimated_time_in_millis", avgNanos * runs / 1_000_000);
+        builder.endObject();
+        return builder;
+    }
+}
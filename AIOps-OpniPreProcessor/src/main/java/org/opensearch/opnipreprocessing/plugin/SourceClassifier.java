@@ -0,0 +1,523 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Derives a document's {@code log_type} and {@code kubernetes_component} from the fields that tell
+ * where its line comes from: the log file, the systemd unit, the container image.
+ *
+ * Every rule matches one field against strings it must contain, start with or equal, optionally only
+ * when another field has a given value or when some fields are absent, and sets the log_type, the
+ * component or both. Each of the two comes from the first rule, in ascending {@code order}, that
+ * matches and sets it. The strings of all the rules on a field are compiled into one
+ * {@link AhoCorasick} automaton, so a document is classified with one pass over each field whatever
+ * the number of rules, and without allocating.
+ */
+final class SourceClassifier implements ToXContentFragment {
+
+    static final String PREFIX = "classification.rules";
+
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("field", "contains", "prefix", "glob",
+        "if_field", "if_equals", "unless_fields", "log_type", "component", "component_from_value", "order"));
+
+    private static final int CONTAINS = 0;
+    private static final int PREFIX_MATCH = 1;
+    private static final int SUFFIX_MATCH = 2;
+    private static final int EQUALS = 3;
+
+    // the value of a field the document does not have, unlike a null one
+    private static final Object MISSING = new Object();
+    // the value of a field that is not a string, which rules treat alike
+    private static final Object NOT_STRING = new Object();
+
+    static final String DEFAULT_LOG_TYPE = "workload";
+    static final String DEFAULT_COMPONENT = "";
+
+    // the rules of the original preprocessor: the file of RKE and K3s control plane logs, the systemd
+    // unit of journald ones, and the image or the labels of containers, which only count for lines
+    // from neither
+    static final Settings BUILT_IN_RULES = Settings.builder()
+        .put("rke.field", "filename")
+        .putList("rke.contains", "rke/log/etcd", "rke/log/kubelet", "/rke/log/kube-apiserver",
+            "rke/log/kube-controller-manager", "rke/log/kube-proxy", "rke/log/kube-scheduler")
+        .put("rke.log_type", "controlplane")
+        .put("rke.component_from_value", "_")
+        .put("rke.order", 0)
+        .put("k3s.field", "filename")
+        .put("k3s.contains", "k3s.log")
+        .put("k3s.log_type", "controlplane")
+        .put("k3s.component", "k3s")
+        .put("k3s.order", 1)
+        .put("rke2_kubelet.field", "filename")
+        .put("rke2_kubelet.contains", "rke2/agent/logs/kubelet")
+        .put("rke2_kubelet.log_type", "controlplane")
+        .put("rke2_kubelet.component", "kubelet")
+        .put("rke2_kubelet.order", 2)
+        .put("systemd.field", "COMM")
+        .putList("systemd.contains", "kubelet", "k3s-agent", "k3s-server", "rke2-agent", "rke2-server")
+        .putList("systemd.unless_fields", "filename")
+        .put("systemd.log_type", "controlplane")
+        .put("systemd.component_from_value", "-")
+        .put("systemd.order", 3)
+        .put("longhorn.field", "container_image")
+        .put("longhorn.contains", "longhornio")
+        .putList("longhorn.unless_fields", "filename", "COMM")
+        .put("longhorn.log_type", "longhorn")
+        .put("longhorn.order", 4)
+        .put("rancher.field", "container_image")
+        .put("rancher.contains", "rancher/rancher")
+        .put("rancher.if_field", "deployment")
+        .put("rancher.if_equals", "rancher")
+        .putList("rancher.unless_fields", "filename", "COMM")
+        .put("rancher.log_type", "rancher")
+        .put("rancher.order", 5)
+        .put("kubernetes_longhorn.field", "kubernetes.container_image")
+        .put("kubernetes_longhorn.contains", "longhornio")
+        .putList("kubernetes_longhorn.unless_fields", "filename", "COMM")
+        .put("kubernetes_longhorn.log_type", "longhorn")
+        .put("kubernetes_longhorn.order", 6)
+        .put("kubernetes_rancher.field", "kubernetes.container_image")
+        .put("kubernetes_rancher.contains", "rancher/rancher")
+        .put("kubernetes_rancher.if_field", "deployment")
+        .put("kubernetes_rancher.if_equals", "rancher")
+        .putList("kubernetes_rancher.unless_fields", "filename", "COMM")
+        .put("kubernetes_rancher.log_type", "rancher")
+        .put("kubernetes_rancher.order", 7)
+        .put("control_plane_tier.field", "kubernetes.labels.tier")
+        .put("control_plane_tier.contains", "control-plane")
+        .putList("control_plane_tier.unless_fields", "filename", "COMM")
+        .put("control_plane_tier.log_type", "controlplane")
+        .put("control_plane_tier.component", "control-plane")
+        .put("control_plane_tier.order", 8)
+        .build();
+
+    static final SourceClassifier DEFAULT = load(Settings.EMPTY);
+
+    private final Rule[] rules;
+    private final Field[] fields;
+    // every field a rule reads, so their values decide the classification
+    private final String[][] inputs;
+
+    private static final class Rule {
+        final String name;
+        final String[] field;
+        final String[] ifField;
+        final String ifEquals;
+        final String[][] unlessFields;
+        final String logType;
+        final String component;
+        // cut the component out of the field's value, up to this delimiter; 0 for none
+        final char componentDelimiter;
+        final LongAdder matches = new LongAdder();
+
+        Rule(String name, String[] field, String[] ifField, String ifEquals, String[][] unlessFields, String logType,
+             String component, char componentDelimiter) {
+            this.name = name;
+            this.field = field;
+            this.ifField = ifField;
+            this.ifEquals = ifEquals;
+            this.unlessFields = unlessFields;
+            this.logType = logType;
+            this.component = component;
+            this.componentDelimiter = componentDelimiter;
+        }
+
+        boolean setsComponent() {
+            return component != null || componentDelimiter != 0;
+        }
+    }
+
+    private static final class Field {
+        final String[] path;
+        final AhoCorasick automaton;
+        // by pattern: the rule and how the pattern is anchored
+        final int[] patternRules;
+        final int[] patternKinds;
+        // rules that match any string value, from a "*" glob
+        final int[] anyRules;
+
+        Field(String[] path, AhoCorasick automaton, int[] patternRules, int[] patternKinds, int[] anyRules) {
+            this.path = path;
+            this.automaton = automaton;
+            this.patternRules = patternRules;
+            this.patternKinds = patternKinds;
+            this.anyRules = anyRules;
+        }
+    }
+
+    /**
+     * The values of the fields the rules read, a cache key.
+     */
+    static final class Inputs {
+        final Object[] values;
+        final long hash;
+
+        private Inputs(Object[] values, long hash) {
+            this.values = values;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Inputs && hash == ((Inputs) o).hash && Arrays.equals(values, ((Inputs) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+    }
+
+    /**
+     * A document's log_type and component.
+     */
+    static final class Classification {
+        final String logType;
+        final String component;
+
+        Classification(String logType, String component) {
+            this.logType = logType;
+            this.component = component;
+        }
+    }
+
+    private SourceClassifier(Rule[] rules, Field[] fields) {
+        this.rules = rules;
+        this.fields = fields;
+        Map<String, String[]> inputs = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            inputs.putIfAbsent(String.join(".", rule.field), rule.field);
+            if (rule.ifField != null) {
+                inputs.putIfAbsent(String.join(".", rule.ifField), rule.ifField);
+            }
+            for (String[] unless : rule.unlessFields) {
+                inputs.putIfAbsent(String.join(".", unless), unless);
+            }
+        }
+        this.inputs = inputs.values().toArray(new String[0][]);
+    }
+
+    /**
+     * Reads {@code classification.rules}, or the {@link #BUILT_IN_RULES} when there is none. Every
+     * rule has a {@code field}, a dotted path into the document, at least one of the {@code contains},
+     * {@code prefix} and {@code glob} lists, where a glob may only have a {@code *} at its start, its
+     * end or both, and a {@code log_type}, a {@code component} or both. {@code component_from_value}
+     * takes the component from the field's value instead: its last path segment, up to the given
+     * delimiter. {@code if_field} and {@code if_equals} limit a rule to documents where that field has
+     * that value, {@code unless_fields} to documents without any of those fields.
+     */
+    static SourceClassifier load(Settings settings) {
+        Map<String, Settings> groups = settings.getGroups(PREFIX);
+        if (groups.isEmpty()) {
+            groups = BUILT_IN_RULES.getAsGroups();
+        }
+        List<String> names = new ArrayList<>(groups.keySet());
+        Map<String, Integer> order = new HashMap<>();
+        for (String name : names) {
+            order.put(name, groups.get(name).getAsInt("order", 0));
+        }
+        names.sort(Comparator.comparing((String name) -> order.get(name)).thenComparing(Comparator.naturalOrder()));
+
+        Rule[] rules = new Rule[names.size()];
+        // by field path: the patterns, their rules and kinds, and the rules matching any value
+        Map<String, List<String>> patterns = new LinkedHashMap<>();
+        Map<String, List<int[]>> patternRules = new HashMap<>();
+        Map<String, List<Integer>> anyRules = new HashMap<>();
+        for (int r = 0; r < rules.length; r++) {
+            String name = names.get(r);
+            String key = PREFIX + "." + name;
+            Settings rule = groups.get(name);
+            Set<String> unknown = new HashSet<>(rule.keySet());
+            unknown.removeAll(OPTIONS);
+            if (!unknown.isEmpty()) {
+                throw new IllegalArgumentException("[" + key + "] has unknown options " + unknown);
+            }
+            String field = rule.get("field");
+            if (field == null || field.isEmpty()) {
+                throw new IllegalArgumentException("[" + key + ".field] is required");
+            }
+            String logType = rule.get("log_type");
+            String component = rule.get("component");
+            String fromValue = rule.get("component_from_value");
+            if (component != null && fromValue != null) {
+                throw new IllegalArgumentException("[" + key + "] has both [component] and [component_from_value]");
+            }
+            if (fromValue != null && fromValue.length() != 1) {
+                throw new IllegalArgumentException("[" + key + ".component_from_value] must be a single character, got ["
+                    + fromValue + "]");
+            }
+            if (logType == null && component == null && fromValue == null) {
+                throw new IllegalArgumentException("[" + key + "] sets neither [log_type] nor [component]");
+            }
+            String ifField = rule.get("if_field");
+            String ifEquals = rule.get("if_equals");
+            if ((ifField == null) != (ifEquals == null)) {
+                throw new IllegalArgumentException("[" + key + "] needs both [if_field] and [if_equals]");
+            }
+            List<String> unlessFields = rule.getAsList("unless_fields");
+            String[][] unlessPaths = new String[unlessFields.size()][];
+            for (int i = 0; i < unlessPaths.length; i++) {
+                unlessPaths[i] = path(unlessFields.get(i));
+            }
+            rules[r] = new Rule(name, path(field), ifField == null ? null : path(ifField), ifEquals, unlessPaths, logType,
+                component, fromValue == null ? 0 : fromValue.charAt(0));
+
+            List<String> fieldPatterns = patterns.computeIfAbsent(field, f -> new ArrayList<>());
+            List<int[]> fieldRules = patternRules.computeIfAbsent(field, f -> new ArrayList<>());
+            List<String> containsList = rule.getAsList("contains");
+            List<String> prefixList = rule.getAsList("prefix");
+            List<String> globList = rule.getAsList("glob");
+            if (containsList.isEmpty() && prefixList.isEmpty() && globList.isEmpty()) {
+                throw new IllegalArgumentException("[" + key + "] needs one of [contains], [prefix] or [glob]");
+            }
+            for (String contains : containsList) {
+                addPattern(key + ".contains", contains, r, CONTAINS, fieldPatterns, fieldRules);
+            }
+            for (String prefix : prefixList) {
+                addPattern(key + ".prefix", prefix, r, PREFIX_MATCH, fieldPatterns, fieldRules);
+            }
+            for (String glob : globList) {
+                boolean leading = glob.startsWith("*");
+                boolean trailing = glob.length() > 1 && glob.endsWith("*");
+                String literal = glob.substring(leading ? 1 : 0, glob.length() - (trailing ? 1 : 0));
+                if (literal.indexOf('*') >= 0) {
+                    throw new IllegalArgumentException("[" + key + ".glob] may only have a [*] at its start or end, got ["
+                        + glob + "]");
+                }
+                if (literal.isEmpty()) {
+                    anyRules.computeIfAbsent(field, f -> new ArrayList<>()).add(r);
+                    continue;
+                }
+                int kind = leading ? (trailing ? CONTAINS : SUFFIX_MATCH) : (trailing ? PREFIX_MATCH : EQUALS);
+                addPattern(key + ".glob", literal, r, kind, fieldPatterns, fieldRules);
+            }
+        }
+
+        List<Field> fields = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : patterns.entrySet()) {
+            List<int[]> fieldRules = patternRules.get(entry.getKey());
+            int[] ruleOf = new int[fieldRules.size()];
+            int[] kindOf = new int[fieldRules.size()];
+            for (int i = 0; i < ruleOf.length; i++) {
+                ruleOf[i] = fieldRules.get(i)[0];
+                kindOf[i] = fieldRules.get(i)[1];
+            }
+            int[] any = anyRules.getOrDefault(entry.getKey(), new ArrayList<>()).stream().mapToInt(Integer::intValue).toArray();
+            fields.add(new Field(path(entry.getKey()), new AhoCorasick(entry.getValue()), ruleOf, kindOf, any));
+        }
+        return new SourceClassifier(rules, fields.toArray(new Field[0]));
+    }
+
+    private static void addPattern(String key, String pattern, int rule, int kind, List<String> patterns, List<int[]> rules) {
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("[" + key + "] has an empty string");
+        }
+        patterns.add(pattern);
+        rules.add(new int[] { rule, kind });
+    }
+
+    private static String[] path(String field) {
+        return field.split("\\.");
+    }
+
+    /**
+     * Returns the value at {@code path} in {@code source}, or null if it is missing or not a string.
+     */
+    private static String stringValue(Map<String, Object> source, String[] path) {
+        Object value = value(source, path);
+        return value instanceof String ? (String) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object value(Map<String, Object> source, String[] path) {
+        Map<String, Object> map = source;
+        for (int i = 0; i < path.length - 1; i++) {
+            Object next = map.get(path[i]);
+            if (!(next instanceof Map)) {
+                return MISSING;
+            }
+            map = (Map<String, Object>) next;
+        }
+        String last = path[path.length - 1];
+        Object value = map.get(last);
+        return value == null && !map.containsKey(last) ? MISSING : value;
+    }
+
+    /**
+     * Classifies a document: returns the index of the rule that sets its log_type in the upper half,
+     * that of the rule that sets its component in the lower half, -1 for none. Read them with
+     * {@link #logType} and {@link #component}.
+     */
+    long classify(Map<String, Object> source) {
+        int logTypeRule = Integer.MAX_VALUE;
+        int componentRule = Integer.MAX_VALUE;
+        for (Field field : fields) {
+            String value = stringValue(source, field.path);
+            if (value == null) {
+                continue;
+            }
+            for (int r : field.anyRules) {
+                if (r < logTypeRule || r < componentRule) {
+                    if (applies(rules[r], source)) {
+                        logTypeRule = rules[r].logType != null ? Math.min(logTypeRule, r) : logTypeRule;
+                        componentRule = rules[r].setsComponent() ? Math.min(componentRule, r) : componentRule;
+                    }
+                }
+            }
+            AhoCorasick automaton = field.automaton;
+            for (int i = 0, state = 0, n = value.length(); i < n; i++) {
+                state = automaton.next(state, value.charAt(i));
+                for (int pattern : automaton.outputs(state)) {
+                    int r = field.patternRules[pattern];
+                    if (r >= logTypeRule && r >= componentRule) {
+                        continue;
+                    }
+                    int kind = field.patternKinds[pattern];
+                    int start = i + 1 - automaton.length(pattern);
+                    if ((kind == PREFIX_MATCH || kind == EQUALS) && start != 0
+                        || (kind == SUFFIX_MATCH || kind == EQUALS) && i != n - 1) {
+                        continue;
+                    }
+                    if (applies(rules[r], source)) {
+                        logTypeRule = rules[r].logType != null ? Math.min(logTypeRule, r) : logTypeRule;
+                        componentRule = rules[r].setsComponent() ? Math.min(componentRule, r) : componentRule;
+                    }
+                }
+            }
+        }
+        if (logTypeRule == Integer.MAX_VALUE) {
+            logTypeRule = -1;
+        } else {
+            rules[logTypeRule].matches.increment();
+        }
+        if (componentRule == Integer.MAX_VALUE) {
+            componentRule = -1;
+        } else if (componentRule != logTypeRule) {
+            rules[componentRule].matches.increment();
+        }
+        return ((long) logTypeRule << 32) | (componentRule & 0xFFFFFFFFL);
+    }
+
+    private static boolean applies(Rule rule, Map<String, Object> source) {
+        if (rule.ifField != null && !rule.ifEquals.equals(value(source, rule.ifField))) {
+            return false;
+        }
+        for (String[] unless : rule.unlessFields) {
+            if (value(source, unless) != MISSING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the log_type {@code match} sets, or {@code fallback}.
+     */
+    String logType(long match, String fallback) {
+        int r = (int) (match >> 32);
+        return r < 0 ? fallback : rules[r].logType;
+    }
+
+    /**
+     * Returns the component {@code match} sets for {@code source}, or {@code fallback}.
+     */
+    String component(long match, Map<String, Object> source, String fallback) {
+        int r = (int) match;
+        if (r < 0) {
+            return fallback;
+        }
+        Rule rule = rules[r];
+        if (rule.component != null) {
+            return rule.component;
+        }
+        String value = stringValue(source, rule.field);
+        int start = value.lastIndexOf('/') + 1;
+        int end = value.indexOf(rule.componentDelimiter, start);
+        return value.substring(start, end < 0 ? value.length() : end);
+    }
+
+    /**
+     * Classifies a document, or returns the classification cached for a document with the same values
+     * in the fields the rules read: documents from one file or container share the result of the first.
+     *
+     * @param cache null to always classify
+     */
+    Classification classify(Map<String, Object> source, TinyLfuCache<Inputs, Classification> cache) {
+        if (cache == null) {
+            return classification(source);
+        }
+        Object[] values = new Object[inputs.length];
+        long hash = 0;
+        for (int i = 0; i < values.length; i++) {
+            Object value = value(source, inputs[i]);
+            if (value instanceof String) {
+                hash = Hash64.hash((String) value, hash);
+            } else {
+                value = value == MISSING ? MISSING : NOT_STRING;
+                hash = Hash64.mix(hash + (value == MISSING ? 1 : 2));
+            }
+            values[i] = value;
+        }
+        Inputs key = new Inputs(values, hash);
+        Classification classification = cache.get(this, hash, key);
+        if (classification == null) {
+            classification = classification(source);
+            cache.put(this, hash, key, classification);
+        }
+        return classification;
+    }
+
+    private Classification classification(Map<String, Object> source) {
+        long match = classify(source);
+        return new Classification(logType(match, DEFAULT_LOG_TYPE), component(match, source, DEFAULT_COMPONENT));
+    }
+
+    static long cacheWeight(Inputs key, Classification classification) {
+        long weight = 96 + 8L * key.values.length + 2L * classification.component.length();
+        for (Object value : key.values) {
+            if (value instanceof String) {
+                weight += 40 + 2L * ((String) value).length();
+            }
+        }
+        return weight;
+    }
+
+    int size() {
+        return rules.length;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("rules");
+        for (Rule rule : rules) {
+            builder.startObject();
+            builder.field("name", rule.name);
+            builder.field("field", String.join(".", rule.field));
+            builder.field("matches", rule.matches.sum());
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Online log template miner in the style of Drain (He et al., ICWS 2017).
+ *
+ * Masked lines are routed through a fixed-depth tree, first by token count and then by their
+ * leading {@code depth - 3} tokens (the root, count and leaf levels make up the rest, as in
+ * Drain3), to a short list of templates; the line joins the most similar template if at
+ * least {@code similarityThreshold} of its tokens agree with it, and the tokens that differ become
+ * {@code <*>}. Otherwise it starts a new template. Templates keep the id they were created with.
+ *
+ * Every cluster_id has its own tree. Both the number of trees and the number of templates per
+ * tree are bounded; the least recently used are dropped first.
+ */
+final class TemplateMiner implements ToXContentFragment {
+
+    static final String WILDCARD = "<*>";
+
+    private final int depth;
+    private final double similarityThreshold;
+    private final int maxChildren;
+    private final int maxTemplates;
+    private final int maxPartitions;
+    private final int maxTokens;
+
+    private final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evictedTemplates = new LongAdder();
+    private final LongAdder evictedPartitions = new LongAdder();
+
+    TemplateMiner(int depth, double similarityThreshold, int maxChildren, int maxTemplates, int maxPartitions, int maxTokens) {
+        if (depth < 3) {
+            throw new IllegalArgumentException("template miner depth must be at least 3, got [" + depth + "]");
+        }
+        this.depth = depth;
+        this.similarityThreshold = similarityThreshold;
+        this.maxChildren = maxChildren;
+        this.maxTemplates = maxTemplates;
+        this.maxPartitions = maxPartitions;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * A template and its id.
+     */
+    static final class Match {
+        final long id;
+        final String template;
+
+        Match(long id, String template) {
+            this.id = id;
+            this.template = template;
+        }
+    }
+
+    /**
+     * Assigns {@code maskedLog} (tokens separated by single blanks) to a template of the tree of
+     * {@code partitionKey}, learning from it.
+     */
+    Match match(String partitionKey, String maskedLog) {
+        lines.increment();
+        String[] tokens = tokenize(maskedLog);
+        Partition partition = partition(partitionKey);
+        synchronized (partition) {
+            return partition.match(tokens);
+        }
+    }
+
+    private String[] tokenize(String maskedLog) {
+        String[] tokens = maskedLog.isEmpty() ? new String[0] : maskedLog.split(" ");
+        if (tokens.length > maxTokens) {
+            // keep the tree and the comparisons bounded for very long lines
+            String[] truncated = new String[maxTokens];
+            System.arraycopy(tokens, 0, truncated, 0, maxTokens - 1);
+            truncated[maxTokens - 1] = WILDCARD;
+            tokens = truncated;
+        }
+        return tokens;
+    }
+
+    private Partition partition(String key) {
+        Partition partition = partitions.get(key);
+        if (partition == null) {
+            partition = partitions.computeIfAbsent(key, Partition::new);
+            if (partitions.size() > maxPartitions) {
+                evictPartition();
+            }
+        }
+        partition.lastUsed = clock.incrementAndGet();
+        return partition;
+    }
+
+    private void evictPartition() {
+        Map.Entry<String, Partition> oldest = null;
+        for (Map.Entry<String, Partition> entry : partitions.entrySet()) {
+            if (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null && partitions.remove(oldest.getKey(), oldest.getValue())) {
+            evictedPartitions.increment();
+        }
+    }
+
+    long partitions() {
+        return partitions.size();
+    }
+
+    long templates() {
+        long templates = 0;
+        for (Partition partition : partitions.values()) {
+            synchronized (partition) {
+                templates += partition.templates.size();
+            }
+        }
+        return templates;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("lines", lines.sum());
+        builder.field("partitions", partitions());
+        builder.field("templates", templates());
+        builder.field("created", created.sum());
+        builder.field("evicted_templates", evictedTemplates.sum());
+        builder.field("evicted_partitions", evictedPartitions.sum());
+        return builder;
+    }
+
+    private static boolean isParameter(String token) {
+        if (token.startsWith("<") && token.endsWith(">")) {
+            return true;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (LexerMasker.isDigit(token.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Node {
+        final Node parent;
+        final Object key;
+        final Map<Object, Node> children = new HashMap<>();
+        // only on leaves
+        final List<Template> templates = new ArrayList<>(2);
+
+        Node(Node parent, Object key) {
+            this.parent = parent;
+            this.key = key;
+        }
+    }
+
+    private static final class Template {
+        final long id;
+        final String[] tokens;
+        final Node leaf;
+        String text;
+
+        Template(long id, String[] tokens, Node leaf) {
+            this.id = id;
+            this.tokens = tokens;
+            this.leaf = leaf;
+            this.text = String.join(" ", tokens);
+        }
+    }
+
+    private final class Partition {
+        final long seed;
+        final Node root = new Node(null, null);
+        // access ordered, for dropping the least recently used template
+        final LinkedHashMap<Long, Template> templates = new LinkedHashMap<>(16, 0.75f, true);
+        volatile long lastUsed;
+
+        Partition(String key) {
+            this.seed = Hash64.hash(key);
+        }
+
+        Match match(String[] tokens) {
+            Node leaf = leaf(tokens);
+            Template best = null;
+            double bestSimilarity = -1;
+            int bestParameters = -1;
+            for (Template template : leaf.templates) {
+                int same = 0;
+                int parameters = 0;
+                for (int i = 0; i < tokens.length; i++) {
+                    if (template.tokens[i].equals(WILDCARD)) {
+                        parameters++;
+                    } else if (template.tokens[i].equals(tokens[i])) {
+                        same++;
+                    }
+                }
+                double similarity = tokens.length == 0 ? 1.0 : (double) same / tokens.length;
+                if (similarity > bestSimilarity || (similarity == bestSimilarity && parameters > bestParameters)) {
+                    best = template;
+                    bestSimilarity = similarity;
+                    bestParameters = parameters;
+                }
+            }
+            if (best != null && bestSimilarity >= similarityThreshold) {
+                merge(best, tokens);
+                templates.get(best.id);
+                return new Match(best.id, best.text);
+            }
+            Template template = new Template(Hash64.hash(String.join(" ", tokens), seed) & Long.MAX_VALUE, tokens.clone(), leaf);
+            Template existing = templates.putIfAbsent(template.id, template);
+            if (existing != null) {
+                // the same line seeded a template that has since been routed elsewhere
+                return new Match(existing.id, existing.text);
+            }
+            leaf.templates.add(template);
+            created.increment();
+            if (templates.size() > maxTemplates) {
+                evictTemplate();
+            }
+            return new Match(template.id, template.text);
+        }
+
+        private void merge(Template template, String[] tokens) {
+            boolean changed = false;
+            for (int i = 0; i < tokens.length; i++) {
+                if (!template.tokens[i].equals(tokens[i]) && !template.tokens[i].equals(WILDCARD)) {
+                    template.tokens[i] = WILDCARD;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                template.text = String.join(" ", template.tokens);
+            }
+        }
+
+        private Node leaf(String[] tokens) {
+            Node node = child(root, tokens.length);
+            int levels = Math.min(depth - 3, tokens.length);
+            for (int i = 0; i < levels; i++) {
+                String token = tokens[i];
+                Node next = isParameter(token) ? null : node.children.get(token);
+                if (next == null) {
+                    boolean room = !isParameter(token) && node.children.size() < maxChildren - 1;
+                    next = room ? child(node, token) : child(node, WILDCARD);
+                }
+                node = next;
+            }
+            return node;
+        }
+
+        private Node child(Node node, Object key) {
+            Node child = node.children.get(key);
+            if (child == null) {
+                child = new Node(node, key);
+                node.children.put(key, child);
+            }
+            return child;
+        }
+
+        private void evictTemplate() {
+            Iterator<Template> lru = templates.values().iterator();
+            Template victim = lru.next();
+            lru.remove();
+            evictedTemplates.increment();
+            Node node = victim.leaf;
+            node.templates.remove(victim);
+            // drop the branch when it has become empty
+            while (node.parent != null && node.templates.isEmpty() && node.children.isEmpty()) {
+                node.parent.children.remove(node.key);
+                node = node.parent;
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Size and weight bounded cache keyed by a caller supplied 64-bit hash.
+ *
+ * Entries are spread over independently locked segments, each an LRU list guarded by a TinyLFU
+ * admission filter: every lookup counts the hash in a small count-min sketch, and when a segment
+ * is full a new entry only replaces the least recently used one if it was looked up more often.
+ * Entries are slotted by owner and hash, so owners caching the same line keep an entry each, and a
+ * stored entry is only returned when its key equals the requested one, so hash collisions are
+ * misses and not wrong values.
+ */
+final class TinyLfuCache<K, V> implements ToXContentFragment {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final ToLongBiFunction<K, V> weigher;
+    private final long maxEntries, maxWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TinyLfuCache(long maxEntries, long maxWeight, ToLongBiFunction<K, V> weigher) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("cache bounds must be positive, got [" + maxEntries + "] entries and ["
+                + maxWeight + "] weight");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS), Math.max(1, (maxWeight + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    /**
+     * Returns the value cached for {@code key} by {@code owner}, or null. Owners are compared with
+     * equals, so equivalent producers share entries.
+     */
+    V get(Object owner, long hash, K key) {
+        V value = segment(hash).get(owner, hash, key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Offers a value to the cache. It may be refused by the admission filter or for being too heavy.
+     */
+    void put(Object owner, long hash, K key, V value) {
+        long weight = weigher.applyAsLong(key, value);
+        Segment<K, V> segment = segment(hash);
+        if (weight > segment.maxWeight) {
+            rejections.increment();
+            return;
+        }
+        int evicted = segment.put(owner, hash, key, value, weight);
+        if (evicted < 0) {
+            rejections.increment();
+        } else if (evicted > 0) {
+            evictions.add(evicted);
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    long rejections() {
+        return rejections.sum();
+    }
+
+    long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("max_entries", maxEntries);
+        builder.field("max_weight_in_bytes", maxWeight);
+        builder.field("entries", size());
+        builder.field("weight_in_bytes", weight());
+        builder.field("hits", hits());
+        builder.field("misses", misses());
+        builder.field("evictions", evictions());
+        builder.field("rejections", rejections());
+        return builder;
+    }
+
+    private Segment<K, V> segment(long hash) {
+        return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    }
+
+    // what an entry is slotted by in its segment
+    private static final class Slot {
+        final Object owner;
+        final long hash;
+
+        Slot(Object owner, long hash) {
+            this.owner = owner;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) o;
+            return hash == other.hash && owner.equals(other.owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * owner.hashCode() + Long.hashCode(hash);
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final long hash;
+        final Object owner;
+        final K key;
+        final V value;
+        final long weight;
+
+        Entry(long hash, Object owner, K key, V value, long weight) {
+            this.hash = hash;
+            this.owner = owner;
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final LinkedHashMap<Slot, Entry<K, V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch;
+        final long maxEntries, maxWeight;
+        long weight;
+
+        Segment(long maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+            this.sketch = new FrequencySketch(maxEntries);
+        }
+
+        synchronized V get(Object owner, long hash, K key) {
+            sketch.increment(hash);
+            Entry<K, V> entry = entries.get(new Slot(owner, hash));
+            if (entry == null || !entry.key.equals(key)) {
+                return null;
+            }
+            return entry.value;
+        }
+
+        /**
+         * Returns the number of evicted entries, or -1 if the value was not admitted.
+         */
+        synchronized int put(Object owner, long hash, K key, V value, long valueWeight) {
+            Slot slot = new Slot(owner, hash);
+            Entry<K, V> previous = entries.remove(slot);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            int evicted = 0;
+            Iterator<Entry<K, V>> lru = entries.values().iterator();
+            while (lru.hasNext() && (entries.size() >= maxEntries || weight + valueWeight > maxWeight)) {
+                Entry<K, V> victim = lru.next();
+                // admit only what is used more often than the least recently used entry it pushes out
+                if (evicted == 0 && sketch.frequency(hash) <= sketch.frequency(victim.hash)) {
+                    if (previous != null) {
+                        entries.put(slot, previous);
+                        weight += previous.weight;
+                    }
+                    return -1;
+                }
+                lru.remove();
+                weight -= victim.weight;
+                evicted++;
+            }
+            entries.put(slot, new Entry<>(hash, owner, key, value, valueWeight));
+            weight += valueWeight;
+            return evicted;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per hash, halved periodically so old popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long maxEntries) {
+            int size = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(8, maxEntries)) * 2 - 1);
+            this.table = new long[size];
+            this.sampleSize = 10 * size;
+        }
+
+        void increment(long hash) {
+            boolean added = false;
+            for (long seed : SEEDS) {
+                long h = Hash64.mix(hash + seed);
+                int slot = (int) (h >>> 32) & (table.length - 1);
+                int shift = ((int) h & 15) << 2;
+                if (((table[slot] >>> shift) & 0xF) < 15) {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(long hash) {
+            int frequency = 15;
+            for (long seed : SEEDS) {
+                long h = Hash64.mix(hash + seed);
+                int slot = (int) (h >>> 32) & (table.length - 1);
+                int shift = ((int) h & 15) << 2;
+                frequency = Math.min(frequency, (int) ((table[slot] >>> shift) & 0xF));
+            }
+            return frequency;
+        }
+    }
+}
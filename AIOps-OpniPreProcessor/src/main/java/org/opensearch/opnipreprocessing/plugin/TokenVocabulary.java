@@ -0,0 +1,213 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.UUIDs;
+import org.opensearch.common.xcontent.ToXContentFragment;
+import org.opensearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-local vocabulary that turns a masked line into the ids of its space separated tokens, so
+ * the model downstream does not tokenize the line again.
+ *
+ * Ids are handed out in the order tokens are first seen and never change for the life of the node:
+ * 0 is {@value #UNKNOWN_TOKEN}, for tokens that no longer fit, then come the mask labels of the
+ * rules, then everything else. A consumer keeps its copy current by asking for the tokens from the
+ * size it already has.
+ *
+ * The ids past the labels differ between nodes and start over when a node restarts, so every
+ * vocabulary has an {@link #id} of its node and a random part drawn when it is created, which the
+ * payloads carry next to their ids: a consumer keeps a copy per id and drops it once the id changes.
+ *
+ * Lookups read an open-addressing table without locking or allocating; only new tokens take the
+ * lock. The table is never more than half full.
+ */
+final class TokenVocabulary implements ToXContentFragment {
+
+    static final int UNKNOWN = 0;
+    static final String UNKNOWN_TOKEN = "<unk>";
+
+    private static final int[] NO_IDS = new int[0];
+
+    final String id;
+    private final int maxSize;
+    // guarded by this; published to lookups through the volatile table
+    private final List<String> tokens = new ArrayList<>();
+    private volatile Entry[] table = new Entry[64];
+    final LongAdder unknownTokens = new LongAdder();
+
+    private static final class Entry {
+        final String token;
+        final long hash;
+        final int id;
+
+        Entry(String token, long hash, int id) {
+            this.token = token;
+            this.hash = hash;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @param id     see {@link #newId}
+     * @param labels mask labels, as the rules' {@code maskWith}, to give the first ids
+     */
+    TokenVocabulary(String id, Collection<String> labels, int maxSize) {
+        this.id = id;
+        this.maxSize = Math.max(maxSize, 1);
+        add(UNKNOWN_TOKEN, 0, UNKNOWN_TOKEN.length(), Hash64.hash(UNKNOWN_TOKEN));
+        addLabels(labels);
+    }
+
+    /**
+     * Assigns ids to the mask labels that do not have one yet, as the masked lines write them.
+     */
+    void addLabels(Collection<String> labels) {
+        for (String label : labels) {
+            String token = "<" + label.toLowerCase(Locale.ENGLISH) + ">";
+            id(token, 0, token.length());
+        }
+    }
+
+    /**
+     * Returns a new vocabulary id for the node {@code owner}.
+     */
+    static String newId(String owner) {
+        return owner + "/" + UUIDs.randomBase64UUID();
+    }
+
+    static List<String> labels(LogMasker.MaskingRuleClass rules) {
+        List<String> labels = new ArrayList<>();
+        rules.rulesBeforeSplit.forEach(rule -> labels.add(rule.maskWith));
+        rules.rules.forEach(rule -> labels.add(rule.maskWith));
+        return labels;
+    }
+
+    /**
+     * Returns the ids of the tokens of {@code maskedLine}, skipping empty ones.
+     */
+    int[] ids(String maskedLine) {
+        int n = maskedLine.length();
+        if (n == 0) {
+            return NO_IDS;
+        }
+        int max = 1;
+        for (int i = 0; i < n; i++) {
+            if (maskedLine.charAt(i) == ' ') {
+                max++;
+            }
+        }
+        int[] ids = new int[max];
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i <= n; i++) {
+            if (i < n && maskedLine.charAt(i) != ' ') {
+                continue;
+            }
+            if (i > start) {
+                ids[count++] = id(maskedLine, start, i);
+            }
+            start = i + 1;
+        }
+        return count == max ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns the id of {@code s[from, to)}, assigning the next one if it is new and there is room.
+     */
+    int id(String s, int from, int to) {
+        long hash = Hash64.hash(s, from, to, 0L);
+        Entry entry = find(table, s, from, to, hash);
+        if (entry != null) {
+            return entry.id;
+        }
+        synchronized (this) {
+            entry = find(table, s, from, to, hash);
+            if (entry != null) {
+                return entry.id;
+            }
+            if (tokens.size() >= maxSize) {
+                unknownTokens.increment();
+                return UNKNOWN;
+            }
+            return add(s, from, to, hash);
+        }
+    }
+
+    // guarded by this
+    private int add(String s, int from, int to, long hash) {
+        Entry entry = new Entry(s.substring(from, to), hash, tokens.size());
+        tokens.add(entry.token);
+        Entry[] current = table;
+        if (tokens.size() * 2 > current.length) {
+            Entry[] grown = new Entry[current.length * 2];
+            for (Entry old : current) {
+                if (old != null) {
+                    insert(grown, old);
+                }
+            }
+            insert(grown, entry);
+            table = grown;
+        } else {
+            // entries are immutable, a lookup sees either the whole entry or an empty slot and takes the lock
+            insert(current, entry);
+            table = current;
+        }
+        return entry.id;
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        int mask = table.length - 1;
+        int slot = (int) entry.hash & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+    }
+
+    private static Entry find(Entry[] table, String s, int from, int to, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        Entry entry;
+        while ((entry = table[slot]) != null) {
+            if (entry.hash == hash && entry.token.length() == to - from && entry.token.regionMatches(0, s, from, to - from)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    synchronized int size() {
+        return tokens.size();
+    }
+
+    /**
+     * The tokens with ids from {@code from} on, in id order.
+     */
+    synchronized List<String> tokens(int from) {
+        return new ArrayList<>(tokens.subList(Math.min(Math.max(from, 0), tokens.size()), tokens.size()));
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("id", id);
+        builder.field("size", size());
+        builder.field("max_size", maxSize);
+        builder.field("unknown_tokens", unknownTokens.sum());
+        return builder;
+    }
+}
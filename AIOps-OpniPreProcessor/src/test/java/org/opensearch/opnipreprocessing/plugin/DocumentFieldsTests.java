@@ -0,0 +1,60 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.ingest.IngestDocument;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class DocumentFieldsTests extends OpenSearchTestCase {
+
+    public void testWritesAreSeenAndAppliedTogether() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("message", "hello");
+        source.put("log_type", "workload");
+        source.put("count", 3);
+        IngestDocument ingestDocument = new IngestDocument(source, new HashMap<>());
+        DocumentFields fields = new DocumentFields(ingestDocument);
+
+        fields.set("log", fields.string("message"));
+        fields.remove("message");
+        fields.setIfAbsent("log_type", "controlplane");
+        fields.setIfAbsent("service", "");
+        assertTrue(fields.is("log_type", "workload"));
+        assertThat(fields.string("log"), equalTo("hello"));
+        assertFalse(fields.has("message"));
+        assertThat(fields.get("message"), nullValue());
+        assertThat(fields.string("count"), nullValue());
+        // nothing is written before apply
+        assertTrue(ingestDocument.hasField("message"));
+        assertFalse(ingestDocument.hasField("log"));
+
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> fields.required("count"));
+        assertThat(e.getMessage(), containsString("cannot be cast to [java.lang.String]"));
+        e = expectThrows(IllegalArgumentException.class, () -> fields.required("cluster_id"));
+        assertThat(e.getMessage(), containsString("field [cluster_id] not present"));
+
+        for (int i = 0; i < 40; i++) {
+            fields.set("field_" + i, i);
+        }
+        fields.apply();
+        assertFalse(ingestDocument.hasField("message"));
+        assertThat(ingestDocument.getFieldValue("log", String.class), equalTo("hello"));
+        assertThat(ingestDocument.getFieldValue("log_type", String.class), equalTo("workload"));
+        assertThat(ingestDocument.getFieldValue("service", String.class), equalTo(""));
+        assertThat(ingestDocument.getFieldValue("field_39", Integer.class), equalTo(39));
+        assertFalse(fields.has("message"));
+        assertTrue(fields.has("field_0"));
+    }
+}
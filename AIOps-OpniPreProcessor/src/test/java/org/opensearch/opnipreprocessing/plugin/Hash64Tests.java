@@ -0,0 +1,37 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+public class Hash64Tests extends OpenSearchTestCase {
+
+    public void testFingerprintIsStable() {
+        // indexed and published, so consumers rely on these values across versions and nodes
+        assertThat(Hash64.hash("get <path> took <num> ms"), equalTo(7767452259423112050L));
+        assertThat(Hash64.hash(""), equalTo(-1205034819632174695L));
+        String line = randomAlphaOfLengthBetween(0, 100);
+        assertThat(Hash64.hash(new StringBuilder(line)), equalTo(Hash64.hash(line)));
+        assertThat(Hash64.hash(line.toCharArray(), 0, line.length(), 0L), equalTo(Hash64.hash(line)));
+    }
+
+    public void testSimHashIsCloseForSimilarLines() {
+        String line = "<klog_date> <num> <go_file_path> starting watch path <path> resourceversion <num> labels fields metadata.name";
+        long simHash = Hash64.simHash(line, ' ');
+        assertThat(simHash, equalTo(Hash64.simHash("  " + line.replace(" ", "  "), ' ')));
+        int near = Long.bitCount(simHash ^ Hash64.simHash(line.replace("starting", "stopping"), ' '));
+        int far = Long.bitCount(simHash ^ Hash64.simHash("<utc_date> connected to <url> from <ip> <num> in <duration>", ' '));
+        assertThat(near, lessThan(16));
+        assertThat(far, greaterThan(near));
+        assertThat(Hash64.simHash("", ' '), equalTo(0L));
+    }
+}
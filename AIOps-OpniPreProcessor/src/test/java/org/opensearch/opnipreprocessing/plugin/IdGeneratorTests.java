@@ -0,0 +1,54 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+public class IdGeneratorTests extends OpenSearchTestCase {
+
+    public void testTimeIdsAreUniqueAndTimePrefixed() throws Exception {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    ids.add(IdGenerator.TIME.next());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(ids.size(), equalTo(40000));
+
+        long before = System.currentTimeMillis();
+        String id = IdGenerator.TIME.next();
+        assertThat(id.length(), equalTo(20));
+        byte[] bytes = Base64.getUrlDecoder().decode(id);
+        long time = 0;
+        for (int i = 0; i < 6; i++) {
+            time = (time << 8) | (bytes[i] & 0xFF);
+        }
+        assertTrue(time >= before && time <= System.currentTimeMillis());
+    }
+
+    public void testStrategies() {
+        assertThat(IdGenerator.fromString("opensearch"), equalTo(IdGenerator.OPENSEARCH));
+        assertThat(IdGenerator.fromString("RANDOM").next().length(), equalTo(36));
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> IdGenerator.fromString("uuid"));
+        assertThat(e.getMessage(), containsString("unknown id strategy [uuid]"));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.Strings;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+
+public class LogMaskerTests extends OpenSearchTestCase {
+
+    private static final String[] FRAGMENTS = {
+        "http://", "https://", "www.example.com", "/api/v1/ns", "2022-03-16T12:03:47.578853Z", "2022-03-16 12:03:47",
+        "I0316 12:03:47.578853", "Jan 12 10:11:12", "get.go:259]", "foo@bar.com", "10.0.0.1", "192.168.1.1/24",
+        "1.5ms", "2.25 s", "3.0\u00b5s", "-12", ".5", "1.2a", "abc123", "v1.2.3", "x=1", "a|b", "{ }", "[]",
+        "\u001b[31m", "\n", "\t", "\"", "'", ",", "\\", "\u0130", "sha256:abcdef0123", "pod-7d9f8c-xyz12"
+    };
+
+    private static final String[][] EXPECTED = {
+        {
+            "I0316 12:03:47.578853       1 get.go:259] \"Starting watch\" path=\"/api/v1/namespaces/dgps/secrets\" resourceVersion=\"1035642112\"",
+            "<klog_date> <num> <go_file_path> starting watch path <path> resourceversion <num>"
+        },
+        {
+            "2022-03-16T12:03:47.578853Z connected to https://rancher.example.com/v3/clusters from 10.42.0.12:8443 in 1.5ms",
+            "<utc_date> connected to <url> from <ip> <num> in <duration>"
+        },
+        {
+            "Mar  7 10:11:12 node-1 user=admin@example.com cidr=10.0.0.0/16 items={} list=[ ]",
+            "<custom_date> <token_with_digit> user <email_address> cidr <ip> items <empty_set> list <empty_list>"
+        },
+        {
+            "\u001b[31mERROR\u001b[0m failed after 3 attempts\n",
+            "error failed after <num> attempts"
+        }
+    };
+
+    public void testRegexEngine() {
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_REGEX);
+        for (String[] expected : EXPECTED) {
+            assertThat(masker.mask(expected[0]), equalTo(expected[1]));
+        }
+    }
+
+    public void testLexerEngine() {
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_LEXER);
+        for (String[] expected : EXPECTED) {
+            assertThat(masker.mask(expected[0]), equalTo(expected[1]));
+        }
+    }
+
+    public void testAutomatonEngine() {
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_AUTOMATON);
+        for (String[] expected : EXPECTED) {
+            assertThat(masker.mask(expected[0]), equalTo(expected[1]));
+        }
+    }
+
+    public void testAutomatonPrefersLongestThenFirstRule() {
+        MaskingAutomaton automaton = new MaskingAutomaton(Arrays.asList(
+            new LogMasker.MaskingRule("\\d+", "num"),
+            new LogMasker.MaskingRule("[a-z]+\\d+", "token"),
+            new LogMasker.MaskingRule("[a-z]+\\d", "short_token"),
+            new LogMasker.MaskingRule("(?<![a-z])x?(?=;)", "empty")
+        ));
+        assertThat(replace(automaton, "ab12 34 x;"), equalTo("<token> <num> <empty>;"));
+        assertThat(replace(automaton, "ab1;"), equalTo("<token>;"));
+        assertThat(replace(automaton, "nothing here"), equalTo("nothing here"));
+    }
+
+    public void testAutomatonIsLinearOnBacktrackingInput() {
+        MaskingAutomaton automaton = new MaskingAutomaton(Collections.singletonList(new LogMasker.MaskingRule("(a|aa)*b", "ab")));
+        char[] line = new char[50000];
+        Arrays.fill(line, 'a');
+        assertThat(replace(automaton, new String(line)), equalTo(new String(line)));
+    }
+
+    public void testAutomatonRejectsUnsupportedSyntax() {
+        for (String pattern : new String[] {"(a)\\1", "\\bword", "a++", "(?i)abc", "[a-z&&[^x]]", "(?=ab)"}) {
+            expectThrows(IllegalArgumentException.class,
+                () -> new MaskingAutomaton(Collections.singletonList(new LogMasker.MaskingRule(pattern, "x"))));
+        }
+    }
+
+    private static String replace(MaskingAutomaton automaton, String line) {
+        LexerMasker.CharBuf src = new LexerMasker.CharBuf();
+        src.set(line);
+        LexerMasker.CharBuf dst = automaton.replace(src, new LexerMasker.CharBuf());
+        return new String(dst.chars, 0, dst.length);
+    }
+
+    public void testLexerMatchesRegexOnRandomLines() {
+        LogMasker regex = new LogMasker(LogMasker.ENGINE_REGEX);
+        LogMasker lexer = new LogMasker(LogMasker.ENGINE_LEXER);
+        for (int i = 0; i < 2000; i++) {
+            String line = randomLogLine();
+            assertThat(line, lexer.mask(line), equalTo(regex.mask(line)));
+        }
+    }
+
+    private String randomLogLine() {
+        StringBuilder line = new StringBuilder();
+        int parts = randomIntBetween(0, 12);
+        for (int i = 0; i < parts; i++) {
+            line.append(randomBoolean() ? randomFrom(FRAGMENTS) : randomAlphaOfLengthBetween(0, 4));
+            if (randomBoolean()) {
+                line.append(randomFrom(" ", "", ":", "=", "  "));
+            }
+        }
+        return line.toString();
+    }
+
+    public void testPrescanNeverSkipsARuleThatMatches() {
+        LogMasker.MaskingRuleClass builtIn = new LogMasker.MaskingRuleClass();
+        for (int i = 0; i < 2000; i++) {
+            String line = randomLogLine();
+            long present = LinePrescan.scan(line);
+            for (LogMasker.MaskingRule rule : builtIn.rulesBeforeSplit) {
+                assertTrue(rule.maskWith + " " + line, rule.mayMatch(present) || !rule.regexPattern.matcher(line).find());
+            }
+            for (LogMasker.MaskingRule rule : builtIn.rules) {
+                assertTrue(rule.maskWith + " " + line, rule.mayMatch(present) || !rule.regexPattern.matcher(line).find());
+                assertTrue(rule.maskWith + " " + line,
+                    rule.literal == null || line.contains(rule.literal) || !rule.regexPattern.matcher(line).find());
+            }
+        }
+        LogMasker.MaskingRule url = builtIn.rulesBeforeSplit.get(0);
+        assertFalse(url.mayMatch(LinePrescan.scan("GET http example.com")));
+        assertTrue(url.mayMatch(LinePrescan.scan("GET http://example.com")));
+        // a pattern outside the automaton subset always runs
+        assertTrue(new LogMasker.MaskingRule("(a)\\1", "x").mayMatch(0L));
+    }
+
+    public void testRequiredLiterals() {
+        LogMasker.MaskingRuleClass builtIn = new LogMasker.MaskingRuleClass();
+        assertThat(builtIn.rulesBeforeSplit.get(0).literal, equalTo("://"));
+        assertThat(builtIn.rules.get(0).literal, equalTo(".go : "));
+        assertThat(new LogMasker.MaskingRule("(?<=\\s)req-[0-9a-f]{8}", "id").literal, equalTo("req-"));
+        assertThat(new LogMasker.MaskingRule("ab|cd", "x").literal, equalTo(null));
+    }
+
+    public void testLiteralCheckAdapts() throws Exception {
+        RuleStats stats = new RuleStats(new LogMasker.MaskingRule("req-[0-9]+", "id"), OpniPreprocessingConfig.PHASE_AFTER_SPLIT);
+        long present = LinePrescan.scan("req-1 x");
+        for (int i = 0; i < 256; i++) {
+            assertTrue(stats.shouldRun(present, "req-1", true));
+        }
+        // the literal is always there, so checking it is a waste; skipping still happens on sampled lines
+        assertThat(Strings.toString(stats), containsString("\"literal_check\":false"));
+        assertTrue(stats.shouldRun(present, "req x-1", false));
+        for (int i = 0; i < 128; i++) {
+            assertFalse(stats.shouldRun(present, "req x-1", true));
+        }
+        assertThat(Strings.toString(stats), containsString("\"literal_check\":true"));
+        assertFalse(stats.shouldRun(present, "req x-1", false));
+    }
+
+    public void testRuleStatsCountRunsAndHits() {
+        LogMasker masker = new LogMasker(randomFrom(LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER));
+        for (int i = 0; i < 10; i++) {
+            masker.mask("connected to https://example.com from 10.0.0." + i);
+            masker.mask("no digits here");
+        }
+        String stats = Strings.toString((builder, params) -> {
+            builder.startArray("rules");
+            for (RuleStats rule : masker.ruleStats()) {
+                rule.toXContent(builder, params);
+            }
+            return builder.endArray();
+        });
+        assertThat(stats, containsString("\"name\":\"url\",\"mask\":\"URL\",\"phase\":\"before_split\",\"literal\":\"://\","
+            + "\"literal_check\":true,\"runs\":10,\"hits\":10,\"skipped_by_class\":10,\"skipped_by_literal\":0"));
+        assertThat(stats, containsString("\"name\":\"ip\",\"mask\":\"IP\",\"phase\":\"after_split\",\"literal\":null,"
+            + "\"literal_check\":false,\"runs\":10,\"hits\":10,\"skipped_by_class\":10"));
+    }
+
+    public void testLongLinesAreMaskedInWindows() {
+        StringBuilder trace = new StringBuilder("java.lang.IllegalStateException: request to https://10.0.0.1:9200/_bulk failed");
+        while (trace.length() < 200_000) {
+            trace.append("\n\tat org.example.Service").append(randomIntBetween(0, 99)).append(".call(Service.java:")
+                .append(randomIntBetween(1, 999)).append(") took ").append(randomIntBetween(1, 99)).append(".5ms");
+        }
+        String line = trace.toString();
+        MaskingLimits limits = new MaskingLimits(0, 65536, 4096, 0);
+        for (String engine : new String[] {LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER}) {
+            LogMasker masker = new LogMasker(engine);
+            String whole = masker.mask(line, MaskingLimits.NONE).text;
+            // the windows are cut at line breaks followed by "at", which no rule matches across
+            assertThat(masker.mask(line, limits).text, equalTo(whole));
+
+            LogMasker.Masked truncated = masker.mask(line, new MaskingLimits(0, 65536, 4096, 10000));
+            assertTrue(truncated.truncated);
+            assertThat(truncated.text.length(), lessThanOrEqualTo(10000));
+            assertThat(whole, startsWith(truncated.text + " "));
+        }
+        // a single token longer than the window is cut
+        String blob = randomAlphaOfLength(20000);
+        assertThat(new LogMasker().mask(blob, new MaskingLimits(0, 1000, 4096, 0)).text.replace(" ", ""),
+            equalTo(blob.toLowerCase(Locale.ROOT)));
+    }
+
+    public void testWindowsAreNotCutInsideDates() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 1359; i++) {
+            line.append("ok ");
+        }
+        int beforeDate = line.length();
+        // the blank inside the date is the last one of the first window
+        line.append("at 2022-01-05 12:00:01Z done");
+        assertThat(line.indexOf("2022-01-05 ") + 10, equalTo(4090));
+        while (line.length() < 10000) {
+            line.append(" ok");
+        }
+        MaskingLimits limits = new MaskingLimits(0, 1000, 4096, 0);
+        // the date crosses its blank: the cut goes before it
+        assertThat(limits.windowEnd(line.toString(), 0, new LogMasker().blankRules(), MaskingBudget.NO_DEADLINE),
+            equalTo(beforeDate + 3));
+        for (String engine : new String[] {LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER}) {
+            LogMasker masker = new LogMasker(engine);
+            String whole = masker.mask(line.toString(), MaskingLimits.NONE).text;
+            assertThat(whole, containsString("<utc_date>"));
+            assertThat(masker.mask(line.toString(), limits).text, equalTo(whole));
+        }
+
+        // rules that take in a blank followed by something other than a digit, a trailing one included
+        limits = new MaskingLimits(0, 256, 256, 0);
+        String[][] cases = { { "/var/log abc", "<path>abc" }, { "{ }", "<empty_set>" }, { "[ ]", "<empty_list>" },
+            { "took 1.5 ms", "<duration>" } };
+        for (String[] testCase : cases) {
+            String snippet = testCase[0];
+            // the last blank of the snippet is the last one of the first window
+            int start = 254 - snippet.lastIndexOf(' ');
+            StringBuilder crossing = new StringBuilder();
+            for (int i = 0; i < start % 3; i++) {
+                crossing.append('x');
+            }
+            while (crossing.length() < start) {
+                crossing.append("ok ");
+            }
+            crossing.append(snippet);
+            while (crossing.length() < 600) {
+                crossing.append(" ok");
+            }
+            int end = limits.windowEnd(crossing.toString(), 0, new LogMasker().blankRules(), MaskingBudget.NO_DEADLINE);
+            assertThat(snippet, end, lessThanOrEqualTo(start + snippet.lastIndexOf(' ')));
+            for (String engine : new String[] {LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER}) {
+                LogMasker masker = new LogMasker(engine);
+                String whole = masker.mask(crossing.toString(), MaskingLimits.NONE).text;
+                assertThat(whole, containsString(testCase[1]));
+                assertThat(snippet, masker.mask(crossing.toString(), limits).text, equalTo(whole));
+            }
+        }
+    }
+
+    public void testBudgetFallsBackToTheDegradedMask() {
+        List<LogMasker.MaskingRule> rules = Collections.singletonList(new LogMasker.MaskingRule("((a+)*)+c", "c"));
+        String line = "Took 15ms for " + String.join("", Collections.nCopies(64, "a")) + " at /x";
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(100, 1 << 20, LogMasker::cacheWeight);
+        for (String engine : new String[] {LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER}) {
+            LogMasker masker = new LogMasker(engine, new LogMasker.MaskingRuleClass(rules, Collections.emptyList()), cache);
+            LogMasker.Masked masked = masker.mask(line, TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(engine, masked.degraded);
+            assertThat(masked.text, equalTo("took <token_with_digit> for " + line.substring(14, 78) + " at /x"));
+        }
+        assertThat(cache.size(), equalTo(0L));
+        assertFalse(new LogMasker(LogMasker.ENGINE_LEXER).mask(line, TimeUnit.MILLISECONDS.toNanos(20)).degraded);
+    }
+
+    public void testUnknownEngine() {
+        expectThrows(IllegalArgumentException.class, () -> new LogMasker("pcre"));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Runs the masking engines side by side with {@link ReferenceRegexMasker} on a corpus of real-shaped
+ * lines and on random lines full of digits, addresses, dates, unicode and ANSI escapes, and reports
+ * every line where an engine's output differs, with the throughput of both.
+ *
+ * {@code -Dtests.masking.fuzz_lines=N} sets the number of random lines (default 2000).
+ */
+public class MaskerDifferentialTests extends OpenSearchTestCase {
+
+    private static final String CORPUS = "masking-corpus.txt";
+    private static final int FUZZ_LINES = Integer.getInteger("tests.masking.fuzz_lines", 2000);
+    // divergences listed in a failure message
+    private static final int MAX_REPORTED = 20;
+
+    private static final String[] WORDS = {
+        "error", "failed", "connect", "pod", "node", "GET", "POST", "took", "retry", "Starting", "watch", "level", "msg",
+        "http", "https", "ftp", "go", "ms", "s", "\u00b5s", "ns", "Jan", "Mar", "May", "Sep", "Oct", "Dec", "ZONE", "x", "T", "Z"
+    };
+    private static final String[] PUNCTUATION = {
+        " ", " ", " ", "  ", ":", "=", "|", ",", ".", "/", "-", "_", "@", "\"", "'", "(", ")", "[", "]", "{", "}", "[]", "{}",
+        "{ }", "[ ]", "://", ".go:", "\n", "\r\n", "\t", ";", "?", "&", "#", "%", "+", "*", "`", "~", "!", "^", "$", "\\"
+    };
+    private static final String[] UNICODE = {
+        "\u0130", "\u00e9", "\u00fc", "\u00b5", "\u00df", "\u0131", "\u212a", "\u00a0", "\u2013", "\u0301", "\u0440\u0443\u0441",
+        "\u65e5\u672c", "\ud83d\ude00", "\ud83d\udd25x1", "\ufb01", "\u0660\u0661"
+    };
+
+    /**
+     * Differences between an engine and the reference over a set of lines, and their throughput.
+     */
+    static final class Report {
+        final String candidate;
+        final List<String> divergences = new ArrayList<>();
+        int lines;
+        long chars;
+        long referenceNanos;
+        long candidateNanos;
+
+        Report(String candidate) {
+            this.candidate = candidate;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "[%s] %d of %d lines diverge; reference %.1f MB/s, %s %.1f MB/s (%.2fx)",
+                candidate, divergences.size(), lines, megabytesPerSecond(referenceNanos), candidate,
+                megabytesPerSecond(candidateNanos), (double) referenceNanos / Math.max(candidateNanos, 1)));
+            for (String divergence : divergences.subList(0, Math.min(divergences.size(), MAX_REPORTED))) {
+                report.append('\n').append(divergence);
+            }
+            return report.toString();
+        }
+
+        private double megabytesPerSecond(long nanos) {
+            return chars * 2 / 1e6 / Math.max(nanos / 1e9, 1e-9);
+        }
+    }
+
+    static Report compare(String candidate, Function<String, String> masker, List<String> lines) {
+        ReferenceRegexMasker reference = new ReferenceRegexMasker();
+        Report report = new Report(candidate);
+        String[] expected = new String[lines.size()];
+        String[] actual = new String[lines.size()];
+        // once to warm up, then timed
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = reference.mask(lines.get(i));
+            }
+            report.referenceNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < actual.length; i++) {
+                actual[i] = masker.apply(lines.get(i));
+            }
+            report.candidateNanos = System.nanoTime() - start;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            report.lines++;
+            report.chars += lines.get(i).length();
+            if (!expected[i].equals(actual[i])) {
+                report.divergences.add("  line:      " + escape(lines.get(i)) + "\n  reference: " + escape(expected[i])
+                    + "\n  " + candidate + ": " + escape(actual[i]));
+            }
+        }
+        return report;
+    }
+
+    static List<String> corpus() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = MaskerDifferentialTests.class.getResourceAsStream(CORPUS);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(unescape(line));
+                }
+            }
+        }
+        return lines;
+    }
+
+    private List<String> fuzz() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < FUZZ_LINES; i++) {
+            lines.add(randomLine());
+        }
+        return lines;
+    }
+
+    private String randomLine() {
+        StringBuilder line = new StringBuilder();
+        int parts = randomIntBetween(0, 16);
+        for (int i = 0; i < parts; i++) {
+            switch (randomIntBetween(0, 9)) {
+                case 0:
+                    line.append(randomNumber());
+                    break;
+                case 1:
+                    line.append(randomIntBetween(0, 300)).append('.').append(randomIntBetween(0, 300)).append('.')
+                        .append(randomIntBetween(0, 300)).append('.').append(randomIntBetween(0, 1000));
+                    if (randomBoolean()) {
+                        line.append('/').append(randomIntBetween(0, 128));
+                    }
+                    break;
+                case 2:
+                    line.append(randomDate());
+                    break;
+                case 3:
+                    line.append(randomFrom(UNICODE));
+                    break;
+                case 4:
+                    line.append(randomAnsi());
+                    break;
+                case 5:
+                    line.append(randomFrom("http", "https", "ftp")).append("://").append(randomAlphaOfLengthBetween(1, 6))
+                        .append(randomFrom(".com", ".io:8443", "", ".example.com/v1/x?a=1&b=2", "/"));
+                    break;
+                case 6:
+                    line.append('/').append(randomAlphaOfLengthBetween(1, 5)).append(randomFrom("/", "/v1/", "_x-y.", "/9a/"))
+                        .append(randomAlphanumeric());
+                    break;
+                case 7:
+                    line.append(randomAlphaOfLengthBetween(1, 5).toLowerCase(Locale.ROOT)).append(randomFrom("", ".", "_"))
+                        .append(randomIntBetween(0, 99)).append('@').append(randomAlphaOfLengthBetween(1, 5)).append('.')
+                        .append(randomAlphaOfLengthBetween(1, 4));
+                    break;
+                case 8:
+                    line.append(randomBoolean() ? randomFrom(WORDS) : randomAlphanumeric());
+                    break;
+                default:
+                    break;
+            }
+            line.append(randomFrom(PUNCTUATION));
+        }
+        return line.toString();
+    }
+
+    private String randomNumber() {
+        switch (randomIntBetween(0, 4)) {
+            case 0:
+                return Integer.toString(randomInt());
+            case 1:
+                return randomFrom("", "-", "+") + randomIntBetween(0, 999) + "." + randomIntBetween(0, 999);
+            case 2:
+                return "." + randomIntBetween(0, 99) + randomFrom("", "ms", " s", "\u00b5s", "ns", "x");
+            case 3:
+                return randomIntBetween(0, 99) + "." + randomIntBetween(0, 99) + randomFrom("ms", " s", "  ns", "\u00b5s", "ds", "zs");
+            default:
+                return Long.toHexString(randomLong());
+        }
+    }
+
+    private String randomDate() {
+        String hms = String.format(Locale.ROOT, "%02d:%02d:%02d", randomIntBetween(0, 25), randomIntBetween(0, 61),
+            randomIntBetween(0, 61));
+        switch (randomIntBetween(0, 3)) {
+            case 0:
+                return String.format(Locale.ROOT, "%04d-%02d-%02d%s%s%s%s", randomIntBetween(1990, 2099), randomIntBetween(0, 13),
+                    randomIntBetween(0, 32), randomFrom("T", " ", "|"), hms, randomFrom("", ".123", ".578853"),
+                    randomFrom("Z", "+", "-", "+02:00", "", " "));
+            case 1:
+                return randomFrom("I", "W", "E", "F", "D") + String.format(Locale.ROOT, "%04d", randomIntBetween(0, 9999))
+                    + randomFrom(" ", "  ", "\t") + hms + randomFrom("", ".1", ".578853", ".+");
+            case 2:
+                return randomFrom("Jan", "January", "Feb", "Jun", "June", "Sep", "September", "Dec") + randomFrom(" ", "  ", "\t")
+                    + randomIntBetween(0, 40) + " " + hms;
+            default:
+                return hms;
+        }
+    }
+
+    private String randomAnsi() {
+        String introducer = randomFrom("\u001b[", "\u009b", "\u001b", "[");
+        return introducer + randomFrom("", "0", "31", "1;32", "38;5;208", "?25") + randomFrom("", " ", "!") + randomFrom("m", "K", "~", "");
+    }
+
+    private String randomAlphanumeric() {
+        StringBuilder token = new StringBuilder();
+        for (int i = randomIntBetween(1, 10); i > 0; i--) {
+            token.append(randomFrom("a", "Z", "0", "9", "-", ".", "_", "x", "F"));
+        }
+        return token.toString();
+    }
+
+    static String unescape(String line) {
+        StringBuilder out = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c != '\\' || i + 1 == line.length()) {
+                out.append(c);
+                continue;
+            }
+            char next = line.charAt(++i);
+            switch (next) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    out.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    out.append(next);
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ' || c >= 0x7f) {
+                out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private void assertNoDivergences(String candidate, Function<String, String> masker) throws IOException {
+        for (List<String> lines : new List[] {corpus(), fuzz()}) {
+            Report report = compare(candidate, masker, lines);
+            logger.info("{}", report);
+            assertTrue(report.toString(), report.divergences.isEmpty());
+        }
+    }
+
+    public void testCorpusIsRead() throws IOException {
+        List<String> corpus = corpus();
+        assertTrue(corpus.size() >= 30);
+        assertTrue(corpus.stream().anyMatch(line -> line.indexOf('\u001b') >= 0));
+        assertTrue(corpus.stream().anyMatch(line -> line.indexOf('\n') >= 0));
+    }
+
+    public void testRegexEngineMatchesReference() throws IOException {
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_REGEX);
+        assertNoDivergences(LogMasker.ENGINE_REGEX, masker::mask);
+    }
+
+    public void testLexerEngineMatchesReference() throws IOException {
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_LEXER);
+        assertNoDivergences(LogMasker.ENGINE_LEXER, masker::mask);
+    }
+
+    public void testCachedEngineMatchesReference() throws IOException {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(1000, 1 << 20, LogMasker::cacheWeight);
+        LogMasker masker = new LogMasker(randomFrom(LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER), cache);
+        // the timed pass is served from the cache
+        assertNoDivergences("cached " + masker.getEngine(), masker::mask);
+    }
+
+    public void testAutomatonEngineDivergencesAreReported() throws IOException {
+        // longest match instead of rule by rule: differs where the reference's rules rewrite each other's output
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_AUTOMATON);
+        Report report = compare(LogMasker.ENGINE_AUTOMATON, masker::mask, corpus());
+        logger.info("{}", report);
+        // "2.5s)" is a duration to the reference but a token with a digit to the longest match
+        assertThat(report.toString(), report.divergences.size(), lessThanOrEqualTo(report.lines / 10));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.cluster.metadata.ComposableIndexTemplate;
+import org.opensearch.common.time.DateFormatter;
+import org.opensearch.common.time.DateFormatters;
+import org.opensearch.common.xcontent.XContentHelper;
+import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class OpniIndexTemplatesTests extends OpenSearchTestCase {
+
+    @SuppressWarnings("unchecked")
+    public void testMappings() {
+        Map<String, Object> mappings = XContentHelper.convertToMap(
+            OpniIndexTemplates.componentTemplate().template().mappings().uncompressed(), true, XContentType.JSON).v2();
+        Map<String, Map<String, Object>> properties = (Map<String, Map<String, Object>>) mappings.get("properties");
+        assertThat(properties.get("log").get("type"), equalTo("text"));
+        assertThat(properties.get("log").get("norms"), equalTo(false));
+        assertThat(properties.get("log_type").get("type"), equalTo("keyword"));
+        assertThat(properties.get("masked_log_fingerprint").get("type"), equalTo("long"));
+        assertThat(properties.get("template_cluster_id").get("type"), equalTo("long"));
+        assertThat(properties.get("time").get("type"), equalTo("date"));
+
+        assertThat(properties.get("time").get("ignore_malformed"), equalTo(true));
+
+        // ingest_at as the json detector writes it, whatever the digits of its millis
+        DateFormatter ingestAt = DateFormatter.forPattern(OpniIndexTemplates.INGEST_AT_FORMAT);
+        for (long millis : new long[] { 1667302496000L, 1667302496700L, 1667302496780L, 1667302496789L }) {
+            assertThat(DateFormatters.from(ingestAt.parse(Instant.ofEpochMilli(millis).toString())).toInstant().toEpochMilli(),
+                equalTo(millis));
+        }
+        DateFormatter.forPattern(OpniIndexTemplates.TIME_FORMAT).parse(Long.toString(1667302496789L));
+
+        ComposableIndexTemplate template = OpniIndexTemplates.indexTemplate(Collections.singletonList("logs*"), 100, "opni", null);
+        assertThat(template.composedOf(), equalTo(Collections.singletonList(OpniIndexTemplates.COMPONENT_TEMPLATE)));
+        assertThat(template.template().settings().get("index.default_pipeline"), equalTo("opni"));
+        assertNull(template.template().mappings());
+        assertNull(template.getDataStreamTemplate());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testDataStreamTimestampIsStrict() {
+        ComposableIndexTemplate template = OpniIndexTemplates.indexTemplate(Collections.singletonList("logs*"), 100, null, "time");
+        assertThat(template.getDataStreamTemplate().getTimestampField().getName(), equalTo("time"));
+        assertNull(template.template().settings());
+        Map<String, Object> mappings = XContentHelper.convertToMap(template.template().mappings().uncompressed(), true,
+            XContentType.JSON).v2();
+        Map<String, Map<String, Object>> properties = (Map<String, Map<String, Object>>) mappings.get("properties");
+        assertThat(properties.keySet(), equalTo(Collections.singleton("time")));
+        assertThat(properties.get("time").get("type"), equalTo("date"));
+        assertFalse(properties.get("time").containsKey("ignore_malformed"));
+    }
+}
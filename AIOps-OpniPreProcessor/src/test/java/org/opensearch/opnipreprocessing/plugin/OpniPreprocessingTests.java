@@ -9,18 +9,84 @@ package org.opensearch.opnipreprocessing.plugin;
 
 import org.opensearch.test.OpenSearchTestCase;
 import org.opensearch.common.settings.Settings;
+import org.opensearch.common.util.concurrent.OpenSearchExecutors;
 import org.opensearch.env.Environment;
 import org.opensearch.ingest.IngestDocument;
 import org.opensearch.ingest.Processor;
 import org.opensearch.ingest.RandomDocumentPicks;
+import org.opensearch.OpenSearchParseException;
 
+import io.nats.client.Connection;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.Permissions;
+import java.security.PrivilegedExceptionAction;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasEntry;
 
 public class OpniPreprocessingTests extends OpenSearchTestCase {
+
+    // what a processor published, subject and data
+    private static final class Published {
+        final String subject;
+        final byte[] data;
+
+        Published(String subject, byte[] data) {
+            this.subject = subject;
+            this.data = data;
+        }
+
+        OpniPayloadProto.Payload payload() throws Exception {
+            return OpniPayloadProto.Payload.parseFrom(data);
+        }
+    }
+
+    // a NATS connection that only records what is published on it
+    private static Connection connection(List<Published> published) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+            (proxy, method, args) -> {
+                if (method.getName().equals("publish") && args.length == 2 && args[1] instanceof byte[]) {
+                    synchronized (published) {
+                        published.add(new Published((String) args[0], (byte[]) args[1]));
+                    }
+                    return null;
+                }
+                if (method.getName().equals("toString")) {
+                    return "recording connection";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    private static OpniPreProcessor processor(PreprocessingServices services, Map<String, Object> config, List<Published> published) {
+        return new OpniPreProcessor("tag", null, null, services, null, OpniPreProcessor.OutputOptions.read("tag", config),
+            connection(published));
+    }
+
+    private static IngestDocument document(Object... keysAndValues) {
+        Map<String, Object> source = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            source.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new IngestDocument(source, new HashMap<>());
+    }
+
     // Add unit tests for your plugin
     public void testThatProcessorWorks() throws Exception {
         // Map<String, Object> data = ingestDocument(config("log", "masked_log"),
@@ -29,6 +95,234 @@ public class OpniPreprocessingTests extends OpenSearchTestCase {
         // assertThat(data, hasEntry("lang", "en"));
     }
 
+    public void testOtelDocumentsAreMappedFromResourceAttributes() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("k8s.pod.name", "checkout-5d9c7b-x2x4k");
+        attributes.put("k8s.namespace.name", "shop");
+        attributes.put("k8s.deployment.name", "checkout");
+        attributes.put("service.name", 42);
+        Map<String, Object> document = new HashMap<>();
+        document.put("opni_collector", "otel");
+        document.put("resource", Collections.singletonMap("attributes", attributes));
+        document.put("body", "order placed");
+        document.put("service", "checkout-svc");
+        IngestDocument ingestDocument = new IngestDocument(document, new HashMap<>());
+        DocumentFields fields = new DocumentFields(ingestDocument);
+        OpniPreProcessor.preprocessingOtelDocument(fields, false);
+        fields.apply();
+
+        Map<String, Object> data = ingestDocument.getSourceAndMetadata();
+        assertThat(data, hasEntry("pod_name", "checkout-5d9c7b-x2x4k"));
+        assertThat(data, hasEntry("namespace_name", "shop"));
+        assertThat(data, hasEntry("deployment", "checkout"));
+        assertThat(data, hasEntry("service", "checkout-svc"));
+        assertThat(data, hasEntry("log_type", "workload"));
+        assertThat(data, hasEntry("kubernetes_component", ""));
+        assertThat(data, hasEntry("log", "order placed"));
+        assertThat(data, hasEntry("template_matched", ""));
+    }
+
+    public void testSlimDocumentsHaveNoEmptyPlaceholders() {
+        Map<String, Object> document = new HashMap<>();
+        document.put("opni_collector", "otel");
+        document.put("resource", Collections.singletonMap("k8s.namespace.name", "shop"));
+        IngestDocument ingestDocument = new IngestDocument(document, new HashMap<>());
+        DocumentFields fields = new DocumentFields(ingestDocument);
+        OpniPreProcessor.preprocessingOtelDocument(fields, true);
+        fields.apply();
+
+        Map<String, Object> data = ingestDocument.getSourceAndMetadata();
+        assertThat(data, hasEntry("namespace_name", "shop"));
+        assertThat(data, hasEntry("log_type", "workload"));
+        for (String field : new String[] { "template_matched", "anomaly_level", "pod_name", "deployment", "service",
+            "kubernetes_component" }) {
+            assertFalse(field, data.containsKey(field));
+        }
+    }
+
+    public void testPayloadLinesAreMaskedOnThePoolOrByTheCaller() throws Exception {
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        assertNull(services.templateMiner);
+        List<Published> published = new ArrayList<>();
+        OpniPreProcessor processor = processor(services, new HashMap<>(Collections.singletonMap("mask_logs", true)), published);
+        String log = "GET /healthz 200 took 15ms from 10.0.0.7";
+        String masked = services.masker().mask(log);
+        assertNotEquals(log, masked);
+
+        services.setMaskingExecutor(OpenSearchExecutors.newDirectExecutorService());
+        processor.execute(document("log", log, "cluster_id", "c1"));
+        assertEquals(1L, services.maskingOffloaded.sum());
+        assertEquals(0L, services.maskingCallerRuns.sum());
+
+        // one thread, busy, and no queue: the write thread masks the line itself
+        ThreadPoolExecutor saturated = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        CountDownLatch release = new CountDownLatch(1);
+        saturated.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            expectThrows(RejectedExecutionException.class, () -> saturated.execute(() -> {}));
+            services.setMaskingExecutor(saturated);
+            processor.execute(document("log", log, "cluster_id", "c1"));
+        } finally {
+            release.countDown();
+            saturated.shutdown();
+            assertTrue(saturated.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1L, services.maskingOffloaded.sum());
+        assertEquals(1L, services.maskingCallerRuns.sum());
+
+        assertEquals(2, published.size());
+        for (Published message : published) {
+            assertEquals("raw_logs", message.subject);
+            assertEquals(log, message.payload().getLog());
+            assertEquals(masked, message.payload().getMaskedLog());
+        }
+    }
+
+    public void testSlimOptions() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("slim", true);
+        OpniPreProcessor.OutputOptions options = OpniPreProcessor.OutputOptions.read("tag", config);
+        assertTrue(options.slim);
+        assertTrue(options.kubernetesStrip.contains("docker_id"));
+        assertNull(options.kubernetesKeep);
+
+        config.put("slim", true);
+        config.put("kubernetes_keep", Arrays.asList("pod_name", "namespace_name", "labels"));
+        options = OpniPreProcessor.OutputOptions.read("tag", config);
+        assertNull(options.kubernetesStrip);
+        assertTrue(options.kubernetesKeep.contains("labels"));
+
+        config.put("kubernetes_keep", Arrays.asList("pod_name"));
+        config.put("kubernetes_strip", Arrays.asList("docker_id"));
+        OpenSearchParseException e = expectThrows(OpenSearchParseException.class, () -> OpniPreProcessor.OutputOptions.read("tag", config));
+        assertThat(e.getMessage(), containsString("cannot be set together with [kubernetes_strip]"));
+    }
+
+    public void testIndexTemplate() {
+        IndexRouter router = IndexRouter.compile("logs-opni-{log_type}");
+        assertEquals("logs-opni-controlplane", router.index("controlplane", "logs"));
+        assertEquals("logs-opni-my_app_v1", router.index("My App:v1", "logs"));
+        assertEquals("logs-audit-000001", IndexRouter.compile("{index}-{log_type}-000001").index("Audit", "logs"));
+
+        for (String template : new String[] { "logs", "logs-{logtype}", "logs-{log_type", "logs}-{log_type}", "Logs-{log_type}" }) {
+            Map<String, Object> config = new HashMap<>();
+            config.put("index_template", template);
+            expectThrows(OpenSearchParseException.class, () -> OpniPreProcessor.OutputOptions.read("tag", config));
+        }
+    }
+
+    public void testTolerantModeTagsAndDeadLettersMalformedDocuments() throws Exception {
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        List<Published> published = new ArrayList<>();
+        Map<String, Object> config = new HashMap<>();
+        config.put("tolerant", true);
+        config.put("dead_letter_subject", "dead_letters");
+        OpniPreProcessor processor = processor(services, config, published);
+
+        Map<String, Object> data = processor.execute(document("log", 42, "cluster_id", "c1")).getSourceAndMetadata();
+        assertThat(data, hasEntry(PreprocessingFailure.REASON_FIELD, "invalid_field_type"));
+        assertThat(data, hasEntry(PreprocessingFailure.FIELD_FIELD, "log"));
+        data = processor.execute(document("log", "GET /healthz")).getSourceAndMetadata();
+        assertThat(data, hasEntry(PreprocessingFailure.REASON_FIELD, "missing_field"));
+        assertThat(data, hasEntry(PreprocessingFailure.FIELD_FIELD, "cluster_id"));
+        data = processor.execute(document("log", "GET /healthz", "cluster_id", "c1")).getSourceAndMetadata();
+        assertFalse(data.containsKey(PreprocessingFailure.REASON_FIELD));
+
+        // the malformed ones only go to the dead letters
+        assertEquals(3, published.size());
+        assertEquals("dead_letters", published.get(0).subject);
+        assertThat(new String(published.get(0).data, StandardCharsets.UTF_8), containsString("\"reason\":\"invalid_field_type\""));
+        assertEquals("dead_letters", published.get(1).subject);
+        assertEquals("raw_logs", published.get(2).subject);
+        assertEquals(1L, services.preprocessingFailures[PreprocessingFailure.Reason.INVALID_FIELD_TYPE.ordinal()].sum());
+        assertEquals(1L, services.preprocessingFailures[PreprocessingFailure.Reason.MISSING_FIELD.ordinal()].sum());
+        assertEquals(2L, services.deadLettered.sum());
+    }
+
+    public void testDocumentsAreRoutedByLogType() throws Exception {
+        List<Published> published = new ArrayList<>();
+        Map<String, Object> config = new HashMap<>();
+        config.put("index_template", "{index}-opni-{log_type}");
+        config.put("tolerant", true);
+        OpniPreProcessor processor = processor(new PreprocessingServices(Settings.EMPTY), config, published);
+        Map<String, Object> data = processor.execute(document("_index", "logs", "cluster_id", "c1", "log", "started",
+            "filename", "/var/lib/rancher/rke/log/kube-apiserver_abc123.log")).getSourceAndMetadata();
+        assertThat(data, hasEntry("_index", "logs-opni-controlplane"));
+        data = processor.execute(document("_index", "logs", "cluster_id", "c1", "log", "started")).getSourceAndMetadata();
+        assertThat(data, hasEntry("_index", "logs-opni-workload"));
+        // no log_type, as for documents of the support agent: the index stays
+        data = processor.execute(document("_index", "logs", "cluster_id", "c1", "agent", "support", "log", "started"))
+            .getSourceAndMetadata();
+        assertThat(data, hasEntry("_index", "logs"));
+        assertEquals(2, published.size());
+    }
+
+    public void testPayloadCarriesTheIdOfTheDocument() throws Exception {
+        List<Published> published = new ArrayList<>();
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        OpniPreProcessor time = processor(services, new HashMap<>(), published);
+        OpniPreProcessor random = processor(services, new HashMap<>(Collections.singletonMap("id_strategy", "random")), published);
+        List<Object> ids = new ArrayList<>();
+        for (OpniPreProcessor processor : new OpniPreProcessor[] { time, time, random }) {
+            ids.add(processor.execute(document("cluster_id", "c1", "log", "started")).getSourceAndMetadata().get("_id"));
+        }
+        assertEquals(20, ((String) ids.get(0)).length());
+        assertNotEquals(ids.get(0), ids.get(1));
+        assertEquals(36, ((String) ids.get(2)).length());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(ids.get(i), published.get(i).payload().getId());
+        }
+    }
+
+    public void testExecuteNeedsNoPermissions() throws Exception {
+        List<Published> published = new ArrayList<>();
+        OpniPreProcessor processor = processor(new PreprocessingServices(Settings.EMPTY),
+            new HashMap<>(Collections.singletonMap("mask_logs", true)), published);
+        // enforced when the tests run with the security manager
+        AccessControlContext noPermissions = new AccessControlContext(
+            new ProtectionDomain[] { new ProtectionDomain(null, new Permissions()) });
+        IngestDocument document = AccessController.doPrivileged((PrivilegedExceptionAction<IngestDocument>) () ->
+            processor.execute(document("cluster_id", "c1", "log", "GET /healthz 200 took 15ms")), noPermissions);
+        assertThat(document.getSourceAndMetadata(), hasEntry("log_type", "workload"));
+        assertEquals(1, published.size());
+
+        // and what it throws reaches the ingest service as it is
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> processor.execute(document("log", "started")));
+        assertThat(e.getMessage(), containsString("field [cluster_id] not present"));
+    }
+
+    public void testTokenIdsCarryTheIdOfTheirVocabulary() throws Exception {
+        List<Published> published = new ArrayList<>();
+        Map<String, Object> config = new HashMap<>();
+        config.put("mask_logs", true);
+        config.put("token_ids", true);
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY, "node-1");
+        processor(services, config, published).execute(document("cluster_id", "c1", "log", "GET /healthz took 15 ms"));
+        OpniPayloadProto.Payload payload = published.get(0).payload();
+        assertEquals(services.vocabulary.id, payload.getVocabularyId());
+        assertTrue(payload.getVocabularyId().startsWith("node-1/"));
+        assertEquals(payload.getVocabularyId(),
+            payload.getField(OpniPayloadProto.Payload.getDescriptor().findFieldByNumber(OpniPayloadProto.Payload.VOCABULARY_ID_FIELD_NUMBER)));
+        List<String> tokens = services.vocabulary.tokens(0);
+        List<String> decoded = new ArrayList<>();
+        for (int id : payload.getMaskedTokenIdsList()) {
+            decoded.add(tokens.get(id));
+        }
+        assertEquals(payload.getMaskedLog(), String.join(" ", decoded));
+
+        // the same node after a restart has another vocabulary
+        PreprocessingServices restarted = new PreprocessingServices(Settings.EMPTY, "node-1");
+        processor(restarted, config, published).execute(document("cluster_id", "c1", "log", "GET /healthz took 15 ms"));
+        assertNotEquals(payload.getVocabularyId(), published.get(1).payload().getVocabularyId());
+    }
+
+
     // private Map<String, Object> ingestDocument(Map<String, Object> config, String field, String value) throws Exception {
     //     Map<String, Object> document = new HashMap<>();
     //     document.put(field, value);
@@ -0,0 +1,79 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.bytes.BytesArray;
+import org.opensearch.common.xcontent.XContentHelper;
+import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.ingest.IngestDocument;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PreprocessingFailureTests extends OpenSearchTestCase {
+
+    private static DocumentFields fields(Map<String, Object> source) {
+        return new DocumentFields(new IngestDocument(source, new HashMap<>()));
+    }
+
+    public void testMalformedDocumentsAreFoundWithoutExceptions() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("log", "GET /healthz 200");
+        source.put("kubernetes", Collections.singletonMap("labels", "not an object"));
+        assertThat(PreprocessingFailure.check(fields(source)), nullValue());
+
+        source.put("kubernetes", Collections.singletonMap("pod_name", 7));
+        PreprocessingFailure failure = PreprocessingFailure.check(fields(source));
+        assertThat(failure.reason, equalTo(PreprocessingFailure.Reason.INVALID_FIELD_TYPE));
+        assertThat(failure.field, equalTo("kubernetes.pod_name"));
+
+        source.remove("kubernetes");
+        source.put("message", Collections.singletonMap("text", "hello"));
+        assertThat(PreprocessingFailure.check(fields(source)).field, equalTo("message"));
+
+        source.remove("message");
+        source.put("log_type", "workload");
+        failure = PreprocessingFailure.checkPayload(fields(source), true);
+        assertThat(failure.reason, equalTo(PreprocessingFailure.Reason.MISSING_FIELD));
+        assertThat(failure.field, equalTo("cluster_id"));
+        assertThat(failure.reason.code, equalTo("missing_field"));
+        source.put("cluster_id", "c1");
+        // slim documents lack their empty placeholders
+        assertThat(PreprocessingFailure.checkPayload(fields(source), true), nullValue());
+        assertThat(PreprocessingFailure.checkPayload(fields(source), false).field, equalTo("pod_name"));
+        for (String field : new String[] { "pod_name", "namespace_name", "deployment", "service" }) {
+            source.put(field, "");
+        }
+        assertThat(PreprocessingFailure.checkPayload(fields(source), false), nullValue());
+    }
+
+    public void testDeadLetterIsCompact() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("_id", "abc");
+        source.put("message", randomAlphaOfLength(PreprocessingFailure.DEAD_LETTER_LOG_LENGTH + 100));
+        source.put("kubernetes", Collections.singletonMap("pod_name", 7));
+        DocumentFields fields = fields(source);
+        PreprocessingFailure failure = PreprocessingFailure.check(fields);
+        failure.tag(fields);
+        assertThat(fields.get(PreprocessingFailure.REASON_FIELD), equalTo("invalid_field_type"));
+        assertThat(fields.get(PreprocessingFailure.FIELD_FIELD), equalTo("kubernetes.pod_name"));
+
+        Map<String, Object> deadLetter = XContentHelper.convertToMap(new BytesArray(failure.deadLetter(fields)), false,
+            XContentType.JSON).v2();
+        assertThat(deadLetter.get("id"), equalTo("abc"));
+        assertThat(deadLetter.get("reason"), equalTo("invalid_field_type"));
+        assertThat(deadLetter.get("field"), equalTo("kubernetes.pod_name"));
+        assertThat(deadLetter.get("cluster_id"), nullValue());
+        assertThat(((String) deadLetter.get("log")).length(), equalTo(PreprocessingFailure.DEAD_LETTER_LOG_LENGTH));
+    }
+}
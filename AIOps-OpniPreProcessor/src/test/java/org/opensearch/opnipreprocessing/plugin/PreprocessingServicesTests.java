@@ -0,0 +1,212 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.Strings;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.env.Environment;
+import org.opensearch.env.TestEnvironment;
+import org.opensearch.test.OpenSearchTestCase;
+import org.opensearch.watcher.ResourceWatcherService;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class PreprocessingServicesTests extends OpenSearchTestCase {
+
+    private static final String RULES = "masking:\n"
+        + "  engine: %s\n"
+        + "  rules:\n"
+        + "    request_id:\n"
+        + "      pattern: 'req-[0-9a-f]{8}'\n"
+        + "      phase: before_split\n"
+        + "    z_num:\n"
+        + "      pattern: '\\d+'\n"
+        + "      mask: num\n"
+        + "    a_version:\n"
+        + "      pattern: 'v\\d+'\n"
+        + "      mask: version\n"
+        + "      order: 1\n";
+
+    private static Settings yaml(String source) {
+        return Settings.builder().loadFromSource(source, XContentType.YAML).build();
+    }
+
+    public void testConfiguredRulesReplaceBuiltInRules() {
+        for (String engine : new String[] {LogMasker.ENGINE_REGEX, LogMasker.ENGINE_LEXER, LogMasker.ENGINE_AUTOMATON}) {
+            PreprocessingServices services = new PreprocessingServices(yaml(String.format(Locale.ROOT, RULES, engine)));
+            assertThat(services.masker().getEngine(), equalTo(engine));
+            // z_num runs before a_version, which has a higher order; the automaton prefers the longer match
+            String version = engine.equals(LogMasker.ENGINE_AUTOMATON) ? "<version>" : "v<num>";
+            assertThat(services.masker().mask("GET req-0a1b2c3d took 15 ms at 10.0.0.1 v2"),
+                equalTo("get <request_id> took <num> ms at <num>.<num>.<num>.<num> " + version));
+        }
+    }
+
+    public void testInvalidRulesKeepTheLastGoodOnes() {
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        LogMasker builtIn = services.masker();
+        assertFalse(services.reloadMasker(yaml("masking.rules.x.pattern: '(unclosed'\n")));
+        assertFalse(services.reloadMasker(yaml("masking.rules.x:\n  pattern: 'a'\n  phase: sometimes\n")));
+        assertFalse(services.reloadMasker(yaml("masking.rules.x.pattern: 'a*'\n")));
+        assertFalse(services.reloadMasker(yaml("masking:\n  engine: automaton\n  rules.x.pattern: '(a)\\1'\n")));
+        assertThat(services.masker(), sameInstance(builtIn));
+        assertThat(Strings.toString(services), containsString("\"load_failures\":4"));
+    }
+
+    public void testMalformedSettingsKeepTheLastGoodRules() {
+        // a rule that is not a group, and a non-int order, fail in Settings rather than in the rules
+        String[] malformed = {
+            "masking.rules.url: http\n",
+            "masking.rules.a:\n  pattern: 'a'\n  order: x\n",
+            "classification.rules.a: x\n",
+            "classification.rules.a:\n  log_type: workload\n  order: x\n",
+            "masking.profiles.a: x\n" };
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        LogMasker builtIn = services.masker();
+        for (String source : malformed) {
+            assertFalse(source, services.reloadMasker(yaml(source)));
+        }
+        assertThat(services.masker(), sameInstance(builtIn));
+        assertThat(Strings.toString(services), containsString("\"load_failures\":" + malformed.length));
+
+        // at node start the built-in rules take over
+        for (String source : malformed) {
+            services = new PreprocessingServices(yaml(source));
+            assertThat(services.masker().mask("took 15 ms"), equalTo("took <num> ms"));
+            assertThat(Strings.toString(services), containsString("\"load_failures\":1"));
+        }
+    }
+
+    public void testWatcherSwapsTheMasker() throws Exception {
+        Path home = createTempDir();
+        Environment env = TestEnvironment.newEnvironment(Settings.builder().put(Environment.PATH_HOME_SETTING.getKey(), home).build());
+        Path file = env.configFile().resolve(OpniPreprocessingConfig.SETTINGS_FILE);
+        Files.createDirectories(file.getParent());
+        Files.write(file, "masking:\n  engine: lexer\n".getBytes(StandardCharsets.UTF_8));
+
+        PreprocessingServices services = new PreprocessingServices(OpniPreprocessingConfig.loadNodeSettings(env));
+        ResourceWatcherService watcherService = new ResourceWatcherService(
+            Settings.builder().put(ResourceWatcherService.ENABLED.getKey(), false).build(), null);
+        services.watch(watcherService, env);
+        assertThat(services.masker().mask("took 15 ms"), equalTo("took <num> ms"));
+
+        Files.write(file, String.format(Locale.ROOT, RULES, "lexer").replace("mask: num", "mask: number")
+            .getBytes(StandardCharsets.UTF_8));
+        watcherService.notifyNow(ResourceWatcherService.Frequency.HIGH);
+        assertThat(services.masker().mask("took 15 ms"), equalTo("took <number> ms"));
+
+        LogMasker good = services.masker();
+        Files.write(file, "masking:\n  engine: lexer\n  rules:\n    broken:\n      pattern: '['\n".getBytes(StandardCharsets.UTF_8));
+        watcherService.notifyNow(ResourceWatcherService.Frequency.HIGH);
+        assertThat(services.masker(), sameInstance(good));
+
+        Files.write(file, "masking:\n  engine: lexer\n  rules:\n    broken:\n      pattern: 'a'\n      order: x\n"
+            .getBytes(StandardCharsets.UTF_8));
+        watcherService.notifyNow(ResourceWatcherService.Frequency.HIGH);
+        assertThat(services.masker(), sameInstance(good));
+    }
+
+    private static List<Object> extraRule(String pattern, String mask, String phase) {
+        Map<String, Object> rule = new HashMap<>();
+        rule.put("pattern", pattern);
+        rule.put("mask", mask);
+        if (phase != null) {
+            rule.put("phase", phase);
+        }
+        return Collections.singletonList(rule);
+    }
+
+    public void testPipelineRulesSelectBuiltInsAndAddExtraRules() {
+        LogMasker.MaskingRuleClass rules = OpniPreprocessingConfig.loadPipelineMaskingRules(Arrays.asList("ip", "num"),
+            extraRule("tenant-[a-z]+", "tenant", OpniPreprocessingConfig.PHASE_BEFORE_SPLIT));
+        LogMasker masker = new LogMasker(LogMasker.ENGINE_LEXER, rules, null);
+        assertThat(masker.mask("tenant-acme sent 15 bytes to 10.0.0.1 after 9ms"),
+            equalTo("<tenant> sent <num> bytes to <ip> after 9ms"));
+
+        expectThrows(IllegalArgumentException.class,
+            () -> OpniPreprocessingConfig.loadPipelineMaskingRules(Collections.singletonList("ipv6"), null));
+        expectThrows(IllegalArgumentException.class,
+            () -> OpniPreprocessingConfig.loadPipelineMaskingRules(null, extraRule("a*", "a", null)));
+        expectThrows(IllegalArgumentException.class,
+            () -> OpniPreprocessingConfig.loadPipelineMaskingRules(null, extraRule("a", "a", "sometimes")));
+    }
+
+    public void testIdenticalPipelineRuleSetsShareOneMasker() {
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        List<Object> extra = extraRule("tenant-[a-z]+", "tenant", null);
+        LogMasker first = services.pipelineMasker(LogMasker.ENGINE_LEXER,
+            OpniPreprocessingConfig.loadPipelineMaskingRules(Arrays.asList("url", "num"), extra));
+        LogMasker second = services.pipelineMasker(LogMasker.ENGINE_LEXER,
+            OpniPreprocessingConfig.loadPipelineMaskingRules(Arrays.asList("num", "url"), extra));
+        assertThat(second, sameInstance(first));
+        LogMasker otherEngine = services.pipelineMasker(LogMasker.ENGINE_REGEX, first.getMaskingRules());
+        assertThat(otherEngine, not(sameInstance(first)));
+        LogMasker otherRules = services.pipelineMasker(LogMasker.ENGINE_LEXER,
+            OpniPreprocessingConfig.loadPipelineMaskingRules(Collections.singletonList("num"), extra));
+        assertThat(otherRules, not(sameInstance(first)));
+        assertThat(services.pipelineMaskers(), equalTo(3));
+        assertThat(Strings.toString(services), containsString("\"pipeline_rule_set_reuses\":1"));
+    }
+
+    public void testMaskingProfilesPickRulesByLogTypeAndComponent() {
+        PreprocessingServices services = new PreprocessingServices(yaml("masking:\n"
+            + "  engine: lexer\n"
+            + "  profiles:\n"
+            + "    kubelet:\n"
+            + "      log_type: controlplane\n"
+            + "      components: [kubelet, etcd]\n"
+            + "      rules: [klog_date, go_file_path, ip, num]\n"
+            + "    rke2:\n"
+            + "      log_type: controlplane\n"
+            + "      components: [rke2]\n"
+            + "      rules: [num, klog_date, go_file_path, ip]\n"
+            + "    controlplane:\n"
+            + "      log_type: controlplane\n"
+            + "      rules: [num]\n"));
+        String line = "I1018 10:00:01.123 server.go:42 dial 10.0.0.1 failed: https://x.io";
+        assertThat(services.masker("controlplane", "kubelet").mask(line),
+            equalTo("<klog_date> <go_file_path> dial <ip> failed https //x.io"));
+        assertThat(services.masker("controlplane", "rke2"), sameInstance(services.masker("controlplane", "etcd")));
+        assertThat(services.masker("controlplane", "kube-proxy").mask("took 15 ms at 10.0.0.1"),
+            equalTo("took <num> ms at <num>.<num>"));
+        assertThat(services.masker("workload", "kubelet"), sameInstance(services.masker()));
+        assertThat(services.masker(null, null), sameInstance(services.masker()));
+        assertThat(Strings.toString(services), containsString("{\"name\":\"controlplane\",\"log_type\":\"controlplane\","
+            + "\"components\":[],\"rules_before_split\":0,\"rules\":1,\"lines\":1}"));
+    }
+
+    public void testInvalidMaskingProfilesAreRejected() {
+        PreprocessingServices services = new PreprocessingServices(Settings.EMPTY);
+        assertFalse(services.reloadMasker(yaml("masking.profiles.a:\n  rules: [num]\n")));
+        assertFalse(services.reloadMasker(yaml("masking.profiles.a:\n  log_type: controlplane\n  rules: [ipv6]\n")));
+        assertFalse(services.reloadMasker(yaml("masking.profiles.a:\n  log_type: controlplane\n  rule: [num]\n")));
+        assertFalse(services.reloadMasker(yaml("masking.profiles:\n"
+            + "  a:\n    log_type: controlplane\n    components: [etcd]\n    rules: [num]\n"
+            + "  b:\n    log_type: controlplane\n    components: [etcd, kubelet]\n    rules: [ip]\n")));
+        // profiles select from the node's rules, not the built-in ones they replace
+        assertFalse(services.reloadMasker(yaml(String.format(Locale.ROOT, RULES, "regex")
+            + "  profiles.a:\n    log_type: controlplane\n    rules: [ip]\n")));
+        assertTrue(services.reloadMasker(yaml(String.format(Locale.ROOT, RULES, "regex")
+            + "  profiles.a:\n    log_type: controlplane\n    rules: [z_num]\n")));
+        assertThat(services.masker("controlplane", null).mask("v2 req-0a1b2c3d"), equalTo("v<num> req-<num>a<num>b<num>c<num>d"));
+    }
+}
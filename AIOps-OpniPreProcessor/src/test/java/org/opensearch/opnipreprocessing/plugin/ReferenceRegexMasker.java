@@ -0,0 +1,77 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Frozen copy of the original regex masker and its built-in rules, the reference every masking
+ * engine is compared with. Do not change it: it defines the expected output.
+ */
+final class ReferenceRegexMasker {
+
+    private static final class Rule {
+        final Pattern regexPattern;
+        final String maskWithWrap;
+
+        Rule(String regexPatternString, String maskWith) {
+            this.regexPattern = Pattern.compile(regexPatternString);
+            this.maskWithWrap = "<" + maskWith + ">";
+        }
+    }
+
+    private final List<Rule> maskingRules = new ArrayList<>();
+    private final List<Rule> maskingRulesBeforeSplit = new ArrayList<>();
+    private final String delimiters = "([|:| \\(|\\)|\\[|\\]\'|\\{|\\}|\"|,|=])";
+    private final String removeDelimiters = "([| \\(|\\)|\\[|\\]\'|\\{|\\}|\"|,])";
+    private final Pattern ansiEscape = Pattern.compile("(\\x9B|\\x1B\\[)[0-?]*[ -\\/]*[@-~]");
+
+    ReferenceRegexMasker() {
+        maskingRules.add(new Rule("[^\\s]+\\.go : [0-9]+", "GO_FILE_PATH"));
+        maskingRules.add(new Rule("[a-z0-9]+[\\._]?[a-z0-9]+[@]\\w+[.]\\w{2,3}", "EMAIL_ADDRESS"));
+        maskingRules.add(new Rule("((?<=[^A-Za-z0-9])|^)(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\/\\d{1,3})((?=[^A-Za-z0-9])|$)", "IP"));
+        maskingRules.add(new Rule("((?<=[^A-Za-z0-9])|^)(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3})((?=[^A-Za-z0-9])|$)", "IP"));
+        maskingRules.add(new Rule("((?<=[^A-Za-z0-9])|^)(\\d+\\.\\d+\\s*(s|ds|cs|ms|µs|ns|ps|fs|as|zs|ys))((?=[^A-Za-z0-9])|$)", "DURATION"));
+        maskingRules.add(new Rule("(/[a-zA-Z_\\-\\./\\(?:[0-9]+[a-zA-Z0-9]|[a-zA-Z]+[0-9]\\)]*[\\s]?)", "PATH"));
+        maskingRules.add(new Rule("(?:[0-9]+[a-zA-Z!\\(\\)\\-\\.\\?\\[\\]_`~;:!@#$%^&+=\\*]|[a-zA-Z!\\(\\)\\-\\.\\?\\[\\]_`~;:!@#$%^&+=\\*]+[0-9])[a-zA-Z0-9!\\(\\)\\-\\.\\?\\[\\]_`~;:!@#$%^&+=\\*]*", "TOKEN_WITH_DIGIT"));
+        maskingRules.add(new Rule("((?<=[^A-Za-z0-9])|^)([\\-\\+]?\\d*\\.?\\d+)((?=[^A-Za-z0-9])|$)", "NUM"));
+        maskingRules.add(new Rule("\\{[\\s]*\\}", "EMPTY_SET"));
+        maskingRules.add(new Rule("\\[[\\s]*\\]", "EMPTY_LIST"));
+
+        maskingRulesBeforeSplit.add(new Rule("(http|ftp|https)://([\\w_-]+(?:(?:\\.*[\\w_-]+)+))([\\w.,@?^=%&:/~+#-]*[\\w@?^=%&/~+#-])?", "URL"));
+        maskingRulesBeforeSplit.add(new Rule("\\d{4}-(?:0[1-9]|1[0-2])-(?:0[1-9]|[1-2]\\d|3[0-1])[T|\\s](?:[0-1]\\d|2[0-3]):[0-5]\\d:[0-5]\\d(?:\\.\\d+|)[(?:Z|(?:\\+|\\-)(?:\\d{2}):?(?:\\d{2}))]", "UTC_DATE"));
+        maskingRulesBeforeSplit.add(new Rule("[IWEF]\\d{4}\\s\\d{2}:\\d{2}:\\d{2}[\\.\\d+]*", "KLOG_DATE"));
+        maskingRulesBeforeSplit.add(new Rule("(Jan(?:uary)?|Feb(?:ruary)?|Mar(?:ch)?|Apr(?:il)?|May|Jun(?:e)?|Jul(?:y)?|Aug(?:ust)?|Sep(?:tember)?|Oct(?:ober)?|Nov(?:ember)?|Dec(?:ember)?)\\s+(\\d{1,2}) (2[0-3]|[01]?[0-9]):([0-5]?[0-9]):([0-5]?[0-9])", "CUSTOM_DATE"));
+    }
+
+    String mask(String content) {
+        String maskedContent = ansiEscape.matcher(content).replaceAll("");
+        for (Rule mi : maskingRulesBeforeSplit) {
+            maskedContent = mi.regexPattern.matcher(maskedContent).replaceAll(mi.maskWithWrap);
+        }
+
+        maskedContent = String.join(" ", maskedContent.split("((?==|\\||:)|(?<==|\\||:))"));
+        maskedContent = String.join(" ", maskedContent.split("[\n\r\t\r]"));
+
+        for (Rule mi : maskingRules) {
+            maskedContent = mi.regexPattern.matcher(maskedContent).replaceAll(mi.maskWithWrap);
+        }
+
+        List<String> splitContext = Arrays.asList(maskedContent.split(delimiters));
+
+        maskedContent = String.join(" ", splitContext.stream().filter(s -> !removeDelimiters.contains(s)).collect(Collectors.toList()));
+
+        maskedContent = maskedContent.toLowerCase(Locale.ENGLISH);
+        return maskedContent;
+    }
+}
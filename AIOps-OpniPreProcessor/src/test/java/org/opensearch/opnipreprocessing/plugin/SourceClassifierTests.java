@@ -0,0 +1,169 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.common.settings.Settings;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+public class SourceClassifierTests extends OpenSearchTestCase {
+
+    private static Map<String, Object> source(Object... keysAndValues) {
+        Map<String, Object> source = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            source.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return source;
+    }
+
+    private static String classify(SourceClassifier classifier, Map<String, Object> source) {
+        long match = classifier.classify(source);
+        return classifier.logType(match, "workload") + "/" + classifier.component(match, source, "");
+    }
+
+    public void testBuiltInRulesMatchTheOriginalChain() {
+        SourceClassifier classifier = SourceClassifier.DEFAULT;
+        assertThat(classify(classifier, source("filename", "/var/lib/rancher/rke/log/kube-apiserver_abc123.log")),
+            equalTo("controlplane/kube-apiserver"));
+        assertThat(classify(classifier, source("filename", "/var/lib/rancher/rke/log/etcd_0.log")), equalTo("controlplane/etcd"));
+        assertThat(classify(classifier, source("filename", "/var/lib/rancher/k3s/k3s.log")), equalTo("controlplane/k3s"));
+        assertThat(classify(classifier, source("filename", "/var/lib/rancher/rke2/agent/logs/kubelet.log")),
+            equalTo("controlplane/kubelet"));
+        assertThat(classify(classifier, source("filename", "/var/log/syslog")), equalTo("workload/"));
+        // the file wins over the unit and the image, even when it matches no rule
+        assertThat(classify(classifier, source("filename", "/var/log/syslog", "COMM", "kubelet", "container_image", "longhornio/x")),
+            equalTo("workload/"));
+        assertThat(classify(classifier, source("COMM", "rke2-server")), equalTo("controlplane/rke2"));
+        assertThat(classify(classifier, source("COMM", "kubelet")), equalTo("controlplane/kubelet"));
+        assertThat(classify(classifier, source("COMM", "sshd", "container_image", "longhornio/x")), equalTo("workload/"));
+
+        Map<String, Object> labels = source("tier", "control-plane");
+        assertThat(classify(classifier, source("kubernetes", source("labels", labels))), equalTo("controlplane/control-plane"));
+        // a longhorn or rancher image overrides the log_type of the tier, not its component
+        assertThat(classify(classifier, source("kubernetes", source("labels", labels, "container_image", "longhornio/manager:v1"))),
+            equalTo("longhorn/control-plane"));
+        assertThat(classify(classifier, source("kubernetes", source("container_image", "rancher/rancher:v2.7"))),
+            equalTo("workload/"));
+        assertThat(classify(classifier, source("kubernetes", source("container_image", "rancher/rancher:v2.7"), "deployment", "rancher")),
+            equalTo("rancher/"));
+        assertThat(classify(classifier, source("container_image", "docker.io/longhornio/engine", "deployment", "rancher",
+            "kubernetes", source("container_image", "rancher/rancher:v2.7"))), equalTo("longhorn/"));
+        assertThat(classify(classifier, source("kubernetes", "not a map", "container_image", 42)), equalTo("workload/"));
+    }
+
+    public void testRulesFromSettings() {
+        Settings settings = Settings.builder()
+            .put("classification.rules.rke2_server.field", "filename")
+            .putList("classification.rules.rke2_server.glob", "/var/lib/rancher/rke2/server/logs/*")
+            .put("classification.rules.rke2_server.log_type", "controlplane")
+            .put("classification.rules.rke2_server.component_from_value", ".")
+            .put("classification.rules.rke2_server.order", 1)
+            .put("classification.rules.audit.field", "filename")
+            .putList("classification.rules.audit.glob", "*audit.log")
+            .put("classification.rules.audit.log_type", "audit")
+            .put("classification.rules.syslog.field", "filename")
+            .putList("classification.rules.syslog.glob", "/var/log/syslog")
+            .put("classification.rules.syslog.log_type", "system")
+            .put("classification.rules.team.field", "kubernetes.labels.team")
+            .putList("classification.rules.team.prefix", "platform-")
+            .put("classification.rules.team.component", "platform")
+            .build();
+        SourceClassifier classifier = SourceClassifier.load(settings);
+        assertThat(classifier.size(), equalTo(4));
+        assertThat(classify(classifier, source("filename", "/var/lib/rancher/rke2/server/logs/kube-scheduler.log")),
+            equalTo("controlplane/kube-scheduler"));
+        // the audit rule comes first, by order, but sets no component
+        assertThat(classify(classifier, source("filename", "/var/lib/rancher/rke2/server/logs/audit.log")), equalTo("audit/audit"));
+        assertThat(classify(classifier, source("filename", "/var/log/syslog")), equalTo("system/"));
+        assertThat(classify(classifier, source("filename", "/var/log/syslog.1")), equalTo("workload/"));
+        assertThat(classify(classifier, source("filename", "/host/var/lib/rancher/rke2/server/logs/x.log")), equalTo("workload/"));
+        Map<String, Object> kubernetes = source("labels", source("team", "platform-infra"));
+        assertThat(classify(classifier, source("kubernetes", kubernetes, "filename", "/var/log/audit.log")), equalTo("audit/platform"));
+        kubernetes = source("labels", source("team", "infra-platform-"));
+        assertThat(classify(classifier, source("kubernetes", kubernetes)), equalTo("workload/"));
+    }
+
+    public void testClassificationsAreCachedBySource() {
+        TinyLfuCache<SourceClassifier.Inputs, SourceClassifier.Classification> cache =
+            new TinyLfuCache<>(100, 1 << 20, SourceClassifier::cacheWeight);
+        SourceClassifier classifier = SourceClassifier.DEFAULT;
+        String file = "/var/lib/rancher/rke/log/kubelet_0.log";
+        SourceClassifier.Classification first = classifier.classify(source("filename", file, "log", "a"), cache);
+        assertThat(first.logType + "/" + first.component, equalTo("controlplane/kubelet"));
+        assertSame(first, classifier.classify(source("filename", new String(file.toCharArray()), "log", "b"), cache));
+        assertThat(cache.hits(), equalTo(1L));
+
+        // a present field that is not a string still gates the rules that need it absent
+        SourceClassifier.Classification comm = classifier.classify(source("COMM", "kubelet"), cache);
+        assertThat(comm.logType, equalTo("controlplane"));
+        SourceClassifier.Classification gated = classifier.classify(source("COMM", "kubelet", "filename", 7), cache);
+        assertThat(gated.logType + "/" + gated.component, equalTo("workload/"));
+        assertThat(classifier.classify(source("COMM", "kubelet", "filename", null), cache).logType, equalTo("workload"));
+
+        // the entries of other rules are not used
+        SourceClassifier reloaded = SourceClassifier.load(Settings.EMPTY);
+        SourceClassifier.Classification again = reloaded.classify(source("filename", file), cache);
+        assertNotSame(first, again);
+        assertThat(again.component, equalTo("kubelet"));
+    }
+
+    public void testInvalidRulesAreRejected() {
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> SourceClassifier.load(Settings.builder()
+            .put("classification.rules.a.field", "filename").putList("classification.rules.a.glob", "/var/*/log")
+            .put("classification.rules.a.log_type", "x").build()));
+        assertThat(e.getMessage(), containsString("[classification.rules.a.glob] may only have a [*] at its start or end"));
+        e = expectThrows(IllegalArgumentException.class, () -> SourceClassifier.load(Settings.builder()
+            .put("classification.rules.a.field", "filename").putList("classification.rules.a.contains", "x").build()));
+        assertThat(e.getMessage(), containsString("sets neither [log_type] nor [component]"));
+        e = expectThrows(IllegalArgumentException.class, () -> SourceClassifier.load(Settings.builder()
+            .put("classification.rules.a.field", "filename").put("classification.rules.a.log_type", "x").build()));
+        assertThat(e.getMessage(), containsString("needs one of [contains], [prefix] or [glob]"));
+        e = expectThrows(IllegalArgumentException.class, () -> SourceClassifier.load(Settings.builder()
+            .put("classification.rules.a.field", "filename").putList("classification.rules.a.contains", "x")
+            .put("classification.rules.a.log_type", "x").put("classification.rules.a.tier", "y").build()));
+        assertThat(e.getMessage(), containsString("unknown options [tier]"));
+    }
+
+    public void testAutomatonFindsEveryOccurrence() {
+        List<String> patterns = new ArrayList<>(Arrays.asList("he", "she", "his", "hers", "\u00e9t\u00e9", "s"));
+        for (int i = 0; i < 20; i++) {
+            patterns.add(randomAlphaOfLengthBetween(1, 4).toLowerCase(Locale.ROOT));
+        }
+        AhoCorasick automaton = new AhoCorasick(patterns);
+        for (int round = 0; round < 100; round++) {
+            String text = randomFrom("ushers \u00e9t\u00e9", "") + randomAlphaOfLengthBetween(0, 50).toLowerCase(Locale.ROOT);
+            List<String> expected = new ArrayList<>();
+            for (int end = 1; end <= text.length(); end++) {
+                for (int p = 0; p < patterns.size(); p++) {
+                    if (text.startsWith(patterns.get(p), end - patterns.get(p).length())) {
+                        expected.add(p + "@" + end);
+                    }
+                }
+            }
+            List<String> found = new ArrayList<>();
+            for (int i = 0, state = 0; i < text.length(); i++) {
+                state = automaton.next(state, text.charAt(i));
+                int[] outputs = automaton.outputs(state).clone();
+                Arrays.sort(outputs);
+                for (int p : outputs) {
+                    found.add(p + "@" + (i + 1));
+                }
+            }
+            assertThat(text, found, equalTo(expected));
+        }
+    }
+}
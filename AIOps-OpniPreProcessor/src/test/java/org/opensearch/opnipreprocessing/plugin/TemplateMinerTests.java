@@ -0,0 +1,54 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+public class TemplateMinerTests extends OpenSearchTestCase {
+
+    private static TemplateMiner miner(int maxTemplates, int maxPartitions) {
+        return new TemplateMiner(4, 0.4, 100, maxTemplates, maxPartitions, 256);
+    }
+
+    public void testSimilarLinesShareATemplate() {
+        TemplateMiner miner = miner(100, 10);
+        TemplateMiner.Match first = miner.match("c1", "user alice logged in from <ip>");
+        assertThat(first.template, equalTo("user alice logged in from <ip>"));
+        TemplateMiner.Match second = miner.match("c1", "user bob logged in from <ip>");
+        assertThat(second.id, equalTo(first.id));
+        assertThat(second.template, equalTo("user <*> logged in from <ip>"));
+        assertThat(miner.match("c1", "user carol logged in from <ip>").template, equalTo("user <*> logged in from <ip>"));
+
+        TemplateMiner.Match other = miner.match("c1", "connection reset by peer <ip> after <duration>");
+        assertThat(other.id, not(equalTo(first.id)));
+        assertThat(miner.templates(), equalTo(2L));
+    }
+
+    public void testPartitionsAreIndependent() {
+        TemplateMiner miner = miner(100, 10);
+        TemplateMiner.Match a = miner.match("c1", "starting watch path <path>");
+        TemplateMiner.Match b = miner.match("c2", "starting watch path <path>");
+        assertThat(a.template, equalTo(b.template));
+        assertThat(a.id, not(equalTo(b.id)));
+        // ids only depend on the first line of a template
+        assertThat(miner(100, 10).match("c1", "starting watch path <path>").id, equalTo(a.id));
+    }
+
+    public void testMemoryIsBounded() {
+        TemplateMiner miner = miner(50, 4);
+        for (int i = 0; i < 2000; i++) {
+            miner.match("cluster" + (i % 8), "event" + (char) ('a' + i % 26) + " kind" + (char) ('a' + i / 26 % 26) + " happened");
+        }
+        assertThat(miner.partitions(), lessThanOrEqualTo(4L));
+        assertThat(miner.templates(), lessThanOrEqualTo(4L * 50));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TinyLfuCacheTests extends OpenSearchTestCase {
+
+    public void testHitsAndMisses() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(100, 1 << 20, LogMasker::cacheWeight);
+        assertThat(cache.get("regex", 1L, "a"), nullValue());
+        cache.put("regex", 1L, "a", "<a>");
+        assertThat(cache.get("regex", 1L, "a"), equalTo("<a>"));
+        assertThat(cache.hits(), equalTo(1L));
+        assertThat(cache.misses(), equalTo(1L));
+    }
+
+    public void testCollisionsAndOtherOwnersMiss() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(100, 1 << 20, LogMasker::cacheWeight);
+        cache.put("regex", 7L, "a", "<a>");
+        assertThat(cache.get("regex", 7L, "b"), nullValue());
+        assertThat(cache.get("lexer", 7L, "a"), nullValue());
+        assertThat(cache.get("regex", 7L, "a"), equalTo("<a>"));
+    }
+
+    public void testOwnersKeepAnEntryEach() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(100, 1 << 20, LogMasker::cacheWeight);
+        long hash = Hash64.hash("hot line");
+        // two maskers alternating on the same hot line
+        for (int i = 0; i < 10; i++) {
+            for (String owner : new String[] { "pipeline", "node" }) {
+                if (cache.get(owner, hash, "hot line") == null) {
+                    cache.put(owner, hash, "hot line", owner + " masked");
+                }
+            }
+        }
+        assertThat(cache.misses(), equalTo(2L));
+        assertThat(cache.hits(), equalTo(18L));
+        assertThat(cache.size(), equalTo(2L));
+        assertThat(cache.get("pipeline", hash, "hot line"), equalTo("pipeline masked"));
+        assertThat(cache.get("node", hash, "hot line"), equalTo("node masked"));
+    }
+
+    public void testBoundsAndAdmission() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(64, 1 << 20, LogMasker::cacheWeight);
+        // a small set of recurring lines mixed with a stream of one-off lines
+        for (int i = 0; i < 10000; i++) {
+            String key = i % 2 == 0 ? "hot" + (i / 2) % 32 : "cold" + i;
+            if (cache.get("o", Hash64.hash(key), key) == null) {
+                cache.put("o", Hash64.hash(key), key, key);
+            }
+        }
+        assertThat(cache.size(), lessThanOrEqualTo(64L));
+        assertThat(cache.rejections(), greaterThan(0L));
+        int hot = 0;
+        for (int i = 0; i < 32; i++) {
+            String key = "hot" + i;
+            if (cache.get("o", Hash64.hash(key), key) != null) {
+                hot++;
+            }
+        }
+        assertThat(hot, greaterThan(24));
+    }
+
+    public void testWeightBound() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(1000, 16 * 1024, LogMasker::cacheWeight);
+        String big = randomAlphaOfLength(2048);
+        cache.put("o", 1L, big, big);
+        assertThat(cache.get("o", 1L, big), nullValue());
+        for (int i = 0; i < 1000; i++) {
+            String key = randomAlphaOfLength(100);
+            cache.put("o", Hash64.hash(key), key, key);
+        }
+        assertThat(cache.weight(), lessThanOrEqualTo(16 * 1024L));
+    }
+
+    public void testCachedMaskerIsConsistentAcrossThreads() throws Exception {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(128, 1 << 20, LogMasker::cacheWeight);
+        LogMasker cached = new LogMasker(LogMasker.ENGINE_LEXER, cache);
+        LogMasker plain = new LogMasker(LogMasker.ENGINE_LEXER);
+        String[] lines = new String[200];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "GET /healthz " + (i % 50) + " took " + i + "ms from 10.0.0." + (i % 7);
+        }
+        Thread[] threads = new Thread[4];
+        CountDownLatch start = new CountDownLatch(1);
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 5000; i++) {
+                        String line = lines[(i * 31) % lines.length];
+                        assertEquals(plain.mask(line), cached.mask(line));
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failure[0], nullValue());
+        assertThat(cache.hits(), greaterThan(0L));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The OpenSearch Contributors require contributions made to
+ * this file be licensed under the Apache-2.0 license or a
+ * compatible open source license.
+ */
+package org.opensearch.opnipreprocessing.plugin;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class TokenVocabularyTests extends OpenSearchTestCase {
+
+    public void testMaskLabelsComeFirst() {
+        LogMasker.MaskingRuleClass rules = new LogMasker.MaskingRuleClass();
+        TokenVocabulary vocabulary = new TokenVocabulary("test", TokenVocabulary.labels(rules), 1000);
+        List<String> tokens = vocabulary.tokens(0);
+        assertThat(tokens.get(TokenVocabulary.UNKNOWN), equalTo(TokenVocabulary.UNKNOWN_TOKEN));
+        assertThat(tokens.get(1), equalTo("<url>"));
+        // ip_cidr and ip share their label
+        assertThat(vocabulary.size(), equalTo(1 + rules.rulesBeforeSplit.size() + rules.rules.size() - 1));
+
+        String masked = new LogMasker(LogMasker.ENGINE_LEXER).mask("GET https://example.com took 15 ms");
+        int[] ids = vocabulary.ids(masked);
+        List<String> decoded = new ArrayList<>();
+        for (int id : ids) {
+            decoded.add(vocabulary.tokens(id).get(0));
+        }
+        assertThat(String.join(" ", decoded), equalTo(masked));
+        assertThat(ids[1], equalTo(1));
+        assertThat(vocabulary.ids(masked), equalTo(ids));
+    }
+
+    public void testEmptyTokensAreSkipped() {
+        TokenVocabulary vocabulary = new TokenVocabulary("test", Collections.singletonList("NUM"), 1000);
+        assertThat(vocabulary.ids(""), equalTo(new int[0]));
+        assertThat(vocabulary.ids("  a  <num> a "), equalTo(new int[] {2, 1, 2}));
+    }
+
+    public void testFullVocabularyMapsNewTokensToUnknown() {
+        TokenVocabulary vocabulary = new TokenVocabulary("test", Collections.singletonList("NUM"), 4);
+        assertThat(vocabulary.ids("a b c d a <num>"), equalTo(new int[] {2, 3, 0, 0, 2, 1}));
+        assertThat(vocabulary.size(), equalTo(4));
+        assertThat(vocabulary.unknownTokens.sum(), equalTo(2L));
+    }
+
+    public void testConcurrentLinesAgreeOnIds() throws Exception {
+        TokenVocabulary vocabulary = new TokenVocabulary("test", Collections.emptyList(), 100000);
+        String[] lines = new String[200];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "token" + (i % 50) + " shared " + randomAlphaOfLength(3) + " word" + (i % 7);
+        }
+        int[][][] ids = new int[4][lines.length][];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[ids.length];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                for (int i = 0; i < lines.length; i++) {
+                    ids[thread][i] = vocabulary.ids(lines[i]);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<String> tokens = vocabulary.tokens(0);
+        assertThat(new HashSet<>(tokens).size(), equalTo(tokens.size()));
+        for (int t = 1; t < ids.length; t++) {
+            for (int i = 0; i < lines.length; i++) {
+                assertTrue(Arrays.equals(ids[0][i], ids[t][i]));
+            }
+        }
+        for (int i = 0; i < lines.length; i++) {
+            List<String> decoded = new ArrayList<>();
+            for (int id : ids[0][i]) {
+                decoded.add(tokens.get(id));
+            }
+            assertThat(String.join(" ", decoded), equalTo(lines[i]));
+        }
+    }
+}
@@ -21,17 +21,12 @@ import org.opensearch.env.Environment;
 
 
 
-import java.security.AccessController;
-import java.security.PrivilegedExceptionAction;
-import java.sql.Timestamp;
-import java.security.PrivilegedActionException;
-import java.security.PrivilegedAction;
+import java.time.Instant;
 
 import static org.opensearch.ingest.ConfigurationUtils.readBooleanProperty;
 import static org.opensearch.ingest.ConfigurationUtils.readOptionalStringProperty;
 import static org.opensearch.ingest.ConfigurationUtils.readStringProperty;
 
-import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.lang.NullPointerException;
 import java.util.Set;
@@ -40,7 +35,6 @@ import java.util.HashSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Iterator;
@@ -64,33 +58,23 @@ public final class OpniJsonDetector extends AbstractProcessor {
         LOGFIELDS = Collections.unmodifiableSet(tmpSet);
     }
 
-    public OpniJsonDetector(String tag, String description)
-            throws IOException, PrivilegedActionException {
+    public OpniJsonDetector(String tag, String description) {
         super(tag, description);
         this.jsonObjectPattern = Pattern.compile("\\{(?:[^{}]|(\\{(?:[^{}]|((\\{(?:[^{}]|())*\\})))*\\}))*\\}");
     }
 
     @Override
     public IngestDocument execute(IngestDocument ingestDocument) throws Exception {
-        // main entry
-        try {
-            return AccessController.doPrivileged(new PrivilegedExceptionAction<IngestDocument>() {
-                @Override
-                public IngestDocument run() throws Exception {
-                    long startTime = System.nanoTime();
-
-                    normalizeDocument(ingestDocument);
-                    //jsonExtractionFromLog(ingestDocument);
-
-                    long endTime = System.nanoTime();
-                    // ingestDocument.setFieldValue("json_extraction_time_ms", (endTime-startTime) / 1000000.0);
-                    
-                    return ingestDocument;
-                }
-            });
-        } catch (PrivilegedActionException e) {
-            throw e;
-        }         
+        // main entry, nothing here needs privileges
+        long startTime = System.nanoTime();
+
+        normalizeDocument(ingestDocument);
+        //jsonExtractionFromLog(ingestDocument);
+
+        long endTime = System.nanoTime();
+        // ingestDocument.setFieldValue("json_extraction_time_ms", (endTime-startTime) / 1000000.0);
+
+        return ingestDocument;
     }
 
     private void normalizeDocument(IngestDocument ingestDocument) {
@@ -99,55 +83,62 @@ public final class OpniJsonDetector extends AbstractProcessor {
         1. normalize time field
         2. normalize log field
          */
-        
+        DocumentFields fields = new DocumentFields(ingestDocument);
+        normalizeDocument(fields);
+        fields.apply();
+    }
+
+    private void normalizeDocument(DocumentFields fields) {
         // normalize field `time`
         long unixTime = System.currentTimeMillis();
-        ingestDocument.setFieldValue("ingest_at", ((Date)new Timestamp(unixTime)).toString());
-        if (!ingestDocument.hasField("time")){
-            if (ingestDocument.hasField("timestamp")) {
-                ingestDocument.setFieldValue("time", ingestDocument.getFieldValue("timestamp", String.class));
-                ingestDocument.setFieldValue("raw_ts", "yes");
+        // ISO-8601 in UTC, whatever the time zone of the node
+        fields.set("ingest_at", Instant.ofEpochMilli(unixTime).toString());
+        boolean hasTimestamp = fields.has("timestamp");
+        if (!fields.has("time")){
+            if (hasTimestamp) {
+                fields.set("time", fields.required("timestamp"));
+                fields.set("raw_ts", "yes");
             }
             else {
-                ingestDocument.setFieldValue("time", Long.toString(unixTime));
-                ingestDocument.setFieldValue("raw_ts", "no");
+                fields.set("time", Long.toString(unixTime));
+                fields.set("raw_ts", "no");
             }
         }
         else {
-            ingestDocument.setFieldValue("raw_ts", "raw time");
+            fields.set("raw_ts", "raw time");
         }
-        if (ingestDocument.hasField("timestamp")) {
-            ingestDocument.removeField("timestamp"); 
+        if (hasTimestamp) {
+            fields.remove("timestamp");
         }
 
         // If it's an event we don't need to do any further processing
-        if (ingestDocument.hasField("log_type") && ingestDocument.getFieldValue("log_type", String.class).equals("event")) {
+        if (fields.is("log_type", "event")) {
             return;
         }
 
         // normalize field `log`
         String actualLog = "NONE";
-        if (!ingestDocument.hasField("log")) {
-            if (ingestDocument.hasField("message")) {
-                actualLog = ingestDocument.getFieldValue("message", String.class);              
-                ingestDocument.removeField("message");
-                ingestDocument.setFieldValue("log_source_field", "message");
+        if (!fields.has("log")) {
+            if (fields.has("message")) {
+                actualLog = fields.required("message");
+                fields.remove("message");
+                fields.set("log_source_field", "message");
             }
-            else if (ingestDocument.hasField("MESSAGE")) {
-                actualLog = ingestDocument.getFieldValue("MESSAGE", String.class);
-                ingestDocument.removeField("MESSAGE");
-                ingestDocument.setFieldValue("log_source_field", "MESSAGE");
+            else if (fields.has("MESSAGE")) {
+                actualLog = fields.required("MESSAGE");
+                fields.remove("MESSAGE");
+                fields.set("log_source_field", "MESSAGE");
             }
             else {
-                ingestDocument.setFieldValue("log_source_field", "NONE");
+                fields.set("log_source_field", "NONE");
             }
         }
         else {
-            actualLog = ingestDocument.getFieldValue("log", String.class);
-            ingestDocument.setFieldValue("log_source_field", "log");
+            actualLog = fields.required("log");
+            fields.set("log_source_field", "log");
         }
         actualLog = actualLog.trim();
-        ingestDocument.setFieldValue("log", actualLog);
+        fields.set("log", actualLog);
     }
 
     private JsonObject jsonFlatten (JsonObject jsonObject, String parentName, JsonObject resJsonObject) {
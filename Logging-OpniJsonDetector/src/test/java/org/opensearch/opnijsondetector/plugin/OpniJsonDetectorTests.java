@@ -14,11 +14,13 @@ import org.opensearch.ingest.IngestDocument;
 import org.opensearch.ingest.Processor;
 import org.opensearch.ingest.RandomDocumentPicks;
 
+import java.time.Instant;
 import java.util.Map;
 import java.util.Collections;
 import java.util.HashMap;
 
 import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.lessThan;
 
 public class OpniJsonDetectorTests extends OpenSearchTestCase {
     // Add unit tests for your plugin
@@ -42,6 +44,24 @@ public class OpniJsonDetectorTests extends OpenSearchTestCase {
         // assertTrue(data2.get("log_jsonObject").equals(targetValue2));
     }
 
+    public void testNormalizeDocument() throws Exception {
+        Map<String, Object> document = new HashMap<>();
+        document.put("message", "  GetCartAsync called with userId=131210 ");
+        document.put("timestamp", "2022-04-28T08:08:05.525945107Z");
+        IngestDocument ingestDocument = new IngestDocument(document, new HashMap<>());
+        Processor processor = new OpniJsonDetector.Factory().create(Collections.emptyMap(), randomAlphaOfLength(10), "desc", new HashMap<>());
+        Map<String, Object> data = processor.execute(ingestDocument).getSourceAndMetadata();
+
+        assertThat(data, hasEntry("log", "GetCartAsync called with userId=131210"));
+        assertThat(data, hasEntry("log_source_field", "message"));
+        assertThat(data, hasEntry("time", "2022-04-28T08:08:05.525945107Z"));
+        assertThat(data, hasEntry("raw_ts", "yes"));
+        assertFalse(data.containsKey("message"));
+        assertFalse(data.containsKey("timestamp"));
+        long ingestAt = Instant.parse((String) data.get("ingest_at")).toEpochMilli();
+        assertThat(System.currentTimeMillis() - ingestAt, lessThan(60_000L));
+    }
+
     private Map<String, Object> ingestDocumentTest(Map<String, Object> config, String field, String value) throws Exception {
         Map<String, Object> document = new HashMap<>();
         document.put(field, value);